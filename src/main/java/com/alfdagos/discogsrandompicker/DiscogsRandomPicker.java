@@ -1,7 +1,17 @@
 package com.alfdagos.discogsrandompicker;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -10,6 +20,7 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import com.google.gson.JsonParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,11 +30,21 @@ import com.alfdagos.discogsrandompicker.exception.DiscogsApiException;
 import com.alfdagos.discogsrandompicker.exception.HistoryException;
 import com.alfdagos.discogsrandompicker.model.Album;
 import com.alfdagos.discogsrandompicker.model.AlbumFilter;
+import com.alfdagos.discogsrandompicker.model.DateRange;
 import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.alfdagos.discogsrandompicker.model.PickResult;
 import com.alfdagos.discogsrandompicker.model.Statistics;
+import com.alfdagos.discogsrandompicker.service.BinaryHistoryStore;
+import com.alfdagos.discogsrandompicker.service.CollectionCache;
 import com.alfdagos.discogsrandompicker.service.DiscogsService;
 import com.alfdagos.discogsrandompicker.service.ExportService;
+import com.alfdagos.discogsrandompicker.service.HistoryJson;
 import com.alfdagos.discogsrandompicker.service.HistoryService;
+import com.alfdagos.discogsrandompicker.service.HistoryStore;
+import com.alfdagos.discogsrandompicker.service.HistoryWriter;
+import com.alfdagos.discogsrandompicker.service.JsonLinesHistoryStore;
+import com.alfdagos.discogsrandompicker.service.PickerServer;
+import com.alfdagos.discogsrandompicker.service.SegmentedHistoryStore;
 import com.alfdagos.discogsrandompicker.service.StatisticsService;
 
 /**
@@ -47,10 +68,54 @@ public class DiscogsRandomPicker {
         this.config = new ConfigManager();
         this.discogsService = new DiscogsService(
             config.getDiscogsUsername(), 
-            config.getDiscogsToken());
-        this.historyService = new HistoryService();
-        this.statisticsService = new StatisticsService(historyService);
-        this.exportService = new ExportService(historyService);
+            config.getDiscogsToken(),
+            buildCollectionCache(config),
+            config.getFetchConcurrency());
+        this.historyService = new HistoryService(buildHistoryStore(config));
+        this.statisticsService = new StatisticsService(historyService, buildStatisticsMode(config));
+        this.exportService = new ExportService(historyService,
+            config.isExportParallel() ? ForkJoinPool.commonPool() : null);
+    }
+    
+    private static CollectionCache buildCollectionCache(ConfigManager config) {
+        long ttlMinutes = config.getCollectionCacheTtlMinutes();
+        if (ttlMinutes <= 0) {
+            return null;
+        }
+        return new CollectionCache(config.getCollectionCacheFile(), Duration.ofMinutes(ttlMinutes));
+    }
+    
+    private static HistoryStore buildHistoryStore(ConfigManager config) throws ConfigurationException {
+        Path historyFile = Paths.get(config.getHistoryFile());
+        switch (config.getHistoryBackend()) {
+            case "json":
+                return new JsonLinesHistoryStore(historyFile);
+            case "binary":
+                return new BinaryHistoryStore(historyFile);
+            case "segmented":
+                return new SegmentedHistoryStore(historyFile, buildPartition(config), config.isHistorySegmentCompression());
+            default:
+                throw new ConfigurationException(
+                    "Unknown history.backend '" + config.getHistoryBackend() + "'. Use json, binary or segmented");
+        }
+    }
+    
+    private static SegmentedHistoryStore.Partition buildPartition(ConfigManager config) throws ConfigurationException {
+        try {
+            return SegmentedHistoryStore.Partition.parse(config.getHistoryPartition());
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException(
+                "Unknown history.segment.period '" + config.getHistoryPartition() + "'. Use month or year");
+        }
+    }
+    
+    private static StatisticsService.Mode buildStatisticsMode(ConfigManager config) throws ConfigurationException {
+        try {
+            return StatisticsService.Mode.parse(config.getStatisticsMode());
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException(
+                "Unknown statistics.mode '" + config.getStatisticsMode() + "'. Use exact or approximate");
+        }
     }
     
     public static void main(String[] args) {
@@ -75,7 +140,8 @@ public class DiscogsRandomPicker {
                 "  Show statistics:            java -jar discogs-random-picker.jar --stats\n" +
                 "  Show history (last 10):     java -jar discogs-random-picker.jar --history --limit 10\n" +
                 "  Export to CSV:              java -jar discogs-random-picker.jar --export csv\n" +
-                "  Export to HTML:             java -jar discogs-random-picker.jar --export html -o myhistory.html\n");
+                "  Export to HTML:             java -jar discogs-random-picker.jar --export html -o myhistory.html\n" +
+                "  Serve over HTTP:            java -jar discogs-random-picker.jar --serve\n");
             return;
         }
         
@@ -118,8 +184,13 @@ public class DiscogsRandomPicker {
                 return;
             }
             
+            if (cmd.hasOption("serve")) {
+                serve(cmd);
+                return;
+            }
+            
             if (cmd.hasOption("stats")) {
-                showStatistics();
+                showStatistics(buildDateRange(cmd));
                 return;
             }
             
@@ -129,10 +200,24 @@ public class DiscogsRandomPicker {
             }
             
             if (cmd.hasOption("export")) {
-                exportHistory(cmd);
+                exportHistory(cmd, buildDateRange(cmd), buildCompression(cmd));
+                return;
+            }
+            
+            if (cmd.hasOption("import")) {
+                importHistory(cmd.getOptionValue("import"));
+                return;
+            }
+            
+            if (cmd.hasOption("compact-history")) {
+                compactHistory();
                 return;
             }
             
+            if (cmd.hasOption("refresh")) {
+                refreshCollection();
+            }
+            
             if (cmd.hasOption("collection-size")) {
                 showCollectionSize();
                 return;
@@ -157,6 +242,16 @@ public class DiscogsRandomPicker {
         options.addOption("s", "stats", false, "Show listening statistics");
         options.addOption(null, "history", false, "Show listening history");
         options.addOption(null, "collection-size", false, "Show collection size");
+        options.addOption(null, "refresh", false, "Re-download the local collection snapshot from Discogs");
+        options.addOption(null, "compact-history", false, "Rewrite the history file, dropping unreadable entries");
+        options.addOption(null, "serve", false, "Keep running and answer picks, history, stats and exports over local HTTP");
+        
+        options.addOption(Option.builder()
+            .longOpt("port")
+            .hasArg()
+            .argName("PORT")
+            .desc("Port for --serve (default from server.port)")
+            .build());
         
         options.addOption(Option.builder()
             .longOpt("limit")
@@ -172,6 +267,13 @@ public class DiscogsRandomPicker {
             .desc("Filter by genre")
             .build());
         
+        options.addOption(Option.builder()
+            .longOpt("style")
+            .hasArg()
+            .argName("STYLE")
+            .desc("Filter by style (e.g., Prog Rock, Techno)")
+            .build());
+        
         options.addOption(Option.builder("y")
             .longOpt("year")
             .hasArg()
@@ -211,7 +313,7 @@ public class DiscogsRandomPicker {
             .longOpt("export")
             .hasArg()
             .argName("FORMAT")
-            .desc("Export history (csv, html, markdown)")
+            .desc("Export history (csv, html, markdown, json)")
             .build());
         
         options.addOption(Option.builder("o")
@@ -221,11 +323,68 @@ public class DiscogsRandomPicker {
             .desc("Output filename for export")
             .build());
         
+        options.addOption(Option.builder("z")
+            .longOpt("compress")
+            .hasArg()
+            .argName("TYPE")
+            .desc("Compress a csv or json export (gzip, zstd)")
+            .build());
+        
+        options.addOption(Option.builder()
+            .longOpt("paged")
+            .desc("Export html as a directory whose page loads rows on demand, for large histories")
+            .build());
+        
+        options.addOption(Option.builder()
+            .longOpt("incremental")
+            .desc("Append only entries added since the last csv or json export to the same file")
+            .build());
+        
+        options.addOption(Option.builder()
+            .longOpt("from")
+            .hasArg()
+            .argName("DATE")
+            .desc("Only use history from this date for stats and export (YYYY, YYYY-MM or YYYY-MM-DD)")
+            .build());
+        
+        options.addOption(Option.builder()
+            .longOpt("to")
+            .hasArg()
+            .argName("DATE")
+            .desc("Only use history up to and including this date for stats and export")
+            .build());
+        
+        options.addOption(Option.builder()
+            .longOpt("import")
+            .hasArg()
+            .argName("FILE")
+            .desc("Add history entries from a JSON file (- for standard input)")
+            .build());
+        
         options.addOption(null, "no-duplicate", false, "Skip albums already in history");
         
         return options;
     }
     
+    private static DateRange buildDateRange(CommandLine cmd) throws ParseException {
+        try {
+            return DateRange.parse(cmd.getOptionValue("from"), cmd.getOptionValue("to"));
+        } catch (IllegalArgumentException e) {
+            throw new ParseException(e.getMessage());
+        }
+    }
+    
+    private static ExportService.Compression buildCompression(CommandLine cmd) throws ParseException {
+        if (!cmd.hasOption("compress")) {
+            return ExportService.Compression.NONE;
+        }
+        try {
+            return ExportService.Compression.parse(cmd.getOptionValue("compress"));
+        } catch (IllegalArgumentException e) {
+            throw new ParseException("Unknown compression '" + cmd.getOptionValue("compress") + "'. Use gzip or zstd");
+        }
+    }
+    
     private AlbumFilter buildFilter(CommandLine cmd) {
         AlbumFilter filter = new AlbumFilter();
         
@@ -233,6 +392,10 @@ public class DiscogsRandomPicker {
             filter.setGenre(cmd.getOptionValue("genre"));
         }
         
+        if (cmd.hasOption("style")) {
+            filter.setStyle(cmd.getOptionValue("style"));
+        }
+        
         if (cmd.hasOption("year")) {
             filter.setYear(cmd.getOptionValue("year"));
         }
@@ -270,7 +433,13 @@ public class DiscogsRandomPicker {
         System.out.println("╚════════════════════════════════════════╝\n");
         
         logger.info("Picking random album");
-        Album album = discogsService.getRandomAlbum(filter);
+        PickResult pick = discogsService.pickRandomAlbum(filter);
+        Album album = pick.getAlbum();
+        
+        if (!filter.isEmpty()) {
+            System.out.println("🎯 " + pick.getMatchCount() + " of " + pick.getCollectionSize() + 
+                " albums match your filter\n");
+        }
         
         displayAlbumInfo(album);
         
@@ -280,6 +449,12 @@ public class DiscogsRandomPicker {
             System.out.println("\n⚠️  You've already listened to this album " + count + " time(s)");
         }
         
+        int artistCount = statisticsService.countArtistListensThisMonth(album.getArtistsAsString());
+        if (artistCount > 0) {
+            System.out.println("🎧 You've listened to " + album.getArtistsAsString() + " " + artistCount
+                + " time(s) this month");
+        }
+        
         // Ask to mark as listened
         if (askToMarkAsListened()) {
             historyService.addToHistory(album);
@@ -321,11 +496,35 @@ public class DiscogsRandomPicker {
         return response.equals("y") || response.equals("yes");
     }
     
-    private void showStatistics() throws HistoryException {
+    private void serve(CommandLine cmd) throws IOException, ParseException {
+        int port = config.getServerPort();
+        if (cmd.hasOption("port")) {
+            try {
+                port = Integer.parseInt(cmd.getOptionValue("port"));
+            } catch (NumberFormatException e) {
+                throw new ParseException("Invalid port '" + cmd.getOptionValue("port") + "'");
+            }
+        }
+        
+        PickerServer server = new PickerServer(discogsService, historyService, statisticsService, exportService,
+            port, config.getServerThreads());
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "picker-server-shutdown"));
+        server.start();
+        
+        // The server's own thread keeps the JVM running until it is interrupted
+        System.out.println("🎧 Serving on http://localhost:" + server.getAddress().getPort() + " (Ctrl+C to stop)");
+    }
+    
+    private void showStatistics(DateRange range) throws HistoryException {
         logger.info("Showing statistics");
-        Statistics stats = statisticsService.generateStatistics();
+        Statistics stats = statisticsService.generateStatistics(range);
         String formatted = statisticsService.formatStatistics(stats);
         System.out.println(formatted);
+        if (!range.isAll()) {
+            System.out.println("\n🗓️  Period: " + range);
+        } else if (stats.getTotalAlbums() > 0) {
+            System.out.println(statisticsService.formatRollingStatistics(statisticsService.generateRollingStatistics()));
+        }
     }
     
     private void showHistory(CommandLine cmd) throws HistoryException {
@@ -340,45 +539,79 @@ public class DiscogsRandomPicker {
             }
         }
         
-        List<ListeningHistoryEntry> history = historyService.getRecentHistory(limit);
-        
         System.out.println("\n╔══════════════════════════════════════╗");
         System.out.println("║       LISTENING HISTORY              ║");
         System.out.println("╚══════════════════════════════════════╝\n");
         
-        if (history.isEmpty()) {
-            System.out.println("No listening history yet. Start by picking an album!");
-            return;
-        }
-        
-        System.out.println(String.format("Total: %d albums\n", history.size()));
-        
-        for (int i = 0; i < history.size(); i++) {
-            ListeningHistoryEntry entry = history.get(i);
+        // Entries are printed as they are read from the end of the store
+        DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        int[] shown = {0};
+        historyService.forEachRecent(limit, entry -> {
+            if (shown[0] > 0) {
+                System.out.println();
+            }
+            shown[0]++;
+            
             System.out.println(String.format("%d. %s - %s (%s)",
-                i + 1,
+                shown[0],
                 entry.getArtist(),
                 entry.getTitle(),
                 entry.getYear()));
-            System.out.println(String.format("   Listened: %s",
-                entry.getListenedDate().format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"))));
+            System.out.println(String.format("   Listened: %s", entry.getListenedDate().format(dateFormat)));
             
             if (entry.getRating() != null) {
                 System.out.println("   Rating: " + "★".repeat(entry.getRating()));
             }
-            
-            if (i < history.size() - 1) {
-                System.out.println();
-            }
+        });
+        
+        if (shown[0] == 0) {
+            System.out.println("No listening history yet. Start by picking an album!");
+            return;
         }
+        
+        System.out.println(String.format("\nTotal: %d albums", shown[0]));
     }
     
-    private void exportHistory(CommandLine cmd) throws HistoryException {
+    private void exportHistory(CommandLine cmd, DateRange range, ExportService.Compression compression)
+            throws HistoryException {
         String format = cmd.getOptionValue("export", "csv");
         String filename = cmd.getOptionValue("output");
         
+        boolean paged = cmd.hasOption("paged");
         if (filename == null) {
-            filename = "listening_history." + format;
+            filename = paged ? "listening_history_pages" : "listening_history." + format + compression.getExtension();
+        }
+        
+        if (paged) {
+            if (!format.equalsIgnoreCase("html")) {
+                System.err.println("Only html exports can be paged");
+                return;
+            }
+            
+            System.out.println("Exporting listening history to paged HTML...");
+            long written = exportService.exportToHtmlPages(filename, range);
+            System.out.println("✅ Exported " + written + " entries to: " + Paths.get(filename, "index.html"));
+            return;
+        }
+        
+        boolean compressible = format.equalsIgnoreCase("csv") || format.equalsIgnoreCase("json");
+        if (compression != ExportService.Compression.NONE && !compressible) {
+            System.err.println("Only csv and json exports can be compressed");
+            return;
+        }
+        
+        if (cmd.hasOption("incremental")) {
+            if (!compressible || !range.isAll()) {
+                System.err.println("Only csv and json exports of the whole history can be incremental");
+                return;
+            }
+            
+            System.out.println("Exporting new listening history to " + format.toUpperCase() + "...");
+            long written = format.equalsIgnoreCase("csv")
+                ? exportService.exportToCsvIncrementally(filename, compression)
+                : exportService.exportToJsonIncrementally(filename, compression);
+            System.out.println("✅ Exported " + written + " entries to: " + filename);
+            return;
         }
         
         logger.info("Exporting history to {} format: {}", format, filename);
@@ -386,24 +619,77 @@ public class DiscogsRandomPicker {
         
         switch (format.toLowerCase()) {
             case "csv":
-                exportService.exportToCsv(filename);
+                exportService.exportToCsv(filename, range, compression);
                 break;
             case "html":
-                exportService.exportToHtml(filename);
+                exportService.exportToHtml(filename, range);
                 break;
             case "markdown":
             case "md":
-                exportService.exportToMarkdown(filename);
+                exportService.exportToMarkdown(filename, range);
+                break;
+            case "json":
+                exportService.exportToJson(filename, range, compression);
                 break;
             default:
                 System.err.println("Unknown export format: " + format);
-                System.err.println("Supported formats: csv, html, markdown");
+                System.err.println("Supported formats: csv, html, markdown, json");
                 return;
         }
         
         System.out.println("✅ Exported to: " + filename);
     }
     
+    private void importHistory(String source) throws HistoryException, IOException {
+        logger.info("Importing history from {}", source);
+        
+        int imported = 0;
+        int skipped = 0;
+        try (BufferedReader reader = source.equals("-")
+                 ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                 : Files.newBufferedReader(Paths.get(source), StandardCharsets.UTF_8);
+             HistoryWriter writer = new HistoryWriter(historyService)) {
+            // Files written by earlier versions hold a single JSON array
+            if (HistoryJson.isArray(reader)) {
+                List<ListeningHistoryEntry> entries = HistoryJson.readArray(reader);
+                historyService.addAll(entries);
+                imported = entries.size();
+            }
+            
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                
+                try {
+                    writer.submit(HistoryJson.fromLine(line));
+                    imported++;
+                } catch (JsonParseException e) {
+                    logger.warn("Skipping invalid history line: {}", line, e);
+                    skipped++;
+                }
+            }
+        }
+        
+        System.out.println("✅ Imported " + imported + " entries" + 
+            (skipped > 0 ? " (" + skipped + " invalid lines skipped)" : ""));
+    }
+    
+    private void compactHistory() throws HistoryException {
+        logger.info("Compacting history");
+        System.out.println("Compacting listening history...");
+        int entries = historyService.compactHistory();
+        System.out.println("✅ History compacted: " + entries + " entries");
+    }
+    
+    private void refreshCollection() throws DiscogsApiException {
+        logger.info("Refreshing collection snapshot");
+        System.out.println("Refreshing collection from Discogs...");
+        List<Album> albums = discogsService.refreshCollection();
+        System.out.println("✅ Collection refreshed: " + albums.size() + " albums");
+    }
+    
     private void showCollectionSize() throws DiscogsApiException {
         logger.info("Showing collection size");
         int size = discogsService.getCollectionSize();
@@ -428,6 +714,7 @@ public class DiscogsRandomPicker {
             "  Show statistics:            java -jar discogs-random-picker.jar --stats\n" +
             "  Show history (last 10):     java -jar discogs-random-picker.jar --history --limit 10\n" +
             "  Export to CSV:              java -jar discogs-random-picker.jar --export csv\n" +
-            "  Export to HTML:             java -jar discogs-random-picker.jar --export html -o myhistory.html\n");
+            "  Export to HTML:             java -jar discogs-random-picker.jar --export html -o myhistory.html\n" +
+            "  Serve over HTTP:            java -jar discogs-random-picker.jar --serve\n");
     }
 }
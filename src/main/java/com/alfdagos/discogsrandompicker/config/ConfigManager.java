@@ -17,6 +17,14 @@ public class ConfigManager {
     
     private static final Logger logger = LoggerFactory.getLogger(ConfigManager.class);
     private static final String DEFAULT_CONFIG_FILE = "config.properties";
+    private static final String DEFAULT_COLLECTION_CACHE_FILE = "collection_cache.json";
+    private static final long DEFAULT_COLLECTION_CACHE_TTL_MINUTES = 24 * 60;
+    private static final int DEFAULT_FETCH_CONCURRENCY = 4;
+    private static final String DEFAULT_HISTORY_BACKEND = "json";
+    private static final String DEFAULT_HISTORY_PARTITION = "month";
+    private static final String DEFAULT_STATISTICS_MODE = "exact";
+    private static final int DEFAULT_SERVER_PORT = 8737;
+    private static final int DEFAULT_SERVER_THREADS = 4;
     
     private final Properties properties;
     
@@ -79,6 +87,93 @@ public class ConfigManager {
         return properties.getProperty("spotify.client.secret", "");
     }
     
+    public String getCollectionCacheFile() {
+        return properties.getProperty("collection.cache.file", DEFAULT_COLLECTION_CACHE_FILE);
+    }
+    
+    /**
+     * Gets how long the local collection snapshot stays fresh. Zero disables the cache.
+     */
+    public long getCollectionCacheTtlMinutes() {
+        return getLongProperty("collection.cache.ttl.minutes", DEFAULT_COLLECTION_CACHE_TTL_MINUTES);
+    }
+    
+    /**
+     * Gets how many collection pages may be downloaded in parallel.
+     */
+    public int getFetchConcurrency() {
+        return (int) getLongProperty("discogs.fetch.concurrency", DEFAULT_FETCH_CONCURRENCY);
+    }
+    
+    /**
+     * Gets the history storage format, {@code json}, {@code binary} or {@code segmented}.
+     */
+    public String getHistoryBackend() {
+        return properties.getProperty("history.backend", DEFAULT_HISTORY_BACKEND).trim().toLowerCase();
+    }
+    
+    /**
+     * Gets the history file, by default {@code listening_history.json},
+     * {@code listening_history.bin} or, for segmented history, the directory
+     * {@code listening_history} depending on the backend.
+     */
+    public String getHistoryFile() {
+        String defaultFile;
+        switch (getHistoryBackend()) {
+            case "binary":
+                defaultFile = "listening_history.bin";
+                break;
+            case "segmented":
+                defaultFile = "listening_history";
+                break;
+            default:
+                defaultFile = "listening_history.json";
+        }
+        return properties.getProperty("history.file", defaultFile);
+    }
+    
+    /**
+     * Gets the period covered by each segment of segmented history, {@code month} or {@code year}.
+     */
+    public String getHistoryPartition() {
+        return properties.getProperty("history.segment.period", DEFAULT_HISTORY_PARTITION).trim().toLowerCase();
+    }
+    
+    /**
+     * Whether compacting segmented history gzips the segments of periods that have ended.
+     */
+    public boolean isHistorySegmentCompression() {
+        return Boolean.parseBoolean(properties.getProperty("history.segment.compress", "true").trim());
+    }
+    
+    /**
+     * Gets how statistics are counted, {@code exact} or {@code approximate}.
+     */
+    public String getStatisticsMode() {
+        return properties.getProperty("statistics.mode", DEFAULT_STATISTICS_MODE).trim().toLowerCase();
+    }
+    
+    /**
+     * Whether exports format rows on all cores, for very large histories.
+     */
+    public boolean isExportParallel() {
+        return Boolean.parseBoolean(properties.getProperty("export.parallel", "false").trim());
+    }
+    
+    /**
+     * Gets the local port {@code --serve} listens on.
+     */
+    public int getServerPort() {
+        return (int) getLongProperty("server.port", DEFAULT_SERVER_PORT);
+    }
+    
+    /**
+     * Gets how many requests {@code --serve} handles at once.
+     */
+    public int getServerThreads() {
+        return (int) getLongProperty("server.threads", DEFAULT_SERVER_THREADS);
+    }
+    
     public String getProperty(String key) {
         return properties.getProperty(key);
     }
@@ -86,4 +181,18 @@ public class ConfigManager {
     public String getProperty(String key, String defaultValue) {
         return properties.getProperty(key, defaultValue);
     }
+    
+    private long getLongProperty(String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value '{}' for {}, using default {}", value, key, defaultValue);
+            return defaultValue;
+        }
+    }
 }
@@ -21,6 +21,16 @@ public class Album {
     private final List<String> styles;
     private final String coverImage;
     
+    // Pre-normalized search keys used by AlbumPredicate and CollectionIndex
+    private final String artistsAsString;
+    private final String artistsKey;
+    private final String[] artistKeys;
+    private final String[] genreKeys;
+    private final String[] styleKeys;
+    private final String[] formatKeys;
+    private final int yearValue;
+    private final boolean numericYear;
+    
     private Album(Builder builder) {
         this.discogsId = builder.discogsId;
         this.title = builder.title;
@@ -30,6 +40,32 @@ public class Album {
         this.genres = builder.genres;
         this.styles = builder.styles;
         this.coverImage = builder.coverImage;
+        
+        this.artistsAsString = String.join(", ", artists);
+        this.artistsKey = artistsAsString.toLowerCase();
+        this.artistKeys = toKeys(artists);
+        this.genreKeys = toKeys(genres);
+        this.styleKeys = toKeys(styles);
+        this.formatKeys = toKeys(formats);
+        
+        int parsedYear = 0;
+        boolean parsed = false;
+        try {
+            parsedYear = Integer.parseInt(year);
+            parsed = true;
+        } catch (NumberFormatException e) {
+            // Non-numeric years ("Unknown") never match a year range
+        }
+        this.yearValue = parsedYear;
+        this.numericYear = parsed;
+    }
+    
+    private static String[] toKeys(List<String> values) {
+        String[] keys = new String[values.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = values.get(i).toLowerCase();
+        }
+        return keys;
     }
     
     /**
@@ -118,7 +154,7 @@ public class Album {
     }
     
     public String getArtistsAsString() {
-        return String.join(", ", artists);
+        return artistsAsString;
     }
     
     public String getYear() {
@@ -153,6 +189,43 @@ public class Album {
         return coverImage;
     }
     
+    /**
+     * Lowercased, comma-joined artist names.
+     */
+    String getArtistsKey() {
+        return artistsKey;
+    }
+    
+    /**
+     * Lowercased artist names, one per artist.
+     */
+    String[] getArtistKeys() {
+        return artistKeys;
+    }
+    
+    String[] getGenreKeys() {
+        return genreKeys;
+    }
+    
+    String[] getStyleKeys() {
+        return styleKeys;
+    }
+    
+    String[] getFormatKeys() {
+        return formatKeys;
+    }
+    
+    /**
+     * Gets the release year as a number; only meaningful when {@link #hasNumericYear()} is true.
+     */
+    int getYearValue() {
+        return yearValue;
+    }
+    
+    boolean hasNumericYear() {
+        return numericYear;
+    }
+    
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
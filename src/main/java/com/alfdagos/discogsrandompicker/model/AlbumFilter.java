@@ -6,11 +6,13 @@ package com.alfdagos.discogsrandompicker.model;
 public class AlbumFilter {
     
     private String genre;
+    private String style;
     private String year;
     private String format;
     private String artist;
     private Integer minYear;
     private Integer maxYear;
+    private AlbumPredicate compiled;
     
     public String getGenre() {
         return genre;
@@ -18,6 +20,16 @@ public class AlbumFilter {
     
     public void setGenre(String genre) {
         this.genre = genre;
+        this.compiled = null;
+    }
+    
+    public String getStyle() {
+        return style;
+    }
+    
+    public void setStyle(String style) {
+        this.style = style;
+        this.compiled = null;
     }
     
     public String getYear() {
@@ -26,6 +38,7 @@ public class AlbumFilter {
     
     public void setYear(String year) {
         this.year = year;
+        this.compiled = null;
     }
     
     public String getFormat() {
@@ -34,6 +47,7 @@ public class AlbumFilter {
     
     public void setFormat(String format) {
         this.format = format;
+        this.compiled = null;
     }
     
     public String getArtist() {
@@ -42,6 +56,7 @@ public class AlbumFilter {
     
     public void setArtist(String artist) {
         this.artist = artist;
+        this.compiled = null;
     }
     
     public Integer getMinYear() {
@@ -50,6 +65,7 @@ public class AlbumFilter {
     
     public void setMinYear(Integer minYear) {
         this.minYear = minYear;
+        this.compiled = null;
     }
     
     public Integer getMaxYear() {
@@ -58,47 +74,28 @@ public class AlbumFilter {
     
     public void setMaxYear(Integer maxYear) {
         this.maxYear = maxYear;
+        this.compiled = null;
     }
     
     public boolean matches(Album album) {
-        if (genre != null && !album.getGenres().stream()
-                .anyMatch(g -> g.toLowerCase().contains(genre.toLowerCase()))) {
-            return false;
-        }
-        
-        if (year != null && !album.getYear().equals(year)) {
-            return false;
+        AlbumPredicate predicate = compiled;
+        if (predicate == null) {
+            predicate = compile();
+            compiled = predicate;
         }
-        
-        if (format != null && !album.getFormats().stream()
-                .anyMatch(f -> f.toLowerCase().contains(format.toLowerCase()))) {
-            return false;
-        }
-        
-        if (artist != null && !album.getArtistsAsString().toLowerCase()
-                .contains(artist.toLowerCase())) {
-            return false;
-        }
-        
-        if (minYear != null || maxYear != null) {
-            try {
-                int albumYear = Integer.parseInt(album.getYear());
-                if (minYear != null && albumYear < minYear) {
-                    return false;
-                }
-                if (maxYear != null && albumYear > maxYear) {
-                    return false;
-                }
-            } catch (NumberFormatException e) {
-                return false;
-            }
-        }
-        
-        return true;
+        return predicate.matches(album);
+    }
+    
+    /**
+     * Compiles the current criteria into an immutable predicate.
+     * Later changes to this filter do not affect the returned predicate.
+     */
+    public AlbumPredicate compile() {
+        return new AlbumPredicate(this);
     }
     
     public boolean isEmpty() {
-        return genre == null && year == null && format == null && 
+        return genre == null && style == null && year == null && format == null && 
                artist == null && minYear == null && maxYear == null;
     }
 }
@@ -0,0 +1,76 @@
+package com.alfdagos.discogsrandompicker.model;
+
+/**
+ * An immutable, compiled form of {@link AlbumFilter}.
+ * <p>
+ * Search terms are lowercased and year bounds unboxed once, at compile time, and matching
+ * works on the pre-normalized keys every {@link Album} carries, so {@link #matches} allocates
+ * nothing. Criteria are checked cheapest and most selective first: integer year comparisons,
+ * then artist, style, genre and finally format, which usually matches a large share of a
+ * collection.
+ */
+public final class AlbumPredicate {
+    
+    private final String year;
+    private final boolean hasYearRange;
+    private final int minYear;
+    private final int maxYear;
+    private final String artist;
+    private final String style;
+    private final String genre;
+    private final String format;
+    
+    AlbumPredicate(AlbumFilter filter) {
+        this.year = filter.getYear();
+        this.hasYearRange = filter.getMinYear() != null || filter.getMaxYear() != null;
+        this.minYear = filter.getMinYear() != null ? filter.getMinYear() : Integer.MIN_VALUE;
+        this.maxYear = filter.getMaxYear() != null ? filter.getMaxYear() : Integer.MAX_VALUE;
+        this.artist = lower(filter.getArtist());
+        this.style = lower(filter.getStyle());
+        this.genre = lower(filter.getGenre());
+        this.format = lower(filter.getFormat());
+    }
+    
+    public boolean matches(Album album) {
+        if (hasYearRange) {
+            if (!album.hasNumericYear()) {
+                return false;
+            }
+            int albumYear = album.getYearValue();
+            if (albumYear < minYear || albumYear > maxYear) {
+                return false;
+            }
+        }
+        
+        if (year != null && !album.getYear().equals(year)) {
+            return false;
+        }
+        
+        if (artist != null && !album.getArtistsKey().contains(artist)) {
+            return false;
+        }
+        
+        if (style != null && !anyContains(album.getStyleKeys(), style)) {
+            return false;
+        }
+        
+        if (genre != null && !anyContains(album.getGenreKeys(), genre)) {
+            return false;
+        }
+        
+        return format == null || anyContains(album.getFormatKeys(), format);
+    }
+    
+    private static boolean anyContains(String[] keys, String needle) {
+        for (String key : keys) {
+            if (key.contains(needle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static String lower(String value) {
+        return value != null ? value.toLowerCase() : null;
+    }
+}
@@ -0,0 +1,270 @@
+package com.alfdagos.discogsrandompicker.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * An in-memory copy of the collection with inverted bitmap indexes for filtered picks.
+ * <p>
+ * Genres, styles, formats, artist names and release years are dictionary-encoded; each distinct
+ * value owns a {@link BitSet} of the album positions carrying it, and numeric years are also
+ * kept in order for range queries. A filter then becomes a few bitmap ANDs (and ORs over the
+ * dictionary values containing a search term, which are cached per term), and a pick selects
+ * the k-th set bit of the result. Matching follows {@link AlbumFilter#matches} exactly.
+ */
+public class CollectionIndex {
+    
+    private final List<Album> albums;
+    private final Dictionary byGenre = new Dictionary();
+    private final Dictionary byStyle = new Dictionary();
+    private final Dictionary byFormat = new Dictionary();
+    private final Dictionary byArtist = new Dictionary();
+    private final Dictionary byArtists = new Dictionary();
+    private final Map<String, BitSet> byYear = new HashMap<>();
+    private final int[] sortedYears;
+    private final BitSet[] byYearValue;
+    
+    public CollectionIndex(List<Album> albums) {
+        this.albums = Collections.unmodifiableList(new ArrayList<>(albums));
+        
+        TreeMap<Integer, BitSet> dated = new TreeMap<>();
+        for (int i = 0; i < this.albums.size(); i++) {
+            Album album = this.albums.get(i);
+            
+            for (String genre : album.getGenreKeys()) {
+                byGenre.add(genre, i);
+            }
+            for (String style : album.getStyleKeys()) {
+                byStyle.add(style, i);
+            }
+            for (String format : album.getFormatKeys()) {
+                byFormat.add(format, i);
+            }
+            for (String artist : album.getArtistKeys()) {
+                byArtist.add(artist, i);
+            }
+            // Also keyed on the joined names for the search terms that can span two artists
+            byArtists.add(album.getArtistsKey(), i);
+            byYear.computeIfAbsent(album.getYear(), k -> new BitSet()).set(i);
+            
+            // Albums without a numeric year never match a year range
+            if (album.hasNumericYear()) {
+                dated.computeIfAbsent(album.getYearValue(), k -> new BitSet()).set(i);
+            }
+        }
+        
+        for (Dictionary dictionary : Arrays.asList(byGenre, byStyle, byFormat, byArtist, byArtists)) {
+            dictionary.seal();
+        }
+        this.sortedYears = new int[dated.size()];
+        this.byYearValue = new BitSet[dated.size()];
+        int bucket = 0;
+        for (Map.Entry<Integer, BitSet> entry : dated.entrySet()) {
+            sortedYears[bucket] = entry.getKey();
+            byYearValue[bucket++] = entry.getValue();
+        }
+    }
+    
+    public int size() {
+        return albums.size();
+    }
+    
+    public List<Album> getAlbums() {
+        return albums;
+    }
+    
+    /**
+     * Counts the albums matching the filter.
+     */
+    public int countMatches(AlbumFilter filter) {
+        return select(filter).cardinality();
+    }
+    
+    /**
+     * Picks an album uniformly among those matching the filter, or returns empty if none does.
+     */
+    public Optional<PickResult> pick(AlbumFilter filter, Random random) {
+        BitSet matches = select(filter);
+        int count = matches.cardinality();
+        if (count == 0) {
+            return Optional.empty();
+        }
+        
+        Album album = albums.get(selectBit(matches, random.nextInt(count)));
+        return Optional.of(new PickResult(album, count, albums.size()));
+    }
+    
+    /**
+     * Computes the set of album positions matching the filter.
+     */
+    BitSet select(AlbumFilter filter) {
+        BitSet result = new BitSet(albums.size());
+        result.set(0, albums.size());
+        
+        if (filter.getYear() != null) {
+            intersect(result, byYear.get(filter.getYear()));
+        }
+        if (filter.getMinYear() != null || filter.getMaxYear() != null) {
+            result.and(yearRange(filter.getMinYear(), filter.getMaxYear()));
+        }
+        if (filter.getGenre() != null) {
+            result.and(byGenre.containing(filter.getGenre()));
+        }
+        if (filter.getStyle() != null) {
+            result.and(byStyle.containing(filter.getStyle()));
+        }
+        if (filter.getFormat() != null) {
+            result.and(byFormat.containing(filter.getFormat()));
+        }
+        if (filter.getArtist() != null) {
+            String artist = filter.getArtist().toLowerCase();
+            result.and(canSpanArtists(artist) ? byArtists.containing(artist) : byArtist.containing(artist));
+        }
+        
+        return result;
+    }
+    
+    private static void intersect(BitSet result, BitSet bits) {
+        if (bits == null) {
+            result.clear();
+        } else {
+            result.and(bits);
+        }
+    }
+    
+    /**
+     * Checks whether a lowercased artist term can match across the ", " joining two artist
+     * names, and so only against the joined names: any such match either contains the comma or
+     * starts at the space after it. The empty term also matches albums without artists.
+     */
+    private static boolean canSpanArtists(String term) {
+        return term.isEmpty() || term.charAt(0) == ' ' || term.indexOf(',') >= 0;
+    }
+    
+    private BitSet yearRange(Integer minYear, Integer maxYear) {
+        int from = minYear != null ? lowerBound(minYear) : 0;
+        int to = maxYear != null ? lowerBound(maxYear + 1L) : sortedYears.length;
+        
+        BitSet range = new BitSet(albums.size());
+        for (int i = from; i < to; i++) {
+            range.or(byYearValue[i]);
+        }
+        return range;
+    }
+    
+    /**
+     * Finds the first bucket in {@code sortedYears} holding a year not lower than {@code year}.
+     */
+    private int lowerBound(long year) {
+        int low = 0;
+        int high = sortedYears.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedYears[mid] < year) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Returns the index of the k-th (zero-based) set bit, skipping whole words by popcount.
+     */
+    static int selectBit(BitSet bits, int k) {
+        long[] words = bits.toLongArray();
+        for (int w = 0; w < words.length; w++) {
+            int count = Long.bitCount(words[w]);
+            if (k < count) {
+                long word = words[w];
+                for (int i = 0; i < k; i++) {
+                    word &= word - 1;
+                }
+                return w * 64 + Long.numberOfTrailingZeros(word);
+            }
+            k -= count;
+        }
+        throw new IllegalArgumentException("Bit set has too few set bits");
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("CollectionIndex[%d albums, %d genres, %d styles, %d formats, %d artists, %s]",
+            albums.size(), byGenre.size(), byStyle.size(), byFormat.size(), byArtist.size(),
+            sortedYears.length > 0
+                ? sortedYears[0] + "-" + sortedYears[sortedYears.length - 1]
+                : "no years");
+    }
+    
+    /**
+     * The distinct values of one field with the bitmap of the albums carrying each. The union
+     * of the bitmaps of the values containing a term is remembered for the most recent terms;
+     * cached bitmaps are shared and must not be modified.
+     */
+    private static final class Dictionary {
+        private static final int MAX_CACHED_TERMS = 256;
+        
+        private final Map<String, BitSet> bitmaps = new HashMap<>();
+        private final Map<String, BitSet> matches = Collections.synchronizedMap(
+            new LinkedHashMap<String, BitSet>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, BitSet> eldest) {
+                    return size() > MAX_CACHED_TERMS;
+                }
+            });
+        private String[] keysByLength;
+        
+        void add(String key, int position) {
+            bitmaps.computeIfAbsent(key, k -> new BitSet()).set(position);
+        }
+        
+        /**
+         * Orders the keys longest first once all albums are added.
+         */
+        void seal() {
+            keysByLength = bitmaps.keySet().toArray(new String[0]);
+            Arrays.sort(keysByLength, Comparator.comparingInt(String::length).reversed());
+        }
+        
+        int size() {
+            return bitmaps.size();
+        }
+        
+        /**
+         * ORs together the bitmaps of every value containing the term.
+         */
+        BitSet containing(String term) {
+            String needle = term.toLowerCase();
+            BitSet cached = matches.get(needle);
+            if (cached != null) {
+                return cached;
+            }
+            
+            // A key as long as the term only contains it if it is the term
+            BitSet exact = bitmaps.get(needle);
+            BitSet union = exact != null ? (BitSet) exact.clone() : new BitSet();
+            for (String key : keysByLength) {
+                if (key.length() <= needle.length()) {
+                    break;
+                }
+                if (key.contains(needle)) {
+                    union.or(bitmaps.get(key));
+                }
+            }
+            
+            matches.put(needle, union);
+            return union;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.alfdagos.discogsrandompicker.model;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+
+/**
+ * A span of listening time from {@code from} (inclusive) to {@code to} (exclusive). Either
+ * bound may be {@code null}, meaning the range is open on that side.
+ */
+public class DateRange {
+    
+    public static final DateRange ALL = new DateRange(null, null);
+    
+    private final LocalDateTime from;
+    private final LocalDateTime to;
+    
+    public DateRange(LocalDateTime from, LocalDateTime to) {
+        if (from != null && to != null && to.isBefore(from)) {
+            throw new IllegalArgumentException("Range ends before it starts: " + from + " to " + to);
+        }
+        this.from = from;
+        this.to = to;
+    }
+    
+    /**
+     * Parses a range from two optional dates written as {@code 2025}, {@code 2025-03} or
+     * {@code 2025-03-14}. The range starts at the beginning of {@code from} and ends after the
+     * whole of {@code to}, so {@code parse("2025", "2025")} covers that year.
+     *
+     * @throws IllegalArgumentException if a date cannot be parsed
+     */
+    public static DateRange parse(String from, String to) {
+        return new DateRange(
+            from != null ? startOf(from) : null,
+            to != null ? startOf(to).plus(lengthOf(to)) : null);
+    }
+    
+    public LocalDateTime getFrom() {
+        return from;
+    }
+    
+    public LocalDateTime getTo() {
+        return to;
+    }
+    
+    public boolean isAll() {
+        return from == null && to == null;
+    }
+    
+    public boolean contains(LocalDateTime time) {
+        return (from == null || !time.isBefore(from)) && (to == null || time.isBefore(to));
+    }
+    
+    /**
+     * Checks whether this range shares any time with {@code [start, end)}.
+     */
+    public boolean overlaps(LocalDateTime start, LocalDateTime end) {
+        return (from == null || end.isAfter(from)) && (to == null || start.isBefore(to));
+    }
+    
+    private static LocalDateTime startOf(String date) {
+        try {
+            switch (date.length()) {
+                case 4:
+                    return Year.parse(date).atDay(1).atStartOfDay();
+                case 7:
+                    return YearMonth.parse(date).atDay(1).atStartOfDay();
+                default:
+                    return LocalDate.parse(date).atStartOfDay();
+            }
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date '" + date + "', use YYYY, YYYY-MM or YYYY-MM-DD", e);
+        }
+    }
+    
+    private static Period lengthOf(String date) {
+        switch (date.length()) {
+            case 4:
+                return Period.ofYears(1);
+            case 7:
+                return Period.ofMonths(1);
+            default:
+                return Period.ofDays(1);
+        }
+    }
+    
+    @Override
+    public String toString() {
+        if (isAll()) {
+            return "all time";
+        }
+        return (from != null ? "from " + from.toLocalDate() : "")
+            + (from != null && to != null ? " " : "")
+            + (to != null ? "until " + to.toLocalDate().minusDays(1) : "");
+    }
+}
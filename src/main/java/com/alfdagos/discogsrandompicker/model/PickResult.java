@@ -0,0 +1,37 @@
+package com.alfdagos.discogsrandompicker.model;
+
+/**
+ * A randomly picked album together with how many albums it was picked from.
+ */
+public class PickResult {
+    
+    private final Album album;
+    private final int matchCount;
+    private final int collectionSize;
+    
+    public PickResult(Album album, int matchCount, int collectionSize) {
+        this.album = album;
+        this.matchCount = matchCount;
+        this.collectionSize = collectionSize;
+    }
+    
+    public Album getAlbum() {
+        return album;
+    }
+    
+    /**
+     * Gets the number of albums that matched the filter, i.e. the pool the pick was drawn from.
+     */
+    public int getMatchCount() {
+        return matchCount;
+    }
+    
+    public int getCollectionSize() {
+        return collectionSize;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s (1 of %d matching, %d in collection)", album, matchCount, collectionSize);
+    }
+}
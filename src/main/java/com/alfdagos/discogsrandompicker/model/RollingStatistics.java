@@ -0,0 +1,97 @@
+package com.alfdagos.discogsrandompicker.model;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Listening activity over recent windows of days, each ending on and including {@link #getAsOf()}.
+ */
+public class RollingStatistics {
+    
+    private LocalDate asOf;
+    private int listensLast7Days;
+    private int listensLast30Days;
+    private int listensLast365Days;
+    private double averagePerMonth;
+    private Map<String, Integer> listensByMonth;
+    private int currentStreak;
+    private int longestStreak;
+    
+    public RollingStatistics() {
+        this.listensByMonth = new LinkedHashMap<>();
+    }
+    
+    public LocalDate getAsOf() {
+        return asOf;
+    }
+    
+    public void setAsOf(LocalDate asOf) {
+        this.asOf = asOf;
+    }
+    
+    public int getListensLast7Days() {
+        return listensLast7Days;
+    }
+    
+    public void setListensLast7Days(int listensLast7Days) {
+        this.listensLast7Days = listensLast7Days;
+    }
+    
+    public int getListensLast30Days() {
+        return listensLast30Days;
+    }
+    
+    public void setListensLast30Days(int listensLast30Days) {
+        this.listensLast30Days = listensLast30Days;
+    }
+    
+    public int getListensLast365Days() {
+        return listensLast365Days;
+    }
+    
+    public void setListensLast365Days(int listensLast365Days) {
+        this.listensLast365Days = listensLast365Days;
+    }
+    
+    /**
+     * Average listens per month over the last 365 days.
+     */
+    public double getAveragePerMonth() {
+        return averagePerMonth;
+    }
+    
+    public void setAveragePerMonth(double averagePerMonth) {
+        this.averagePerMonth = averagePerMonth;
+    }
+    
+    /**
+     * Listens in each of the last 12 months by "YYYY-MM", oldest first, the current month included.
+     */
+    public Map<String, Integer> getListensByMonth() {
+        return new LinkedHashMap<>(listensByMonth);
+    }
+    
+    public void setListensByMonth(Map<String, Integer> listensByMonth) {
+        this.listensByMonth = new LinkedHashMap<>(listensByMonth);
+    }
+    
+    /**
+     * Consecutive days with listens up to today, or up to yesterday if there are none today yet.
+     */
+    public int getCurrentStreak() {
+        return currentStreak;
+    }
+    
+    public void setCurrentStreak(int currentStreak) {
+        this.currentStreak = currentStreak;
+    }
+    
+    public int getLongestStreak() {
+        return longestStreak;
+    }
+    
+    public void setLongestStreak(int longestStreak) {
+        this.longestStreak = longestStreak;
+    }
+}
@@ -15,6 +15,11 @@ public class Statistics {
     private String mostListenedArtist;
     private String mostPopularDecade;
     private String mostPopularYear;
+    // Set when artist counts are estimates and only the top artists are listed
+    private boolean approximate;
+    private long artistCountError;
+    private long distinctArtists;
+    private long distinctAlbums;
     
     public Statistics() {
         this.albumsByYear = new HashMap<>();
@@ -77,4 +82,45 @@ public class Statistics {
     public void setMostPopularYear(String mostPopularYear) {
         this.mostPopularYear = mostPopularYear;
     }
+    
+    public boolean isApproximate() {
+        return approximate;
+    }
+    
+    public void setApproximate(boolean approximate) {
+        this.approximate = approximate;
+    }
+    
+    /**
+     * How much an approximate artist count may exceed the true one, with over 99% probability.
+     */
+    public long getArtistCountError() {
+        return artistCountError;
+    }
+    
+    public void setArtistCountError(long artistCountError) {
+        this.artistCountError = artistCountError;
+    }
+    
+    /**
+     * Estimated number of distinct artists; only set for approximate statistics.
+     */
+    public long getDistinctArtists() {
+        return distinctArtists;
+    }
+    
+    public void setDistinctArtists(long distinctArtists) {
+        this.distinctArtists = distinctArtists;
+    }
+    
+    /**
+     * Estimated number of distinct albums; only set for approximate statistics.
+     */
+    public long getDistinctAlbums() {
+        return distinctAlbums;
+    }
+    
+    public void setDistinctAlbums(long distinctAlbums) {
+        this.distinctAlbums = distinctAlbums;
+    }
 }
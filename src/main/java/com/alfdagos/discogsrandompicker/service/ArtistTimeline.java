@@ -0,0 +1,112 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.DateRange;
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The times each artist was listened to, in order, so that the listens of an artist within any
+ * period are counted by binary search. Built with one pass over the history and kept up to date
+ * as entries are added.
+ */
+final class ArtistTimeline {
+    
+    private final Map<String, Times> byArtist = new HashMap<>();
+    
+    ArtistTimeline(Collection<ListeningHistoryEntry> history) {
+        for (ListeningHistoryEntry entry : history) {
+            if (entry.getListenedDate() != null) {
+                byArtist.computeIfAbsent(entry.getArtist(), artist -> new Times())
+                    .append(seconds(entry.getListenedDate()));
+            }
+        }
+        // Sorting once copes with histories that are far from date order
+        for (Times times : byArtist.values()) {
+            times.sort();
+        }
+    }
+    
+    /**
+     * Adds new entries.
+     */
+    void addAll(Collection<ListeningHistoryEntry> entries) {
+        for (ListeningHistoryEntry entry : entries) {
+            if (entry.getListenedDate() != null) {
+                byArtist.computeIfAbsent(entry.getArtist(), artist -> new Times())
+                    .insert(seconds(entry.getListenedDate()));
+            }
+        }
+    }
+    
+    /**
+     * Counts the listens of an artist within the range.
+     */
+    int count(String artist, DateRange range) {
+        Times times = byArtist.get(artist);
+        if (times == null) {
+            return 0;
+        }
+        long from = range.getFrom() == null ? Long.MIN_VALUE : seconds(range.getFrom());
+        long to = range.getTo() == null ? Long.MAX_VALUE : seconds(range.getTo());
+        return times.firstAtOrAfter(to) - times.firstAtOrAfter(from);
+    }
+    
+    // Only differences matter, so the offset is arbitrary
+    private static long seconds(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+    
+    /**
+     * A sorted, growable array of times.
+     */
+    private static final class Times {
+        private long[] times = new long[4];
+        private int size;
+        
+        void append(long time) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+            }
+            times[size++] = time;
+        }
+        
+        void sort() {
+            Arrays.sort(times, 0, size);
+        }
+        
+        void insert(long time) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+            }
+            
+            // Usually the newest, so found at the end
+            int at = size;
+            while (at > 0 && times[at - 1] > time) {
+                at--;
+            }
+            System.arraycopy(times, at, times, at + 1, size - at);
+            times[at] = time;
+            size++;
+        }
+        
+        int firstAtOrAfter(long time) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (times[middle] < time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
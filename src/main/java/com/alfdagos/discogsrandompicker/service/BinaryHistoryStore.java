@@ -0,0 +1,497 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.DateRange;
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * History stored as fixed-width binary records plus a table of the strings they refer to.
+ * <p>
+ * The main file holds a 16-byte header (magic, format version, generation) followed by one
+ * 36-byte record per entry: Discogs ID, listen time as epoch second and nanosecond, rating
+ * (0 for none, which no valid rating uses), and byte offsets into the string table for artist, title, year and notes. The string table
+ * lives in {@code <file>.strings.<generation>} as length-prefixed UTF-8, and identical strings
+ * are stored once per rewrite and once per process between rewrites. Both files are read
+ * through {@link MappedByteBuffer}s, and nothing is parsed beyond decoding each distinct string.
+ * <p>
+ * Appends write the strings first and the records second, each followed by an fsync, so a
+ * record never refers to a string that is not on disk; a record torn by a crash is ignored and
+ * overwritten by the next append. A rewrite builds a new string table under the next generation
+ * and then renames a new main file over the old one, so readers always find a matching pair.
+ */
+public class BinaryHistoryStore implements HistoryStore {
+    
+    private static final Logger logger = LoggerFactory.getLogger(BinaryHistoryStore.class);
+    private static final int MAGIC = 0x44525048;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 36;
+    private static final int NO_STRING = -1;
+    private static final int NO_RATING = 0;
+    private static final int MIN_RATING = 1;
+    private static final int MAX_RATING = 5;
+    private static final int MAX_READ_ATTEMPTS = 3;
+    
+    private final Path file;
+    
+    // Offsets of the strings this instance has written, valid for one generation
+    private final Map<String, Integer> stringOffsets = new HashMap<>();
+    private long indexedGeneration = -1;
+    
+    public BinaryHistoryStore(Path file) {
+        this.file = file;
+    }
+    
+    @Override
+    public Path getPath() {
+        return file;
+    }
+    
+    @Override
+    public Object version() throws IOException {
+        return FileVersion.of(file);
+    }
+    
+    @Override
+    public List<ListeningHistoryEntry> readAll() throws IOException {
+        MappedHistory history = open();
+        List<ListeningHistoryEntry> entries = new ArrayList<>(history.count);
+        for (int i = 0; i < history.count; i++) {
+            entries.add(history.entry(i));
+        }
+        return entries;
+    }
+    
+    /**
+     * Decodes records one at a time as they are visited.
+     */
+    @Override
+    public void scanRange(DateRange range, EntryVisitor visitor) throws IOException {
+        MappedHistory history = open();
+        for (int i = 0; i < history.count; i++) {
+            ListeningHistoryEntry entry = history.entry(i);
+            if (range.contains(entry.getListenedDate()) && !visitor.visit(entry)) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Decodes records from the last one backwards, touching only the pages that are visited.
+     */
+    @Override
+    public void scanBackward(EntryVisitor visitor) throws IOException {
+        MappedHistory history = open();
+        for (int i = history.count - 1; i >= 0; i--) {
+            if (!visitor.visit(history.entry(i))) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Marks are the generation of the file, which a rewrite changes, and a record count.
+     */
+    @Override
+    public String scanAddedAfter(String mark, EntryVisitor visitor) throws IOException {
+        MappedHistory history = open();
+        int next = 0;
+        if (mark != null) {
+            int separator = mark.indexOf('@');
+            if (separator < 0 || !mark.substring(0, separator).equals(String.valueOf(history.generation))) {
+                return null;
+            }
+            try {
+                next = Integer.parseInt(mark.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (next < 0 || next > history.count) {
+                return null;
+            }
+        }
+        
+        while (next < history.count) {
+            if (!visitor.visit(history.entry(next++))) {
+                break;
+            }
+        }
+        return history.generation + "@" + next;
+    }
+    
+    @Override
+    public void append(List<ListeningHistoryEntry> entries) throws IOException {
+        checkRatings(entries);
+        if (!Files.exists(file)) {
+            replaceAll(Collections.emptyList());
+        }
+        
+        try (FileChannel records = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long generation = readHeader(records);
+            if (generation != indexedGeneration) {
+                stringOffsets.clear();
+                indexedGeneration = generation;
+            }
+            
+            try (FileChannel strings = FileChannel.open(stringsFile(generation), StandardOpenOption.WRITE)) {
+                StringTableWriter table = new StringTableWriter(strings.size());
+                ByteBuffer encoded = ByteBuffer.allocate(entries.size() * RECORD_SIZE);
+                for (ListeningHistoryEntry entry : entries) {
+                    writeRecord(encoded, entry, table);
+                }
+                encoded.flip();
+                
+                HistoryFiles.writeFully(strings, ByteBuffer.wrap(table.toByteArray()), table.start);
+                strings.force(false);
+                
+                // Start at a record boundary, overwriting a record torn by an earlier crash
+                long end = HEADER_SIZE + (records.size() - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+                HistoryFiles.writeFully(records, encoded, end);
+                records.force(false);
+            }
+        } catch (IOException | RuntimeException e) {
+            stringOffsets.clear();
+            indexedGeneration = -1;
+            throw e;
+        }
+    }
+    
+    @Override
+    public void replaceAll(List<ListeningHistoryEntry> entries) throws IOException {
+        checkRatings(entries);
+        long generation = Files.exists(file) ? currentGeneration() + 1 : 1;
+        Path stringsFile = stringsFile(generation);
+        Path tempFile = HistoryFiles.tempFile(file);
+        
+        stringOffsets.clear();
+        indexedGeneration = -1;
+        
+        try (FileChannel strings = FileChannel.open(stringsFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel records = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream stringsOut = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(strings)));
+            DataOutputStream recordsOut = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(records)));
+            
+            recordsOut.writeInt(MAGIC);
+            recordsOut.writeInt(FORMAT_VERSION);
+            recordsOut.writeLong(generation);
+            
+            StringTableWriter table = new StringTableWriter(0);
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            for (ListeningHistoryEntry entry : entries) {
+                record.clear();
+                writeRecord(record, entry, table);
+                recordsOut.write(record.array());
+                table.drainTo(stringsOut);
+            }
+            
+            stringsOut.flush();
+            recordsOut.flush();
+            // The string table must be durable before a main file that points at it
+            strings.force(true);
+            records.force(true);
+        }
+        
+        HistoryFiles.replace(tempFile, file);
+        indexedGeneration = generation;
+        deleteOtherStringTables(generation);
+        logger.debug("Wrote {} history entries as generation {}", entries.size(), generation);
+    }
+    
+    private MappedHistory open() throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return map();
+            } catch (NoSuchFileException e) {
+                // A rewrite removed the string table between our two opens; the new one is in place
+                if (attempt == MAX_READ_ATTEMPTS) {
+                    throw e;
+                }
+                logger.debug("String table replaced while reading {}, retrying", file);
+            }
+        }
+    }
+    
+    private MappedHistory map() throws IOException {
+        if (!Files.exists(file)) {
+            return MappedHistory.EMPTY;
+        }
+        
+        MappedByteBuffer records;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        long generation = checkHeader(records);
+        
+        MappedByteBuffer strings;
+        try (FileChannel channel = FileChannel.open(stringsFile(generation), StandardOpenOption.READ)) {
+            strings = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return new MappedHistory(records, strings, generation);
+    }
+    
+    private static void writeRecord(ByteBuffer buffer, ListeningHistoryEntry entry, StringTableWriter table)
+            throws IOException {
+        LocalDateTime listenedDate = entry.getListenedDate();
+        buffer.putInt(entry.getDiscogsId());
+        buffer.putLong(listenedDate.toEpochSecond(ZoneOffset.UTC));
+        buffer.putInt(listenedDate.getNano());
+        buffer.put((byte) (entry.getRating() != null ? entry.getRating() : NO_RATING));
+        buffer.put(new byte[3]);
+        buffer.putInt(table.offsetOf(entry.getArtist()));
+        buffer.putInt(table.offsetOf(entry.getTitle()));
+        buffer.putInt(table.offsetOf(entry.getYear()));
+        buffer.putInt(table.offsetOf(entry.getNotes()));
+    }
+    
+    /**
+     * Rejects the whole write if a rating does not fit its byte, before anything is written.
+     */
+    private static void checkRatings(List<ListeningHistoryEntry> entries) throws IOException {
+        for (ListeningHistoryEntry entry : entries) {
+            Integer rating = entry.getRating();
+            if (rating != null && (rating < MIN_RATING || rating > MAX_RATING)) {
+                throw new IOException("Rating " + rating + " of entry " + entry.getDiscogsId()
+                    + " is not between " + MIN_RATING + " and " + MAX_RATING);
+            }
+        }
+    }
+    
+    private long currentGeneration() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readHeader(channel);
+        }
+    }
+    
+    private long readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("History file is truncated: " + file);
+            }
+        }
+        header.flip();
+        return checkHeader(header);
+    }
+    
+    private long checkHeader(ByteBuffer header) throws IOException {
+        if (header.limit() < HEADER_SIZE || header.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary history file: " + file);
+        }
+        if (header.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported binary history version " + header.getInt(4) + ": " + file);
+        }
+        return header.getLong(8);
+    }
+    
+    private Path stringsFile(long generation) {
+        return file.resolveSibling(file.getFileName() + ".strings." + generation);
+    }
+    
+    private void deleteOtherStringTables(long generation) {
+        String current = stringsFile(generation).getFileName().toString();
+        Path directory = file.toAbsolutePath().getParent();
+        try (DirectoryStream<Path> tables = Files.newDirectoryStream(directory, file.getFileName() + ".strings.*")) {
+            for (Path table : tables) {
+                if (!table.getFileName().toString().equals(current)) {
+                    Files.deleteIfExists(table);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to delete old string tables of {}", file, e);
+        }
+    }
+    
+    /**
+     * A mapped main file and its string table, decoded on demand.
+     */
+    private static final class MappedHistory {
+        static final MappedHistory EMPTY =
+            new MappedHistory(ByteBuffer.allocate(HEADER_SIZE), ByteBuffer.allocate(0), 0);
+        
+        final int count;
+        final long generation;
+        private final ByteBuffer records;
+        private final ByteBuffer strings;
+        // Artists and years repeat a lot; decode each distinct string once
+        private final DecodedStrings decoded = new DecodedStrings();
+        
+        MappedHistory(ByteBuffer records, ByteBuffer strings, long generation) {
+            this.records = records;
+            this.strings = strings;
+            this.generation = generation;
+            // A record torn by a crash is not counted
+            this.count = (records.limit() - HEADER_SIZE) / RECORD_SIZE;
+        }
+        
+        ListeningHistoryEntry entry(int index) throws IOException {
+            int base = HEADER_SIZE + index * RECORD_SIZE;
+            
+            LocalDateTime listenedDate = LocalDateTime.ofEpochSecond(
+                records.getLong(base + 4), records.getInt(base + 12), ZoneOffset.UTC);
+            ListeningHistoryEntry entry = new ListeningHistoryEntry(
+                records.getInt(base),
+                string(records.getInt(base + 20)),
+                string(records.getInt(base + 24)),
+                string(records.getInt(base + 28)),
+                listenedDate);
+            
+            int rating = records.get(base + 16) & 0xFF;
+            if (rating != NO_RATING) {
+                if (rating < MIN_RATING || rating > MAX_RATING) {
+                    throw new IOException("Invalid rating " + rating + " in history record " + index);
+                }
+                entry.setRating(rating);
+            }
+            entry.setNotes(string(records.getInt(base + 32)));
+            return entry;
+        }
+        
+        private String string(int offset) throws IOException {
+            if (offset == NO_STRING) {
+                return null;
+            }
+            
+            String value = decoded.get(offset);
+            if (value == null) {
+                if (offset < 0 || offset + 4 > strings.limit()) {
+                    throw new IOException("String offset out of range: " + offset);
+                }
+                int length = strings.getInt(offset);
+                if (length < 0 || offset + 4L + length > strings.limit()) {
+                    throw new IOException("Corrupt string at offset " + offset);
+                }
+                
+                byte[] bytes = new byte[length];
+                ByteBuffer view = strings.duplicate();
+                view.position(offset + 4);
+                view.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+                decoded.put(offset, value);
+            }
+            return value;
+        }
+    }
+    
+    /**
+     * Strings decoded so far, keyed by table offset without boxing.
+     */
+    private static final class DecodedStrings {
+        private int[] offsets = new int[1024];
+        private String[] values = new String[1024];
+        private int size;
+        
+        String get(int offset) {
+            int mask = offsets.length - 1;
+            for (int i = mix(offset) & mask; values[i] != null; i = (i + 1) & mask) {
+                if (offsets[i] == offset) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+        
+        void put(int offset, String value) {
+            if (size * 2 >= offsets.length) {
+                grow();
+            }
+            int mask = offsets.length - 1;
+            int i = mix(offset) & mask;
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            offsets[i] = offset;
+            values[i] = value;
+            size++;
+        }
+        
+        private void grow() {
+            int[] oldOffsets = offsets;
+            String[] oldValues = values;
+            offsets = new int[oldOffsets.length * 2];
+            values = new String[oldValues.length * 2];
+            size = 0;
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != null) {
+                    put(oldOffsets[i], oldValues[i]);
+                }
+            }
+        }
+        
+        private static int mix(int offset) {
+            int h = offset * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+    
+    /**
+     * Assigns string table offsets, reusing those of strings already written by this store.
+     */
+    private class StringTableWriter {
+        private final long start;
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private long flushed;
+        
+        StringTableWriter(long start) {
+            this.start = start;
+        }
+        
+        int offsetOf(String value) throws IOException {
+            if (value == null) {
+                return NO_STRING;
+            }
+            
+            Integer known = stringOffsets.get(value);
+            if (known != null) {
+                return known;
+            }
+            
+            long offset = start + flushed + pending.size();
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (offset + 4 + bytes.length > Integer.MAX_VALUE) {
+                throw new IOException("String table is full, compact the history: " + file);
+            }
+            
+            new DataOutputStream(pending).writeInt(bytes.length);
+            pending.write(bytes);
+            stringOffsets.put(value, (int) offset);
+            return (int) offset;
+        }
+        
+        byte[] toByteArray() {
+            return pending.toByteArray();
+        }
+        
+        void drainTo(DataOutputStream out) throws IOException {
+            pending.writeTo(out);
+            flushed += pending.size();
+            pending.reset();
+        }
+    }
+}
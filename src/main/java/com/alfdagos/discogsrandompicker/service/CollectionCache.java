@@ -0,0 +1,294 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.Album;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * On-disk snapshot of a user's Discogs collection.
+ * <p>
+ * The snapshot uses a flat layout of its own rather than the Discogs API shape, so it can be
+ * streamed back into {@link Album} instances without going through {@link Album#fromDiscogsJson}.
+ */
+public class CollectionCache {
+    
+    private static final Logger logger = LoggerFactory.getLogger(CollectionCache.class);
+    private static final int FORMAT_VERSION = 1;
+    
+    private final Path cacheFile;
+    private final Duration ttl;
+    
+    public CollectionCache(String cacheFile, Duration ttl) {
+        this.cacheFile = Paths.get(cacheFile);
+        this.ttl = ttl;
+    }
+    
+    /**
+     * Loads the snapshot for the given user if it exists and is younger than the TTL.
+     */
+    public Optional<List<Album>> load(String username) {
+        return loadSnapshot(username).map(Snapshot::getAlbums);
+    }
+    
+    /**
+     * Loads the snapshot for the given user as {@link #load} does, together with the time it
+     * becomes older than the TTL.
+     */
+    public Optional<Snapshot> loadSnapshot(String username) {
+        if (!Files.exists(cacheFile)) {
+            logger.debug("Collection cache {} does not exist", cacheFile);
+            return Optional.empty();
+        }
+        
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8))) {
+            int version = 0;
+            String cachedUser = null;
+            Instant fetchedAt = null;
+            List<Album> albums = null;
+            
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case "version":
+                        version = reader.nextInt();
+                        break;
+                    case "username":
+                        cachedUser = reader.nextString();
+                        break;
+                    case "fetched_at":
+                        fetchedAt = Instant.parse(reader.nextString());
+                        break;
+                    case "albums":
+                        // Header fields are written first, so a stale snapshot is rejected
+                        // before any album is parsed.
+                        if (!isUsable(version, cachedUser, fetchedAt, username)) {
+                            return Optional.empty();
+                        }
+                        albums = readAlbums(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            
+            if (albums == null) {
+                return Optional.empty();
+            }
+            
+            logger.info("Loaded {} albums from collection cache (fetched {})", albums.size(), fetchedAt);
+            return Optional.of(new Snapshot(albums, fetchedAt.plus(ttl)));
+            
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to read collection cache {}, ignoring it", cacheFile, e);
+            return Optional.empty();
+        }
+    }
+    
+    /**
+     * Writes a new snapshot, replacing the previous one atomically. Each save writes its own
+     * temporary file, so processes refreshing the collection at the same time do not mix their
+     * snapshots, and syncs it before the rename so a crash never leaves a truncated one.
+     */
+    public void save(String username, List<Album> albums) {
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(cacheFile.toAbsolutePath().getParent(),
+                cacheFile.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                JsonWriter writer = new JsonWriter(
+                    new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8)));
+                writer.beginObject();
+                writer.name("version").value(FORMAT_VERSION);
+                writer.name("username").value(username);
+                writer.name("fetched_at").value(Instant.now().toString());
+                writer.name("albums").beginArray();
+                for (Album album : albums) {
+                    writeAlbum(writer, album);
+                }
+                writer.endArray();
+                writer.endObject();
+                writer.flush();
+                channel.force(true);
+            }
+            HistoryFiles.replace(tempFile, cacheFile);
+            logger.debug("Saved {} albums to collection cache", albums.size());
+        } catch (IOException e) {
+            logger.warn("Failed to write collection cache {}", cacheFile, e);
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ignored) {
+                    // Nothing more to do
+                }
+            }
+        }
+    }
+    
+    /**
+     * Gets the time a snapshot saved now becomes older than the TTL.
+     */
+    public Instant expiryOfNewSnapshot() {
+        return Instant.now().plus(ttl);
+    }
+    
+    /**
+     * Deletes the snapshot so the next lookup goes back to Discogs.
+     */
+    public void invalidate() {
+        try {
+            Files.deleteIfExists(cacheFile);
+        } catch (IOException e) {
+            logger.warn("Failed to delete collection cache {}", cacheFile, e);
+        }
+    }
+    
+    private boolean isUsable(int version, String cachedUser, Instant fetchedAt, String username) {
+        if (version != FORMAT_VERSION) {
+            logger.debug("Collection cache has format version {}, expected {}", version, FORMAT_VERSION);
+            return false;
+        }
+        
+        if (!username.equals(cachedUser)) {
+            logger.debug("Collection cache belongs to user {}, not {}", cachedUser, username);
+            return false;
+        }
+        
+        if (fetchedAt == null || fetchedAt.plus(ttl).isBefore(Instant.now())) {
+            logger.info("Collection cache is older than {} minutes, refreshing", ttl.toMinutes());
+            return false;
+        }
+        
+        return true;
+    }
+    
+    private void writeAlbum(JsonWriter writer, Album album) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(album.getDiscogsId());
+        writer.name("title").value(album.getTitle());
+        writeStrings(writer, "artists", album.getArtists());
+        writer.name("year").value(album.getYear());
+        writeStrings(writer, "formats", album.getFormats());
+        writeStrings(writer, "genres", album.getGenres());
+        writeStrings(writer, "styles", album.getStyles());
+        writer.name("cover_image").value(album.getCoverImage());
+        writer.endObject();
+    }
+    
+    private void writeStrings(JsonWriter writer, String name, List<String> values) throws IOException {
+        writer.name(name).beginArray();
+        for (String value : values) {
+            writer.value(value);
+        }
+        writer.endArray();
+    }
+    
+    private List<Album> readAlbums(JsonReader reader) throws IOException {
+        List<Album> albums = new ArrayList<>();
+        
+        reader.beginArray();
+        while (reader.hasNext()) {
+            albums.add(readAlbum(reader));
+        }
+        reader.endArray();
+        
+        return albums;
+    }
+    
+    private Album readAlbum(JsonReader reader) throws IOException {
+        Album.Builder builder = new Album.Builder();
+        
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            
+            switch (name) {
+                case "id":
+                    builder.withDiscogsId(reader.nextInt());
+                    break;
+                case "title":
+                    builder.withTitle(reader.nextString());
+                    break;
+                case "artists":
+                    builder.withArtists(readStrings(reader));
+                    break;
+                case "year":
+                    builder.withYear(reader.nextString());
+                    break;
+                case "formats":
+                    builder.withFormats(readStrings(reader));
+                    break;
+                case "genres":
+                    builder.withGenres(readStrings(reader));
+                    break;
+                case "styles":
+                    builder.withStyles(readStrings(reader));
+                    break;
+                case "cover_image":
+                    builder.withCoverImage(reader.nextString());
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        
+        return builder.build();
+    }
+    
+    private List<String> readStrings(JsonReader reader) throws IOException {
+        List<String> values = new ArrayList<>();
+        
+        reader.beginArray();
+        while (reader.hasNext()) {
+            values.add(reader.nextString());
+        }
+        reader.endArray();
+        
+        return values;
+    }
+    
+    /**
+     * Albums read from a snapshot and the time the snapshot expires.
+     */
+    public static final class Snapshot {
+        private final List<Album> albums;
+        private final Instant expiresAt;
+        
+        Snapshot(List<Album> albums, Instant expiresAt) {
+            this.albums = albums;
+            this.expiresAt = expiresAt;
+        }
+        
+        public List<Album> getAlbums() {
+            return albums;
+        }
+        
+        public Instant getExpiresAt() {
+            return expiresAt;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.Album;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * One page of a Discogs collection listing, parsed in a single streaming pass.
+ * <p>
+ * Releases are turned into {@link Album} instances as they are read from the
+ * {@code releases[]} array; fields the application does not use are skipped without being
+ * materialised, and no intermediate JSON tree is built. A release with a field of the wrong
+ * type is skipped with a warning, keeping the rest of the page.
+ */
+public class CollectionPage {
+    
+    private static final Logger logger = LoggerFactory.getLogger(CollectionPage.class);
+    
+    private int page = 1;
+    private int pages = 1;
+    private int items = -1;
+    private final List<Album> albums = new ArrayList<>();
+    
+    private CollectionPage() {
+    }
+    
+    /**
+     * Parses a collection page, keeping its albums.
+     */
+    public static CollectionPage read(Reader in) throws IOException {
+        CollectionPage result = new CollectionPage();
+        parse(in, result, result.albums::add);
+        return result;
+    }
+    
+    /**
+     * Parses a collection page, handing each album to {@code sink} as soon as it is read.
+     * The returned page carries the pagination data only.
+     */
+    public static CollectionPage read(Reader in, Consumer<Album> sink) throws IOException {
+        CollectionPage result = new CollectionPage();
+        parse(in, result, sink);
+        return result;
+    }
+    
+    public int getPage() {
+        return page;
+    }
+    
+    public int getPages() {
+        return pages;
+    }
+    
+    /**
+     * Gets the total number of items in the collection, or -1 if the response had no pagination.
+     */
+    public int getItems() {
+        return items;
+    }
+    
+    public List<Album> getAlbums() {
+        return albums;
+    }
+    
+    private static void parse(Reader in, CollectionPage result, Consumer<Album> sink) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "pagination":
+                    readPagination(reader, result);
+                    break;
+                case "releases":
+                    readReleases(reader, sink);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+    
+    private static void readPagination(JsonReader reader, CollectionPage result) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "page":
+                    result.page = reader.nextInt();
+                    break;
+                case "pages":
+                    result.pages = reader.nextInt();
+                    break;
+                case "items":
+                    result.items = reader.nextInt();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+    
+    private static void readReleases(JsonReader reader, Consumer<Album> sink) throws IOException {
+        reader.beginArray();
+        for (int i = 0; reader.hasNext(); i++) {
+            String path = reader.getPath();
+            Album album;
+            try {
+                album = readRelease(reader);
+            } catch (IllegalStateException | NumberFormatException e) {
+                logger.warn("Failed to parse album at index {}", i, e);
+                skipRestOfRelease(reader, path);
+                continue;
+            }
+            sink.accept(album);
+        }
+        reader.endArray();
+    }
+    
+    /**
+     * Moves the reader past a release that failed to parse. A read of the wrong type leaves the
+     * value it was given unread, so that value is skipped and then whatever the release still
+     * has open is read to its end. Syntax errors are not recovered from.
+     */
+    private static void skipRestOfRelease(JsonReader reader, String releasePath) throws IOException {
+        reader.skipValue();
+        while (reader.getPath().startsWith(releasePath + ".") || reader.getPath().startsWith(releasePath + "[")) {
+            JsonToken token = reader.peek();
+            if (token == JsonToken.END_OBJECT) {
+                reader.endObject();
+            } else if (token == JsonToken.END_ARRAY) {
+                reader.endArray();
+            } else if (token == JsonToken.NAME) {
+                reader.nextName();
+            } else {
+                reader.skipValue();
+            }
+        }
+    }
+    
+    private static Album readRelease(JsonReader reader) throws IOException {
+        int id = 0;
+        ReleaseInfo topLevel = new ReleaseInfo();
+        ReleaseInfo basicInfo = null;
+        
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if (name.equals("id")) {
+                id = reader.nextInt();
+            } else if (name.equals("basic_information")) {
+                basicInfo = new ReleaseInfo();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    basicInfo.readField(reader.nextName(), reader);
+                }
+                reader.endObject();
+            } else {
+                topLevel.readField(name, reader);
+            }
+        }
+        reader.endObject();
+        
+        // Same precedence as Album.fromDiscogsJson: basic_information wins when present
+        ReleaseInfo info = basicInfo != null ? basicInfo : topLevel;
+        Album album = info.toBuilder().withDiscogsId(id).build();
+        logger.trace("Parsed release {}", id);
+        return album;
+    }
+    
+    /**
+     * The subset of release fields the application keeps.
+     */
+    private static class ReleaseInfo {
+        private String title;
+        private List<String> artists;
+        private String year;
+        private List<String> formats;
+        private List<String> genres;
+        private List<String> styles;
+        private String coverImage;
+        private String thumb;
+        
+        void readField(String name, JsonReader reader) throws IOException {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return;
+            }
+            
+            switch (name) {
+                case "title":
+                    title = reader.nextString();
+                    break;
+                case "year":
+                    year = String.valueOf(reader.nextInt());
+                    break;
+                case "artists":
+                    artists = readNames(reader);
+                    break;
+                case "formats":
+                    formats = readNames(reader);
+                    break;
+                case "genres":
+                    genres = readStrings(reader);
+                    break;
+                case "styles":
+                    styles = readStrings(reader);
+                    break;
+                case "cover_image":
+                    coverImage = reader.nextString();
+                    break;
+                case "thumb":
+                    thumb = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        
+        Album.Builder toBuilder() {
+            Album.Builder builder = new Album.Builder();
+            if (title != null) {
+                builder.withTitle(title);
+            }
+            if (artists != null) {
+                builder.withArtists(artists);
+            }
+            if (year != null) {
+                builder.withYear(year);
+            }
+            if (formats != null) {
+                builder.withFormats(formats);
+            }
+            if (genres != null) {
+                builder.withGenres(genres);
+            }
+            if (styles != null) {
+                builder.withStyles(styles);
+            }
+            if (coverImage != null) {
+                builder.withCoverImage(coverImage);
+            } else if (thumb != null) {
+                builder.withCoverImage(thumb);
+            }
+            return builder;
+        }
+        
+        /**
+         * Reads an array of objects, keeping only their {@code name} member.
+         */
+        private static List<String> readNames(JsonReader reader) throws IOException {
+            List<String> names = new ArrayList<>();
+            
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("name") && reader.peek() == JsonToken.STRING) {
+                        names.add(reader.nextString());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endArray();
+            
+            return names;
+        }
+        
+        private static List<String> readStrings(JsonReader reader) throws IOException {
+            List<String> values = new ArrayList<>();
+            
+            reader.beginArray();
+            while (reader.hasNext()) {
+                values.add(reader.nextString());
+            }
+            reader.endArray();
+            
+            return values;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exact counts per distinct key. Each key gets a dictionary id on first sight and is counted in
+ * a plain {@code int} array under it.
+ * <p>
+ * Ids are found through an open-addressing table of {@code int}s keyed on the string hash, so
+ * counting an entry allocates nothing. Merging the dictionary of a chunk costs one lookup per
+ * distinct key in it.
+ */
+final class CountDictionary {
+    
+    private String[] keys = new String[16];
+    private int[] counts = new int[16];
+    private int size;
+    // The hash of the key in each slot in the high half and its id plus one in the low half, so
+    // probing reads no other array; 0 for free slots. Kept at most half full.
+    private long[] slots = new long[32];
+    private int nullId = -1;
+    
+    void increment(String key, int amount) {
+        // idOf may grow the arrays, so it must run before counts is read
+        int id = idOf(key);
+        counts[id] += amount;
+    }
+    
+    void merge(CountDictionary other) {
+        for (int id = 0; id < other.size; id++) {
+            increment(other.keys[id], other.counts[id]);
+        }
+    }
+    
+    private int idOf(String key) {
+        if (key == null) {
+            if (nullId < 0) {
+                nullId = add(null);
+            }
+            return nullId;
+        }
+        
+        int hash = key.hashCode();
+        int mask = slots.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            long entry = slots[slot];
+            if (entry == 0) {
+                int id = add(key);
+                slots[slot] = (long) hash << 32 | (id + 1);
+                if (size * 2 > slots.length) {
+                    rehash();
+                }
+                return id;
+            }
+            int id = (int) entry - 1;
+            if ((int) (entry >>> 32) == hash && key.equals(keys[id])) {
+                return id;
+            }
+        }
+    }
+    
+    private int add(String key) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        keys[size] = key;
+        return size++;
+    }
+    
+    private void rehash() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        int mask = slots.length - 1;
+        for (long entry : old) {
+            if (entry == 0) {
+                continue;
+            }
+            int slot = spread((int) (entry >>> 32)) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry;
+        }
+    }
+    
+    /**
+     * Mixes the high bits of a hash into the low ones the table is indexed by.
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+    
+    /**
+     * Counts of the decades of the keys, which are years; keys that are not years are left out.
+     */
+    CountDictionary decades() {
+        CountDictionary decades = new CountDictionary();
+        for (int id = 0; id < size; id++) {
+            int year = parseYear(keys[id]);
+            if (year >= 0) {
+                decades.increment((year / 10) * 10 + "s", counts[id]);
+            }
+        }
+        return decades;
+    }
+    
+    /**
+     * The key with the highest count, ties going to the smallest key, or "Unknown" if empty.
+     */
+    String mostFrequent() {
+        int best = -1;
+        for (int id = 0; id < size; id++) {
+            if (best < 0 || counts[id] > counts[best]
+                    || (counts[id] == counts[best] && compareKeys(keys[id], keys[best]) < 0)) {
+                best = id;
+            }
+        }
+        return best < 0 ? "Unknown" : keys[best];
+    }
+    
+    Map<String, Integer> toMap() {
+        Map<String, Integer> map = new HashMap<>(size * 2);
+        for (int id = 0; id < size; id++) {
+            map.put(keys[id], counts[id]);
+        }
+        return map;
+    }
+    
+    // Pairs rather than an object, since keys may be null
+    JsonArray toJson() {
+        JsonArray array = new JsonArray(size);
+        for (int id = 0; id < size; id++) {
+            JsonArray pair = new JsonArray(2);
+            pair.add(keys[id]);
+            pair.add(counts[id]);
+            array.add(pair);
+        }
+        return array;
+    }
+    
+    void addJson(JsonArray array) {
+        for (JsonElement element : array) {
+            JsonArray pair = element.getAsJsonArray();
+            JsonElement key = pair.get(0);
+            increment(key instanceof JsonNull ? null : key.getAsString(), pair.get(1).getAsInt());
+        }
+    }
+    
+    /**
+     * Parses a year made of digits only, returning -1 for anything else such as "Unknown".
+     */
+    static int parseYear(String year) {
+        if (year == null || year.isEmpty() || year.length() > 9) {
+            return -1;
+        }
+        
+        int value = 0;
+        for (int i = 0; i < year.length(); i++) {
+            char c = year.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+    
+    /**
+     * Orders keys naturally, with null first.
+     */
+    static int compareKeys(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return a.compareTo(b);
+    }
+}
@@ -0,0 +1,84 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Count-Min Sketch: approximate counts of any number of keys in a fixed 40 KB.
+ * <p>
+ * Each key, given by a 64-bit hash, is counted in one cell of each of {@value #DEPTH} rows of
+ * {@value #WIDTH} counters, and its estimate is the smallest of those cells. Estimates are never
+ * below the true count, and exceed it by at most {@link #errorBound()}, that is e / {@value #WIDTH}
+ * (about 0.13%) of all counts added, with probability 1 - e<sup>-{@value #DEPTH}</sup>
+ * (over 99%). Sketches merge by adding their cells.
+ */
+final class CountMinSketch {
+    
+    static final int DEPTH = 5;
+    static final int WIDTH = 1 << 11;
+    
+    private final int[] cells = new int[DEPTH * WIDTH];
+    private long total;
+    
+    /**
+     * Adds to the count of the key and returns its new estimate.
+     */
+    int add(long hash, int count) {
+        total += count;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int cell = cell(hash, row);
+            cells[cell] += count;
+            estimate = Math.min(estimate, cells[cell]);
+        }
+        return estimate;
+    }
+    
+    int estimate(long hash) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, cells[cell(hash, row)]);
+        }
+        return estimate;
+    }
+    
+    /**
+     * How much an estimate may exceed the true count, with over 99% probability.
+     */
+    long errorBound() {
+        return (long) Math.ceil(Math.E / WIDTH * total);
+    }
+    
+    void merge(CountMinSketch other) {
+        total += other.total;
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] += other.cells[i];
+        }
+    }
+    
+    // Row hashes derived from the two halves of one 64-bit hash
+    private static int cell(long hash, int row) {
+        int combined = (int) hash + row * (int) (hash >>> 32);
+        return row * WIDTH + (combined & (WIDTH - 1));
+    }
+    
+    byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + cells.length * Integer.BYTES);
+        buffer.putLong(total);
+        buffer.asIntBuffer().put(cells);
+        return buffer.array();
+    }
+    
+    /**
+     * @throws RuntimeException if the bytes do not hold a sketch of this size
+     */
+    static CountMinSketch fromBytes(byte[] bytes) {
+        CountMinSketch sketch = new CountMinSketch();
+        if (bytes.length != Long.BYTES + sketch.cells.length * Integer.BYTES) {
+            throw new IllegalArgumentException("Count-Min Sketch of " + bytes.length + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        sketch.total = buffer.getLong();
+        buffer.asIntBuffer().get(sketch.cells);
+        return sketch;
+    }
+}
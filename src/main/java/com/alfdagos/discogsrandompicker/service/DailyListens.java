@@ -0,0 +1,143 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.RollingStatistics;
+import com.google.gson.JsonArray;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Number of listens per day. There are at most a few thousand days in any history, so the counts
+ * are small to keep and save; rolling statistics are computed from them by sorting the days once
+ * and summing ranges, without going back to the history.
+ */
+final class DailyListens {
+    
+    private final CountDictionary days = new CountDictionary();
+    // Histories are in date order, so consecutive entries mostly share a day
+    private LocalDate lastDay;
+    private String lastDayKey;
+    
+    void add(LocalDateTime listenedDate) {
+        if (listenedDate == null) {
+            return;
+        }
+        
+        LocalDate day = listenedDate.toLocalDate();
+        if (!day.equals(lastDay)) {
+            lastDay = day;
+            lastDayKey = day.toString();
+        }
+        days.increment(lastDayKey, 1);
+    }
+    
+    void merge(DailyListens other) {
+        days.merge(other.days);
+    }
+    
+    JsonArray toJson() {
+        return days.toJson();
+    }
+    
+    void addJson(JsonArray array) {
+        days.addJson(array);
+    }
+    
+    /**
+     * Computes the windows ending on {@code today}, which is included in each of them.
+     */
+    RollingStatistics toRollingStatistics(LocalDate today) {
+        Index index = new Index(days.toMap());
+        RollingStatistics stats = new RollingStatistics();
+        stats.setAsOf(today);
+        stats.setListensLast7Days(index.count(today.minusDays(6), today));
+        stats.setListensLast30Days(index.count(today.minusDays(29), today));
+        stats.setListensLast365Days(index.count(today.minusDays(364), today));
+        stats.setAveragePerMonth(stats.getListensLast365Days() / 12.0);
+        
+        Map<String, Integer> byMonth = new LinkedHashMap<>();
+        YearMonth month = YearMonth.from(today).minusMonths(11);
+        for (int i = 0; i < 12; i++, month = month.plusMonths(1)) {
+            byMonth.put(month.toString(), index.count(month.atDay(1), month.atEndOfMonth()));
+        }
+        stats.setListensByMonth(byMonth);
+        
+        stats.setCurrentStreak(index.currentStreak(today.toEpochDay()));
+        stats.setLongestStreak(index.longestStreak());
+        return stats;
+    }
+    
+    /**
+     * Days with listens in order, with running totals for counting any range by binary search.
+     */
+    private static final class Index {
+        private final long[] days;
+        // totals[i] is the number of listens on days before days[i]
+        private final int[] totals;
+        
+        Index(Map<String, Integer> counts) {
+            long[][] pairs = new long[counts.size()][];
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                pairs[i++] = new long[] {epochDay(entry.getKey()), entry.getValue()};
+            }
+            Arrays.sort(pairs, (a, b) -> Long.compare(a[0], b[0]));
+            
+            days = new long[pairs.length];
+            totals = new int[pairs.length + 1];
+            for (i = 0; i < pairs.length; i++) {
+                days[i] = pairs[i][0];
+                totals[i + 1] = totals[i] + (int) pairs[i][1];
+            }
+        }
+        
+        // Keys are written by LocalDate.toString, which is slow to parse back in general
+        private static long epochDay(String key) {
+            if (key.length() != 10) {
+                return LocalDate.parse(key).toEpochDay();
+            }
+            return LocalDate.of(Integer.parseInt(key, 0, 4, 10), Integer.parseInt(key, 5, 7, 10),
+                Integer.parseInt(key, 8, 10, 10)).toEpochDay();
+        }
+        
+        int count(LocalDate from, LocalDate to) {
+            return totals[firstAfter(to.toEpochDay())] - totals[firstAfter(from.toEpochDay() - 1)];
+        }
+        
+        // Index of the first day after the given one
+        private int firstAfter(long day) {
+            int found = Arrays.binarySearch(days, day);
+            return found >= 0 ? found + 1 : -found - 1;
+        }
+        
+        /**
+         * Consecutive days with listens up to today, or up to yesterday if there are none today yet.
+         */
+        int currentStreak(long today) {
+            int last = firstAfter(today) - 1;
+            if (last < 0 || days[last] < today - 1) {
+                return 0;
+            }
+            
+            int first = last;
+            while (first > 0 && days[first - 1] == days[first] - 1) {
+                first--;
+            }
+            return last - first + 1;
+        }
+        
+        int longestStreak() {
+            int longest = 0;
+            int current = 0;
+            for (int i = 0; i < days.length; i++) {
+                current = i > 0 && days[i - 1] == days[i] - 1 ? current + 1 : 1;
+                longest = Math.max(longest, current);
+            }
+            return longest;
+        }
+    }
+}
@@ -3,20 +3,30 @@ package com.alfdagos.discogsrandompicker.service;
 import com.alfdagos.discogsrandompicker.exception.DiscogsApiException;
 import com.alfdagos.discogsrandompicker.model.Album;
 import com.alfdagos.discogsrandompicker.model.AlbumFilter;
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import com.alfdagos.discogsrandompicker.model.CollectionIndex;
+import com.alfdagos.discogsrandompicker.model.PickResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Service for interacting with the Discogs API.
@@ -24,21 +34,59 @@ import java.util.Random;
 public class DiscogsService {
     
     private static final Logger logger = LoggerFactory.getLogger(DiscogsService.class);
-    private static final String API_BASE_URL = "https://api.discogs.com";
+    private static final String DEFAULT_API_BASE_URL = "https://api.discogs.com";
     private static final int MAX_RETRIES = 3;
-    private static final int RETRY_DELAY_MS = 1000;
-    private static final int MAX_FILTER_ATTEMPTS = 50;
+    private static final int COLLECTION_PAGE_SIZE = 100;
+    private static final int DEFAULT_FETCH_CONCURRENCY = 4;
+    private static final Duration RELOAD_RETRY_DELAY = Duration.ofMinutes(1);
     
     private final String username;
     private final String token;
-    private final Gson gson;
+    private final String apiBaseUrl;
+    private final HttpTransport transport;
     private final Random random;
+    private final CollectionCache collectionCache;
+    private final int fetchConcurrency;
+    private final RateLimiter rateLimiter;
+    // Held while the collection is loaded or downloaded, outside the monitor picks use
+    private final ReentrantLock loadLock = new ReentrantLock();
+    private CollectionIndex collectionIndex;
+    // When the snapshot the index matches expires, or null to keep the index for good
+    private Instant collectionExpiresAt;
     
     public DiscogsService(String username, String token) {
+        this(username, token, null);
+    }
+    
+    public DiscogsService(String username, String token, CollectionCache collectionCache) {
+        this(username, token, collectionCache, DEFAULT_FETCH_CONCURRENCY);
+    }
+    
+    /**
+     * Creates a service that answers picks from a local collection snapshot.
+     * When {@code collectionCache} is null every call goes to the Discogs API.
+     * {@code fetchConcurrency} bounds the number of pages downloaded in parallel.
+     */
+    public DiscogsService(String username, String token, CollectionCache collectionCache,
+                          int fetchConcurrency) {
+        this(username, token, collectionCache, fetchConcurrency,
+            JdkHttpTransport.getDefault(), DEFAULT_API_BASE_URL);
+    }
+    
+    /**
+     * Creates a service that talks to {@code apiBaseUrl} through the given transport,
+     * e.g. a local stub server in tests and benchmarks.
+     */
+    public DiscogsService(String username, String token, CollectionCache collectionCache,
+                          int fetchConcurrency, HttpTransport transport, String apiBaseUrl) {
         this.username = username;
         this.token = token;
-        this.gson = new Gson();
+        this.apiBaseUrl = apiBaseUrl;
+        this.transport = transport;
         this.random = new Random();
+        this.collectionCache = collectionCache;
+        this.fetchConcurrency = Math.max(1, fetchConcurrency);
+        this.rateLimiter = RateLimiter.forToken(token);
     }
     
     /**
@@ -52,56 +100,102 @@ public class DiscogsService {
      * Gets a random album from the user's collection matching the filter.
      */
     public Album getRandomAlbum(AlbumFilter filter) throws DiscogsApiException {
+        return pickRandomAlbum(filter).getAlbum();
+    }
+    
+    /**
+     * Picks an album uniformly among those matching the filter and reports how many matched.
+     * <p>
+     * Filtered picks are evaluated against the whole collection held in memory, so they need no
+     * network calls once the collection is loaded and fail only when nothing matches. An
+     * unfiltered pick without a local collection is answered with two small API requests instead
+     * of a full download.
+     */
+    public PickResult pickRandomAlbum(AlbumFilter filter) throws DiscogsApiException {
         logger.info("Fetching random album from collection for user: {}", username);
         
-        int totalItems = getCollectionSize();
-        logger.debug("Collection size: {} items", totalItems);
-        
-        if (totalItems == 0) {
-            throw new DiscogsApiException("Collection is empty");
+        if (filter.isEmpty() && !hasLocalCollection()) {
+            int totalItems = getCollectionSize();
+            logger.debug("Collection size: {} items", totalItems);
+            
+            if (totalItems == 0) {
+                throw new DiscogsApiException("Collection is empty");
+            }
+            
+            return new PickResult(fetchRandomAlbum(totalItems), totalItems, totalItems);
         }
         
-        // If no filter, just get a random album
-        if (filter.isEmpty()) {
-            return fetchRandomAlbum(totalItems);
+        CollectionIndex collectionIndex = getCollectionIndex();
+        if (collectionIndex.size() == 0) {
+            throw new DiscogsApiException("Collection is empty");
         }
         
-        // With filter, we need to try multiple times
-        for (int attempt = 0; attempt < MAX_FILTER_ATTEMPTS; attempt++) {
-            Album album = fetchRandomAlbum(totalItems);
-            if (filter.matches(album)) {
-                logger.info("Found matching album after {} attempts", attempt + 1);
-                return album;
-            }
+        Optional<PickResult> result = collectionIndex.pick(filter, random);
+        if (!result.isPresent()) {
+            throw new DiscogsApiException(
+                "No album in your collection matches the filter. Try relaxing your filter criteria.");
         }
         
-        throw new DiscogsApiException(
-            "Could not find album matching filter after " + MAX_FILTER_ATTEMPTS + " attempts. " +
-            "Try relaxing your filter criteria.");
+        logger.info("Picked {}", result.get());
+        return result.get();
     }
     
     /**
      * Gets the total number of items in the collection.
      */
     public int getCollectionSize() throws DiscogsApiException {
+        if (hasLocalCollection()) {
+            return getCollectionIndex().size();
+        }
+        
         String url = String.format("%s/users/%s/collection/folders/0/releases?per_page=1", 
-            API_BASE_URL, username);
+            apiBaseUrl, username);
         
-        JsonObject response = makeRequest(url);
+        CollectionPage response = makeRequest(url, CollectionPage::read);
         
-        if (response.has("pagination")) {
-            JsonObject pagination = response.getAsJsonObject("pagination");
-            return pagination.get("items").getAsInt();
+        if (response.getItems() >= 0) {
+            return response.getItems();
         }
         
         throw new DiscogsApiException("Failed to get collection size");
     }
     
     /**
-     * Gets all albums from the collection (paginated).
+     * Gets all albums from the collection.
+     * <p>
+     * The first page tells how many pages there are; the remaining pages are downloaded
+     * concurrently on a bounded pool and merged back in page order.
      */
     public List<Album> getAllAlbums() throws DiscogsApiException {
-        return getAllAlbums(1, 100);
+        CollectionPage firstPage = fetchCollectionPage(1, COLLECTION_PAGE_SIZE);
+        List<Album> albums = new ArrayList<>(firstPage.getAlbums());
+        int pages = firstPage.getPages();
+        
+        if (pages <= 1) {
+            return albums;
+        }
+        
+        int threads = Math.min(fetchConcurrency, pages - 1);
+        logger.info("Fetching {} more pages with {} concurrent requests", pages - 1, threads);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new FetchThreadFactory());
+        try {
+            List<Future<List<Album>>> futures = new ArrayList<>();
+            for (int page = 2; page <= pages; page++) {
+                final int pageNumber = page;
+                futures.add(executor.submit(
+                    () -> fetchCollectionPage(pageNumber, COLLECTION_PAGE_SIZE).getAlbums()));
+            }
+            
+            for (Future<List<Album>> future : futures) {
+                albums.addAll(awaitPage(future));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        logger.info("Fetched {} albums from {} pages", albums.size(), pages);
+        return albums;
     }
     
     /**
@@ -110,102 +204,186 @@ public class DiscogsService {
     public List<Album> getAllAlbums(int page, int perPage) throws DiscogsApiException {
         logger.info("Fetching albums from collection (page {}, {} per page)", page, perPage);
         
-        String url = String.format("%s/users/%s/collection/folders/0/releases?page=%d&per_page=%d",
-            API_BASE_URL, username, page, perPage);
-        
-        JsonObject response = makeRequest(url);
-        List<Album> albums = new ArrayList<>();
-        
-        if (response.has("releases")) {
-            JsonArray releases = response.getAsJsonArray("releases");
-            for (int i = 0; i < releases.size(); i++) {
-                try {
-                    Album album = Album.fromDiscogsJson(releases.get(i).getAsJsonObject());
-                    albums.add(album);
-                } catch (Exception e) {
-                    logger.warn("Failed to parse album at index {}", i, e);
+        List<Album> albums = fetchCollectionPage(page, perPage).getAlbums();
+        
+        logger.info("Fetched {} albums", albums.size());
+        return albums;
+    }
+    
+    /**
+     * Gets the whole collection, from memory or the local snapshot when available.
+     */
+    public List<Album> getCollection() throws DiscogsApiException {
+        return getCollectionIndex().getAlbums();
+    }
+    
+    /**
+     * Gets the in-memory collection, loading the snapshot or downloading it on first use.
+     * <p>
+     * A long-running process loads the snapshot again once it is older than its TTL, which
+     * downloads the collection if the snapshot was not refreshed meanwhile. One caller does the
+     * reload while the others go on with the expired collection, and if the reload fails the
+     * expired collection stays in use and is reloaded again {@link #RELOAD_RETRY_DELAY} later.
+     * Without a snapshot a collection that was downloaded is kept until
+     * {@link #refreshCollection()}.
+     */
+    public CollectionIndex getCollectionIndex() throws DiscogsApiException {
+        CollectionIndex stale;
+        synchronized (this) {
+            if (collectionIndex != null && !isExpired()) {
+                return collectionIndex;
+            }
+            stale = collectionIndex;
+        }
+        
+        if (stale == null) {
+            // Nothing to answer with yet, so wait for whoever is loading it
+            loadLock.lock();
+            try {
+                synchronized (this) {
+                    if (collectionIndex != null) {
+                        return collectionIndex;
+                    }
                 }
+                return load();
+            } finally {
+                loadLock.unlock();
             }
         }
         
-        logger.info("Fetched {} albums", albums.size());
-        return albums;
+        if (!loadLock.tryLock()) {
+            return stale;
+        }
+        try {
+            synchronized (this) {
+                if (collectionIndex != stale) {
+                    return collectionIndex;
+                }
+            }
+            logger.info("Collection snapshot has expired, reloading it");
+            return load();
+        } catch (DiscogsApiException e) {
+            logger.warn("Failed to reload the collection, keeping the expired one for now", e);
+            synchronized (this) {
+                collectionExpiresAt = Instant.now().plus(RELOAD_RETRY_DELAY);
+            }
+            return stale;
+        } finally {
+            loadLock.unlock();
+        }
+    }
+    
+    /**
+     * Downloads the whole collection from Discogs and replaces the local snapshot. The
+     * collection loaded before stays in use until the download has completed.
+     */
+    public List<Album> refreshCollection() throws DiscogsApiException {
+        loadLock.lock();
+        try {
+            logger.info("Downloading full collection for user: {}", username);
+            
+            List<Album> albums = getAllAlbums();
+            
+            CollectionIndex index = new CollectionIndex(albums);
+            Instant expiresAt = null;
+            if (collectionCache != null) {
+                expiresAt = collectionCache.expiryOfNewSnapshot();
+                collectionCache.save(username, albums);
+            }
+            install(index, expiresAt);
+            
+            logger.info("Downloaded {} albums", albums.size());
+            return index.getAlbums();
+        } finally {
+            loadLock.unlock();
+        }
+    }
+    
+    /**
+     * Loads the snapshot, or downloads the collection if there is no usable one. Must be
+     * called holding {@code loadLock}.
+     */
+    private CollectionIndex load() throws DiscogsApiException {
+        if (collectionCache != null) {
+            Optional<CollectionCache.Snapshot> cached = collectionCache.loadSnapshot(username);
+            if (cached.isPresent()) {
+                return install(new CollectionIndex(cached.get().getAlbums()), cached.get().getExpiresAt());
+            }
+        }
+        refreshCollection();
+        synchronized (this) {
+            return collectionIndex;
+        }
+    }
+    
+    private synchronized CollectionIndex install(CollectionIndex index, Instant expiresAt) {
+        collectionIndex = index;
+        collectionExpiresAt = expiresAt;
+        return index;
+    }
+    
+    private boolean isExpired() {
+        return collectionExpiresAt != null && !Instant.now().isBefore(collectionExpiresAt);
+    }
+    
+    private synchronized boolean hasLocalCollection() {
+        return collectionIndex != null || collectionCache != null;
+    }
+    
+    private CollectionPage fetchCollectionPage(int page, int perPage) throws DiscogsApiException {
+        String url = String.format("%s/users/%s/collection/folders/0/releases?page=%d&per_page=%d",
+            apiBaseUrl, username, page, perPage);
+        return makeRequest(url, CollectionPage::read);
+    }
+    
+    private List<Album> awaitPage(Future<List<Album>> future) throws DiscogsApiException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DiscogsApiException) {
+                throw (DiscogsApiException) e.getCause();
+            }
+            throw new DiscogsApiException("Failed to fetch collection page: " + e.getCause().getMessage(),
+                e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DiscogsApiException("Collection download interrupted", e);
+        }
     }
     
     private Album fetchRandomAlbum(int totalItems) throws DiscogsApiException {
         int randomPage = random.nextInt(totalItems) + 1;
         
         String url = String.format("%s/users/%s/collection/folders/0/releases?page=%d&per_page=1",
-            API_BASE_URL, username, randomPage);
+            apiBaseUrl, username, randomPage);
         
-        JsonObject response = makeRequest(url);
+        CollectionPage response = makeRequest(url, CollectionPage::read);
         
-        if (response.has("releases")) {
-            JsonArray releases = response.getAsJsonArray("releases");
-            if (releases.size() > 0) {
-                Album album = Album.fromDiscogsJson(releases.get(0).getAsJsonObject());
-                logger.info("Fetched random album: {}", album);
-                return album;
-            }
+        if (!response.getAlbums().isEmpty()) {
+            Album album = response.getAlbums().get(0);
+            logger.info("Fetched random album: {}", album);
+            return album;
         }
         
         throw new DiscogsApiException("Failed to fetch random album");
     }
     
-    private JsonObject makeRequest(String urlString) throws DiscogsApiException {
-        return makeRequest(urlString, 0);
-    }
-    
-    private JsonObject makeRequest(String urlString, int retryCount) throws DiscogsApiException {
+    private <T> T makeRequest(String urlString, ResponseParser<T> parser) throws DiscogsApiException {
         try {
-            logger.debug("Making request to: {}", urlString);
-            
-            URL url = new URL(urlString);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("Authorization", "Discogs token=" + token);
-            conn.setRequestProperty("User-Agent", "DiscogsRandomPicker/2.0");
-            
-            int responseCode = conn.getResponseCode();
-            logger.debug("Response code: {}", responseCode);
-            
-            // Handle rate limiting
-            if (responseCode == 429) {
-                if (retryCount < MAX_RETRIES) {
-                    logger.warn("Rate limited, retrying in {}ms (attempt {}/{})", 
-                        RETRY_DELAY_MS, retryCount + 1, MAX_RETRIES);
-                    Thread.sleep(RETRY_DELAY_MS);
-                    return makeRequest(urlString, retryCount + 1);
-                } else {
-                    throw new DiscogsApiException("Rate limited after " + MAX_RETRIES + " retries", 429);
+            for (int attempt = 0; ; attempt++) {
+                rateLimiter.acquire();
+                logger.debug("Making request to: {}", urlString);
+                
+                Map<String, String> headers = new HashMap<>();
+                headers.put("Authorization", "Discogs token=" + token);
+                headers.put("User-Agent", "DiscogsRandomPicker/2.0");
+                
+                try (HttpTransport.Response response = transport.send(urlString, headers)) {
+                    if (checkResponse(response, attempt)) {
+                        return parse(response, parser);
+                    }
                 }
             }
-            
-            if (responseCode == 401) {
-                throw new DiscogsApiException("Authentication failed. Check your Discogs token.", 401);
-            }
-            
-            if (responseCode == 404) {
-                throw new DiscogsApiException("Resource not found. Check your Discogs username.", 404);
-            }
-            
-            if (responseCode != 200) {
-                throw new DiscogsApiException("API request failed with status code: " + responseCode, 
-                    responseCode);
-            }
-            
-            // Read response
-            BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            StringBuilder response = new StringBuilder();
-            String inputLine;
-            
-            while ((inputLine = in.readLine()) != null) {
-                response.append(inputLine);
-            }
-            in.close();
-            
-            return gson.fromJson(response.toString(), JsonObject.class);
-            
         } catch (IOException e) {
             throw new DiscogsApiException("Network error: " + e.getMessage(), e);
         } catch (InterruptedException e) {
@@ -213,4 +391,88 @@ public class DiscogsService {
             throw new DiscogsApiException("Request interrupted", e);
         }
     }
+    
+    /**
+     * Checks the response status; returns false when the request should be retried.
+     */
+    private boolean checkResponse(HttpTransport.Response response, int attempt) 
+            throws DiscogsApiException {
+        int responseCode = response.getStatusCode();
+        logger.debug("Response code: {}", responseCode);
+        
+        rateLimiter.update(
+            parseIntHeader(response.getHeader("X-Discogs-Ratelimit")),
+            parseIntHeader(response.getHeader("X-Discogs-Ratelimit-Used")),
+            parseIntHeader(response.getHeader("X-Discogs-Ratelimit-Remaining")));
+        
+        // Handle rate limiting
+        if (responseCode == 429) {
+            if (attempt >= MAX_RETRIES) {
+                throw new DiscogsApiException("Rate limited after " + MAX_RETRIES + " retries", 429);
+            }
+            
+            int retryAfter = parseIntHeader(response.getHeader("Retry-After"));
+            long delay = rateLimiter.onRateLimited(attempt, retryAfter >= 0 ? retryAfter * 1000L : -1);
+            logger.warn("Rate limited, retrying in {}ms (attempt {}/{})", 
+                delay, attempt + 1, MAX_RETRIES);
+            return false;
+        }
+        
+        if (responseCode == 401) {
+            throw new DiscogsApiException("Authentication failed. Check your Discogs token.", 401);
+        }
+        
+        if (responseCode == 404) {
+            throw new DiscogsApiException("Resource not found. Check your Discogs username.", 404);
+        }
+        
+        if (responseCode != 200) {
+            throw new DiscogsApiException("API request failed with status code: " + responseCode, 
+                responseCode);
+        }
+        
+        return true;
+    }
+    
+    private <T> T parse(HttpTransport.Response response, ResponseParser<T> parser) throws DiscogsApiException {
+        // Parse straight off the (decompressed) body stream instead of buffering it first
+        try (Reader reader = new InputStreamReader(response.getBody(), StandardCharsets.UTF_8)) {
+            return parser.parse(reader);
+        } catch (IOException | RuntimeException e) {
+            throw new DiscogsApiException("Invalid response from Discogs: " + e.getMessage(), e);
+        }
+    }
+    
+    private static int parseIntHeader(String value) {
+        if (value == null) {
+            return -1;
+        }
+        
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Names collection download threads and keeps them from blocking JVM exit.
+     */
+    private static class FetchThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+        
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "discogs-fetch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+    
+    /**
+     * Turns a response body into a result object.
+     */
+    private interface ResponseParser<T> {
+        T parse(Reader reader) throws IOException;
+    }
 }
@@ -0,0 +1,136 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * What an incremental export has written so far, saved next to the export. It keeps the mark the
+ * history store gave for the position after the last entry exported, so that the next run only
+ * reads the entries added since, and the size the export had, so that an export changed or torn
+ * since is written again in full.
+ */
+final class ExportCheckpoint {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ExportCheckpoint.class);
+    private static final int FORMAT = 2;
+    private static final String SUFFIX = ".checkpoint";
+    
+    private final ExportFormat format;
+    private final ExportService.Compression compression;
+    private final String historyVersion;
+    private final long exportSize;
+    private final long entries;
+    private final String historyMark;
+    
+    ExportCheckpoint(ExportFormat format, ExportService.Compression compression, String historyVersion,
+                     long exportSize, long entries, String historyMark) {
+        this.format = format;
+        this.compression = compression;
+        this.historyVersion = historyVersion;
+        this.exportSize = exportSize;
+        this.entries = entries;
+        this.historyMark = historyMark;
+    }
+    
+    static Path fileFor(Path export) {
+        return export.resolveSibling(export.getFileName() + SUFFIX);
+    }
+    
+    String getHistoryVersion() {
+        return historyVersion;
+    }
+    
+    long getEntries() {
+        return entries;
+    }
+    
+    /**
+     * Gets the mark of the history position after the last entry exported, or null if the
+     * store keeps no such position.
+     *
+     * @see HistoryStore#scanAddedAfter
+     */
+    String getHistoryMark() {
+        return historyMark;
+    }
+    
+    /**
+     * Checks whether the export is still the one the checkpoint was saved for, so that it can be
+     * kept as it is or appended to.
+     */
+    boolean continues(ExportFormat format, ExportService.Compression compression, Path export) throws IOException {
+        return this.format == format && this.compression == compression
+            && Files.exists(export) && Files.size(export) == exportSize;
+    }
+    
+    /**
+     * Reads the checkpoint of an export, or returns null if there is none that can be used.
+     */
+    static ExportCheckpoint load(Path export) {
+        Path file = fileFor(export);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        
+        try {
+            JsonObject json = JsonParser.parseString(Files.readString(file, StandardCharsets.UTF_8))
+                .getAsJsonObject();
+            if (json.get("format").getAsInt() != FORMAT) {
+                return null;
+            }
+            JsonElement mark = json.get("history_mark");
+            return new ExportCheckpoint(
+                ExportFormat.valueOf(json.get("export_format").getAsString()),
+                ExportService.Compression.valueOf(json.get("compression").getAsString()),
+                json.get("history_version").getAsString(),
+                json.get("export_size").getAsLong(),
+                json.get("entries").getAsLong(),
+                mark.isJsonNull() ? null : mark.getAsString());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable export checkpoint {}", file, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Replaces the checkpoint of an export. It is not synced: one lost or torn by a crash only
+     * makes the next run export everything again.
+     */
+    void save(Path export) {
+        JsonObject json = new JsonObject();
+        json.addProperty("format", FORMAT);
+        json.addProperty("export_format", format.name());
+        json.addProperty("compression", compression.name());
+        json.addProperty("history_version", historyVersion);
+        json.addProperty("export_size", exportSize);
+        json.addProperty("entries", entries);
+        json.addProperty("history_mark", historyMark);
+        
+        Path file = fileFor(export);
+        Path directory = file.toAbsolutePath().getParent();
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            Files.writeString(tempFile, json.toString(), StandardCharsets.UTF_8);
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Failed to save export checkpoint {}", file, e);
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ignored) {
+                    // Nothing more to do
+                }
+            }
+        }
+    }
+}
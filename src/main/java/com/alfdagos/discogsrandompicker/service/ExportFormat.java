@@ -0,0 +1,158 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+
+import java.io.IOException;
+
+/**
+ * The layouts history can be exported in, written one entry at a time.
+ * <p>
+ * Nothing before the last row depends on the number of entries, so an export never needs the
+ * whole history in memory; formats that show a total write it in the footer.
+ */
+enum ExportFormat {
+    
+    CSV("CSV", "text/csv") {
+        @Override
+        void writeHeader(ExportWriter out) throws IOException {
+            out.write("Discogs ID,Artist,Title,Year,Listened Date,Rating,Notes\n");
+        }
+        
+        @Override
+        void writeRow(ExportWriter out, ListeningHistoryEntry entry) throws IOException {
+            out.writeLong(entry.getDiscogsId()).write(",\"");
+            out.writeCsv(entry.getArtist()).write("\",\"");
+            out.writeCsv(entry.getTitle()).write("\",\"");
+            out.write(String.valueOf(entry.getYear())).write("\",\"");
+            out.writeDate(entry.getListenedDate()).write("\",");
+            if (entry.getRating() != null) {
+                out.writeLong(entry.getRating());
+            }
+            out.write(",\"").writeCsv(entry.getNotes()).write("\"\n");
+        }
+    },
+    
+    HTML("HTML", "text/html") {
+        @Override
+        void writeHeader(ExportWriter out) throws IOException {
+            out.write("<!DOCTYPE html>\n");
+            out.write("<html>\n<head>\n");
+            out.write("<meta charset=\"UTF-8\">\n");
+            out.write("<title>Listening History</title>\n");
+            out.write("<style>\n");
+            out.write("body { font-family: Arial, sans-serif; margin: 20px; background: #f5f5f5; }\n");
+            out.write("h1 { color: #333; }\n");
+            out.write("table { width: 100%; border-collapse: collapse; background: white; box-shadow: 0 2px 4px rgba(0,0,0,0.1); }\n");
+            out.write("th { background: #333; color: white; padding: 12px; text-align: left; }\n");
+            out.write("td { padding: 10px; border-bottom: 1px solid #ddd; }\n");
+            out.write("tr:hover { background: #f9f9f9; }\n");
+            out.write(".rating { color: #f39c12; }\n");
+            out.write("</style>\n");
+            out.write("</head>\n<body>\n");
+            out.write("<h1>🎵 Listening History</h1>\n");
+            out.write("<table>\n");
+            out.write("<tr><th>Artist</th><th>Title</th><th>Year</th><th>Date</th><th>Rating</th></tr>\n");
+        }
+        
+        @Override
+        void writeRow(ExportWriter out, ListeningHistoryEntry entry) throws IOException {
+            out.write("<tr><td>").writeHtml(entry.getArtist());
+            out.write("</td><td>").writeHtml(entry.getTitle());
+            out.write("</td><td>").write(String.valueOf(entry.getYear()));
+            out.write("</td><td>").writeDate(entry.getListenedDate());
+            out.write("</td><td class=\"rating\">");
+            writeStars(out, entry.getRating());
+            out.write("</td></tr>\n");
+        }
+        
+        @Override
+        void writeFooter(ExportWriter out, long rows) throws IOException {
+            out.write("</table>\n");
+            out.write("<p>Total albums: <strong>").writeLong(rows).write("</strong></p>\n");
+            out.write("</body>\n</html>");
+        }
+    },
+    
+    MARKDOWN("Markdown", "text/markdown") {
+        @Override
+        void writeHeader(ExportWriter out) throws IOException {
+            out.write("# 🎵 Listening History\n\n");
+            out.write("| Artist | Title | Year | Date | Rating |\n");
+            out.write("|--------|-------|------|------|--------|\n");
+        }
+        
+        @Override
+        void writeRow(ExportWriter out, ListeningHistoryEntry entry) throws IOException {
+            out.write("| ").writeMarkdown(entry.getArtist());
+            out.write(" | ").writeMarkdown(entry.getTitle());
+            out.write(" | ").write(String.valueOf(entry.getYear()));
+            out.write(" | ").writeDate(entry.getListenedDate());
+            out.write(" | ");
+            writeStars(out, entry.getRating());
+            out.write(" |\n");
+        }
+        
+        @Override
+        void writeFooter(ExportWriter out, long rows) throws IOException {
+            out.write("\nTotal albums: **").writeLong(rows).write("**\n");
+        }
+    },
+    
+    /**
+     * JSON Lines, the format accepted by {@code --import}.
+     */
+    JSON("JSON", "application/x-ndjson") {
+        @Override
+        void writeRow(ExportWriter out, ListeningHistoryEntry entry) throws IOException {
+            out.write(HistoryJson.toLine(entry)).write('\n');
+        }
+    };
+    
+    private final String label;
+    private final String mediaType;
+    
+    ExportFormat(String label, String mediaType) {
+        this.label = label;
+        this.mediaType = mediaType;
+    }
+    
+    /**
+     * Parses a format name as given on the command line, case-insensitively; {@code md} is
+     * accepted for Markdown.
+     */
+    static ExportFormat parse(String name) {
+        String normalized = name.trim().toUpperCase();
+        return normalized.equals("MD") ? MARKDOWN : valueOf(normalized);
+    }
+    
+    /**
+     * Gets the name of the format as shown to users.
+     */
+    String getLabel() {
+        return label;
+    }
+    
+    /**
+     * Gets the media type of an uncompressed export, for serving it over HTTP.
+     */
+    String getMediaType() {
+        return mediaType;
+    }
+    
+    void writeHeader(ExportWriter out) throws IOException {
+    }
+    
+    abstract void writeRow(ExportWriter out, ListeningHistoryEntry entry) throws IOException;
+    
+    void writeFooter(ExportWriter out, long rows) throws IOException {
+    }
+    
+    private static void writeStars(ExportWriter out, Integer rating) throws IOException {
+        if (rating == null) {
+            return;
+        }
+        for (int i = 0; i < rating; i++) {
+            out.write('★');
+        }
+    }
+}
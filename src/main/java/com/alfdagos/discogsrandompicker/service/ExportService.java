@@ -1,110 +1,190 @@
 package com.alfdagos.discogsrandompicker.service;
 
 import com.alfdagos.discogsrandompicker.exception.HistoryException;
+import com.alfdagos.discogsrandompicker.model.DateRange;
 import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.github.luben.zstd.ZstdOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.time.format.DateTimeFormatter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Service for exporting listening history to various formats.
+ * <p>
+ * Entries are written as they are read from the history. Given a pool, rows are formatted in
+ * chunks on its threads and the chunks written to the file in order at their positions, which
+ * gives the same bytes as formatting them one after another.
+ * <p>
+ * CSV and JSON Lines can be compressed as they are written. In parallel exports every chunk is
+ * compressed on its own, and the file is a sequence of gzip members or zstd frames, which
+ * decompressors read as one stream.
  */
 public class ExportService {
     
     private static final Logger logger = LoggerFactory.getLogger(ExportService.class);
-    private static final DateTimeFormatter DISPLAY_FORMATTER = 
-        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final int CHUNK_SIZE = 1 << 13;
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    private static final int PAGE_SIZE = 1000;
+    private static final String PAGES_DIRECTORY = "data";
+    private static final String PAGES_INDEX = "/export/history-pages.html";
+    
+    /**
+     * How CSV and JSON Lines exports are compressed.
+     */
+    public enum Compression {
+        NONE(""),
+        GZIP(".gz"),
+        /** Smaller and much faster to decompress than gzip. */
+        ZSTD(".zst");
+        
+        private final String extension;
+        
+        Compression(String extension) {
+            this.extension = extension;
+        }
+        
+        public static Compression parse(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+        
+        /**
+         * Gets the suffix added to the names of files compressed this way.
+         */
+        public String getExtension() {
+            return extension;
+        }
+        
+        OutputStream wrap(OutputStream out) throws IOException {
+            switch (this) {
+                case GZIP:
+                    return new GZIPOutputStream(out, GZIP_BUFFER_SIZE);
+                case ZSTD:
+                    return new ZstdOutputStream(out);
+                default:
+                    return out;
+            }
+        }
+        
+        byte[] compress(byte[] bytes) throws IOException {
+            if (this == NONE || bytes.length == 0) {
+                return bytes;
+            }
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+            try (OutputStream out = wrap(compressed)) {
+                out.write(bytes);
+            }
+            return compressed.toByteArray();
+        }
+    }
     
     private final HistoryService historyService;
+    private final ForkJoinPool pool;
     
     public ExportService(HistoryService historyService) {
+        this(historyService, null);
+    }
+    
+    /**
+     * Creates a service that formats rows on the pool, or on the calling thread if it is null.
+     */
+    public ExportService(HistoryService historyService, ForkJoinPool pool) {
         this.historyService = historyService;
+        this.pool = pool;
     }
     
     /**
      * Exports listening history to CSV format.
      */
     public void exportToCsv(String filename) throws HistoryException {
-        logger.info("Exporting history to CSV: {}", filename);
-        
-        List<ListeningHistoryEntry> history = historyService.loadHistory();
-        
-        try (FileWriter writer = new FileWriter(filename)) {
-            // Write header
-            writer.write("Discogs ID,Artist,Title,Year,Listened Date,Rating,Notes\n");
-            
-            // Write entries
-            for (ListeningHistoryEntry entry : history) {
-                writer.write(String.format("%d,\"%s\",\"%s\",\"%s\",\"%s\",%s,\"%s\"\n",
-                    entry.getDiscogsId(),
-                    escapeCsv(entry.getArtist()),
-                    escapeCsv(entry.getTitle()),
-                    entry.getYear(),
-                    entry.getListenedDate().format(DISPLAY_FORMATTER),
-                    entry.getRating() != null ? entry.getRating() : "",
-                    entry.getNotes() != null ? escapeCsv(entry.getNotes()) : ""));
-            }
-            
-            logger.info("Exported {} entries to CSV", history.size());
-            
-        } catch (IOException e) {
-            throw new HistoryException("Failed to export to CSV: " + filename, e);
-        }
+        exportToCsv(filename, DateRange.ALL);
+    }
+    
+    /**
+     * Exports the entries listened to within the range to CSV format.
+     */
+    public void exportToCsv(String filename, DateRange range) throws HistoryException {
+        exportToCsv(filename, range, Compression.NONE);
+    }
+    
+    /**
+     * Exports the entries listened to within the range to compressed CSV.
+     */
+    public void exportToCsv(String filename, DateRange range, Compression compression) throws HistoryException {
+        export(filename, range, ExportFormat.CSV, compression);
     }
     
     /**
      * Exports listening history to HTML format.
      */
     public void exportToHtml(String filename) throws HistoryException {
-        logger.info("Exporting history to HTML: {}", filename);
-        
-        List<ListeningHistoryEntry> history = historyService.loadHistory();
-        
-        try (FileWriter writer = new FileWriter(filename)) {
-            // Write HTML header
-            writer.write("<!DOCTYPE html>\n");
-            writer.write("<html>\n<head>\n");
-            writer.write("<meta charset=\"UTF-8\">\n");
-            writer.write("<title>Listening History</title>\n");
-            writer.write("<style>\n");
-            writer.write("body { font-family: Arial, sans-serif; margin: 20px; background: #f5f5f5; }\n");
-            writer.write("h1 { color: #333; }\n");
-            writer.write("table { width: 100%; border-collapse: collapse; background: white; box-shadow: 0 2px 4px rgba(0,0,0,0.1); }\n");
-            writer.write("th { background: #333; color: white; padding: 12px; text-align: left; }\n");
-            writer.write("td { padding: 10px; border-bottom: 1px solid #ddd; }\n");
-            writer.write("tr:hover { background: #f9f9f9; }\n");
-            writer.write(".rating { color: #f39c12; }\n");
-            writer.write("</style>\n");
-            writer.write("</head>\n<body>\n");
-            writer.write("<h1>🎵 Listening History</h1>\n");
-            writer.write(String.format("<p>Total albums: <strong>%d</strong></p>\n", history.size()));
-            writer.write("<table>\n");
-            writer.write("<tr><th>Artist</th><th>Title</th><th>Year</th><th>Date</th><th>Rating</th></tr>\n");
-            
-            // Write entries
-            for (ListeningHistoryEntry entry : history) {
-                writer.write("<tr>");
-                writer.write(String.format("<td>%s</td>", escapeHtml(entry.getArtist())));
-                writer.write(String.format("<td>%s</td>", escapeHtml(entry.getTitle())));
-                writer.write(String.format("<td>%s</td>", entry.getYear()));
-                writer.write(String.format("<td>%s</td>", 
-                    entry.getListenedDate().format(DISPLAY_FORMATTER)));
-                writer.write(String.format("<td class=\"rating\">%s</td>", 
-                    entry.getRating() != null ? "★".repeat(entry.getRating()) : ""));
-                writer.write("</tr>\n");
+        exportToHtml(filename, DateRange.ALL);
+    }
+    
+    /**
+     * Exports the entries listened to within the range to HTML format.
+     */
+    public void exportToHtml(String filename, DateRange range) throws HistoryException {
+        export(filename, range, ExportFormat.HTML, Compression.NONE);
+    }
+    
+    /**
+     * Exports the entries listened to within the range as a page that loads them on demand.
+     * <p>
+     * The directory gets an {@code index.html} and, under {@code data}, the rows in scripts of
+     * {@value #PAGE_SIZE} each and a manifest written last. The page only keeps the rows in view
+     * in the document and loads their pages as they are scrolled to, and searches page by page,
+     * so it opens as fast for a million entries as for a hundred. With a pool, pages are
+     * written on its threads. Returns the number of entries written.
+     */
+    public long exportToHtmlPages(String directory, DateRange range) throws HistoryException {
+        Path root = Paths.get(directory);
+        Path data = root.resolve(PAGES_DIRECTORY);
+        logger.info("Exporting history to paged HTML: {}", root);
+        
+        try {
+            Files.createDirectories(data);
+            // Pages left by a larger export would otherwise stay next to the new ones
+            try (DirectoryStream<Path> oldPages = Files.newDirectoryStream(data, "page-*.js")) {
+                for (Path page : oldPages) {
+                    Files.delete(page);
+                }
+            }
+            try (InputStream index = ExportService.class.getResourceAsStream(PAGES_INDEX)) {
+                Files.copy(index, root.resolve("index.html"), StandardCopyOption.REPLACE_EXISTING);
             }
             
-            writer.write("</table>\n");
-            writer.write("</body>\n</html>");
-            
-            logger.info("Exported {} entries to HTML", history.size());
-            
+            HtmlPages pages = new HtmlPages(data);
+            historyService.forEachInRange(range, pages::add);
+            long rows = pages.finish();
+            logger.info("Exported {} entries to paged HTML", rows);
+            return rows;
         } catch (IOException e) {
-            throw new HistoryException("Failed to export to HTML: " + filename, e);
+            throw new HistoryException("Failed to export to paged HTML: " + directory, e);
+        } catch (UncheckedIOException e) {
+            throw new HistoryException("Failed to export to paged HTML: " + directory, e.getCause());
         }
     }
     
@@ -112,48 +192,380 @@ public class ExportService {
      * Exports listening history to Markdown format.
      */
     public void exportToMarkdown(String filename) throws HistoryException {
-        logger.info("Exporting history to Markdown: {}", filename);
+        exportToMarkdown(filename, DateRange.ALL);
+    }
+    
+    /**
+     * Exports the entries listened to within the range to Markdown format.
+     */
+    public void exportToMarkdown(String filename, DateRange range) throws HistoryException {
+        export(filename, range, ExportFormat.MARKDOWN, Compression.NONE);
+    }
+    
+    /**
+     * Exports listening history as JSON Lines, the format accepted by {@code --import}.
+     */
+    public void exportToJson(String filename) throws HistoryException {
+        exportToJson(filename, DateRange.ALL);
+    }
+    
+    /**
+     * Exports the entries listened to within the range as JSON Lines.
+     */
+    public void exportToJson(String filename, DateRange range) throws HistoryException {
+        exportToJson(filename, range, Compression.NONE);
+    }
+    
+    /**
+     * Exports the entries listened to within the range as compressed JSON Lines.
+     */
+    public void exportToJson(String filename, DateRange range, Compression compression) throws HistoryException {
+        export(filename, range, ExportFormat.JSON, compression);
+    }
+    
+    /**
+     * Exports the whole history, or only what was added since the last run, to CSV, keeping a
+     * checkpoint next to the file. Returns the number of entries written.
+     *
+     * @see #exportToJsonIncrementally(String, Compression)
+     */
+    public long exportToCsvIncrementally(String filename, Compression compression) throws HistoryException {
+        return exportIncrementally(Paths.get(filename), ExportFormat.CSV, compression);
+    }
+    
+    /**
+     * Exports the whole history, or only what was added since the last run, as JSON Lines.
+     * <p>
+     * The checkpoint keeps the position in the history store after the last entry exported.
+     * Later runs read the entries added after it and append them, so they cost as much as the
+     * entries added since rather than the whole history. The file is exported again in full if
+     * the checkpoint is missing, if the file was changed since, or if the history was rewritten,
+     * e.g. compacted. A store that does not keep entries in the order they were added is
+     * exported in full whenever it has changed.
+     */
+    public long exportToJsonIncrementally(String filename, Compression compression) throws HistoryException {
+        return exportIncrementally(Paths.get(filename), ExportFormat.JSON, compression);
+    }
+    
+    /**
+     * Writes entries to the file in UTF-8 as they are read from the history, so the export runs
+     * in constant memory however long the history is.
+     */
+    private void export(String filename, DateRange range, ExportFormat format, Compression compression)
+            throws HistoryException {
+        export(Paths.get(filename), inRange(range), format, compression);
+    }
+    
+    private long exportIncrementally(Path file, ExportFormat format, Compression compression)
+            throws HistoryException {
+        // Read first: entries added while exporting are at worst looked for again next time
+        String version = historyService.getVersion().toString();
+        ExportCheckpoint checkpoint = ExportCheckpoint.load(file);
+        
+        List<ListeningHistoryEntry> added = new ArrayList<>();
+        String mark = null;
+        try {
+            if (checkpoint != null && checkpoint.continues(format, compression, file)) {
+                if (checkpoint.getHistoryVersion().equals(version)) {
+                    return 0;
+                }
+                if (checkpoint.getHistoryMark() != null) {
+                    mark = historyService.scanAddedAfter(checkpoint.getHistoryMark(), added::add);
+                }
+            }
+        } catch (IOException e) {
+            throw new HistoryException("Failed to read export: " + file, e);
+        }
         
-        List<ListeningHistoryEntry> history = historyService.loadHistory();
+        if (mark == null) {
+            logger.info("No usable checkpoint for {}, exporting all history", file);
+            String[] end = {null};
+            long rows = export(file, action -> {
+                end[0] = historyService.scanAddedAfter(null, entry -> {
+                    action.accept(entry);
+                    return true;
+                });
+                if (end[0] == null) {
+                    // Entries are not kept in added order, so there is no position to continue from
+                    historyService.forEachInRange(DateRange.ALL, action);
+                }
+            }, format, compression);
+            saveCheckpoint(file, format, compression, version, rows, end[0]);
+            return rows;
+        }
         
-        try (FileWriter writer = new FileWriter(filename)) {
-            writer.write("# 🎵 Listening History\n\n");
-            writer.write(String.format("Total albums: **%d**\n\n", history.size()));
-            writer.write("| Artist | Title | Year | Date | Rating |\n");
-            writer.write("|--------|-------|------|------|--------|\n");
-            
-            // Write entries
-            for (ListeningHistoryEntry entry : history) {
-                writer.write(String.format("| %s | %s | %s | %s | %s |\n",
-                    escapeMarkdown(entry.getArtist()),
-                    escapeMarkdown(entry.getTitle()),
-                    entry.getYear(),
-                    entry.getListenedDate().format(DISPLAY_FORMATTER),
-                    entry.getRating() != null ? "★".repeat(entry.getRating()) : ""));
+        if (!added.isEmpty()) {
+            logger.info("Appending {} new entries to {}: {}", added.size(), format.getLabel(), file);
+            try (ExportWriter writer = new ExportWriter(new OutputStreamWriter(
+                    compression.wrap(Files.newOutputStream(file, StandardOpenOption.APPEND)),
+                    StandardCharsets.UTF_8))) {
+                for (ListeningHistoryEntry entry : added) {
+                    format.writeRow(writer, entry);
+                }
+            } catch (IOException e) {
+                throw new HistoryException("Failed to export to " + format.getLabel() + ": " + file, e);
             }
-            
-            logger.info("Exported {} entries to Markdown", history.size());
-            
+        }
+        saveCheckpoint(file, format, compression, version, checkpoint.getEntries() + added.size(), mark);
+        return added.size();
+    }
+    
+    private static void saveCheckpoint(Path file, ExportFormat format, Compression compression, String version,
+                                       long entries, String historyMark) throws HistoryException {
+        try {
+            new ExportCheckpoint(format, compression, version, Files.size(file), entries, historyMark).save(file);
+        } catch (IOException e) {
+            throw new HistoryException("Failed to read export: " + file, e);
+        }
+    }
+    
+    private EntrySource inRange(DateRange range) {
+        return action -> historyService.forEachInRange(range, action);
+    }
+    
+    /**
+     * Reads the entries an export writes, passing them to the action in the order they are
+     * written.
+     */
+    @FunctionalInterface
+    private interface EntrySource {
+        void forEach(Consumer<ListeningHistoryEntry> action) throws HistoryException;
+    }
+    
+    /**
+     * Writes the entries to the file in UTF-8 as they are read from the history. Returns the
+     * number of entries written.
+     */
+    private long export(Path file, EntrySource entries, ExportFormat format, Compression compression)
+            throws HistoryException {
+        logger.info("Exporting history to {}: {}", format.getLabel(), file);
+        
+        try {
+            long rows = pool != null
+                ? exportInChunks(file, entries, format, compression)
+                : exportInOrder(file, entries, format, compression);
+            logger.info("Exported {} entries to {}", rows, format.getLabel());
+            return rows;
         } catch (IOException e) {
-            throw new HistoryException("Failed to export to Markdown: " + filename, e);
+            throw new HistoryException("Failed to export to " + format.getLabel() + ": " + file, e);
+        } catch (UncheckedIOException e) {
+            throw new HistoryException("Failed to export to " + format.getLabel() + ": " + file, e.getCause());
         }
     }
     
-    private String escapeCsv(String text) {
-        if (text == null) return "";
-        return text.replace("\"", "\"\"");
+    private long exportInOrder(Path file, EntrySource entries, ExportFormat format, Compression compression)
+            throws IOException, HistoryException {
+        return write(Files.newOutputStream(file), entries, format, compression);
     }
     
-    private String escapeHtml(String text) {
-        if (text == null) return "";
-        return text.replace("&", "&amp;")
-                   .replace("<", "&lt;")
-                   .replace(">", "&gt;")
-                   .replace("\"", "&quot;");
+    /**
+     * Writes an export to a stream instead of a file, e.g. an HTTP response, as the entries are
+     * read from the history. The stream is closed. Returns the number of entries written.
+     */
+    long exportTo(OutputStream out, DateRange range, ExportFormat format, Compression compression)
+            throws IOException, HistoryException {
+        try {
+            return write(out, inRange(range), format, compression);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
     
-    private String escapeMarkdown(String text) {
-        if (text == null) return "";
-        return text.replace("|", "\\|");
+    private long write(OutputStream out, EntrySource entries, ExportFormat format, Compression compression)
+            throws IOException, HistoryException {
+        long[] rows = {0};
+        try (ExportWriter writer = new ExportWriter(new OutputStreamWriter(
+                compression.wrap(out), StandardCharsets.UTF_8))) {
+            format.writeHeader(writer);
+            entries.forEach(entry -> {
+                try {
+                    format.writeRow(writer, entry);
+                    rows[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            format.writeFooter(writer, rows[0]);
+        }
+        return rows[0];
+    }
+    
+    private long exportInChunks(Path file, EntrySource entries, ExportFormat format, Compression compression)
+            throws IOException, HistoryException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ChunkedExport export = new ChunkedExport(channel, format, compression);
+            entries.forEach(export::add);
+            return export.finish();
+        }
+    }
+    
+    /**
+     * Formats one section of an export into UTF-8 bytes.
+     */
+    private static byte[] render(Section section) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ExportWriter out = new ExportWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+            section.writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+    
+    @FunctionalInterface
+    private interface Section {
+        void writeTo(ExportWriter out) throws IOException;
+    }
+    
+    /**
+     * Collects entries into chunks, formats each on the pool and writes the formatted chunks in
+     * the order they were collected. At most two chunks per thread are in flight, so memory stays
+     * bounded when formatting outpaces the disk or the other way round.
+     */
+    private final class ChunkedExport {
+        private final FileChannel channel;
+        private final ExportFormat format;
+        private final Compression compression;
+        private final Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+        private final int maxPending = Math.max(2, pool.getParallelism() * 2);
+        private List<ListeningHistoryEntry> chunk = new ArrayList<>(CHUNK_SIZE);
+        private long position;
+        private long rows;
+        
+        ChunkedExport(FileChannel channel, ExportFormat format, Compression compression) throws IOException {
+            this.channel = channel;
+            this.format = format;
+            this.compression = compression;
+            write(compression.compress(render(format::writeHeader)));
+        }
+        
+        void add(ListeningHistoryEntry entry) {
+            chunk.add(entry);
+            if (chunk.size() == CHUNK_SIZE) {
+                submit();
+            }
+        }
+        
+        long finish() throws IOException {
+            if (!chunk.isEmpty()) {
+                submit();
+            }
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            write(compression.compress(render(out -> format.writeFooter(out, rows))));
+            return rows;
+        }
+        
+        private void submit() {
+            List<ListeningHistoryEntry> entries = chunk;
+            chunk = new ArrayList<>(CHUNK_SIZE);
+            rows += entries.size();
+            pending.add(pool.submit(() -> compression.compress(render(out -> {
+                for (ListeningHistoryEntry entry : entries) {
+                    format.writeRow(out, entry);
+                }
+            }))));
+            while (pending.size() > maxPending) {
+                writeNext();
+            }
+        }
+        
+        private void writeNext() {
+            try {
+                write(pending.remove().join());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        private void write(byte[] bytes) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+    
+    /**
+     * Writes entries as {@code historyPage(n, [[artist, title, year, date, rating], ...])}
+     * scripts, on the pool if there is one, and finally the manifest the page starts from.
+     */
+    private final class HtmlPages {
+        private final Path directory;
+        private final Deque<ForkJoinTask<?>> pending = new ArrayDeque<>();
+        private final int maxPending = pool != null ? Math.max(2, pool.getParallelism() * 2) : 0;
+        private List<ListeningHistoryEntry> page = new ArrayList<>(PAGE_SIZE);
+        private int pages;
+        private long rows;
+        
+        HtmlPages(Path directory) {
+            this.directory = directory;
+        }
+        
+        void add(ListeningHistoryEntry entry) {
+            page.add(entry);
+            if (page.size() == PAGE_SIZE) {
+                submit();
+            }
+        }
+        
+        long finish() throws IOException {
+            if (!page.isEmpty()) {
+                submit();
+            }
+            while (!pending.isEmpty()) {
+                pending.remove().join();
+            }
+            
+            try (ExportWriter out = open(directory.resolve("manifest.js"))) {
+                out.write("historyManifest({\"total\":").writeLong(rows);
+                out.write(",\"pageSize\":").writeLong(PAGE_SIZE);
+                out.write(",\"pages\":").writeLong(pages).write("});\n");
+            }
+            return rows;
+        }
+        
+        private void submit() {
+            List<ListeningHistoryEntry> entries = page;
+            int number = pages++;
+            page = new ArrayList<>(PAGE_SIZE);
+            rows += entries.size();
+            
+            if (pool == null) {
+                writePage(number, entries);
+                return;
+            }
+            pending.add(pool.submit(() -> writePage(number, entries)));
+            while (pending.size() > maxPending) {
+                pending.remove().join();
+            }
+        }
+        
+        private void writePage(int number, List<ListeningHistoryEntry> entries) {
+            try (ExportWriter out = open(directory.resolve("page-" + number + ".js"))) {
+                out.write("historyPage(").writeLong(number).write(",[\n");
+                for (int i = 0; i < entries.size(); i++) {
+                    ListeningHistoryEntry entry = entries.get(i);
+                    out.write(i > 0 ? ",\n[" : "[");
+                    out.writeJsonString(entry.getArtist()).write(',');
+                    out.writeJsonString(entry.getTitle()).write(',');
+                    out.writeJsonString(entry.getYear()).write(",\"");
+                    out.writeDate(entry.getListenedDate()).write("\",");
+                    if (entry.getRating() != null) {
+                        out.writeLong(entry.getRating());
+                    } else {
+                        out.write("null");
+                    }
+                    out.write(']');
+                }
+                out.write("\n]);\n");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        private ExportWriter open(Path file) throws IOException {
+            return new ExportWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8));
+        }
     }
 }
@@ -0,0 +1,217 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Buffered text output for exports, with the escaping and number and date formatting they need
+ * written out by hand so that a row costs no allocation beyond its own strings.
+ */
+final class ExportWriter implements Closeable {
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final DateTimeFormatter DISPLAY_FORMATTER =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    
+    private final Writer out;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int size;
+    
+    ExportWriter(Writer out) {
+        this.out = out;
+    }
+    
+    ExportWriter write(char c) throws IOException {
+        if (size == buffer.length) {
+            flushBuffer();
+        }
+        buffer[size++] = c;
+        return this;
+    }
+    
+    ExportWriter write(String text) throws IOException {
+        int length = text.length();
+        for (int start = 0; start < length; ) {
+            if (size == buffer.length) {
+                flushBuffer();
+            }
+            int end = Math.min(length, start + buffer.length - size);
+            text.getChars(start, end, buffer, size);
+            size += end - start;
+            start = end;
+        }
+        return this;
+    }
+    
+    ExportWriter writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            return write(Long.toString(value));
+        }
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            write((char) ('0' + value / divisor % 10));
+        }
+        return this;
+    }
+    
+    /**
+     * Writes the time as {@code yyyy-MM-dd HH:mm}, or nothing if it is null.
+     */
+    ExportWriter writeDate(LocalDateTime time) throws IOException {
+        if (time == null) {
+            return this;
+        }
+        if (time.getYear() < 0 || time.getYear() > 9999) {
+            // The formatter adds a sign to these
+            return write(time.format(DISPLAY_FORMATTER));
+        }
+        
+        writeDigits(time.getYear(), 4).write('-');
+        writeDigits(time.getMonthValue(), 2).write('-');
+        writeDigits(time.getDayOfMonth(), 2).write(' ');
+        writeDigits(time.getHour(), 2).write(':');
+        return writeDigits(time.getMinute(), 2);
+    }
+    
+    /**
+     * Writes text for a quoted CSV field, doubling quotes. Null is written as nothing.
+     */
+    ExportWriter writeCsv(String text) throws IOException {
+        if (text == null) {
+            return this;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                write('"');
+            }
+            write(c);
+        }
+        return this;
+    }
+    
+    /**
+     * Writes text for HTML element content or a quoted attribute. Null is written as nothing.
+     */
+    ExportWriter writeHtml(String text) throws IOException {
+        if (text == null) {
+            return this;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    write("&amp;");
+                    break;
+                case '<':
+                    write("&lt;");
+                    break;
+                case '>':
+                    write("&gt;");
+                    break;
+                case '"':
+                    write("&quot;");
+                    break;
+                default:
+                    write(c);
+            }
+        }
+        return this;
+    }
+    
+    /**
+     * Writes text for a Markdown table cell, escaping pipes. Null is written as nothing.
+     */
+    ExportWriter writeMarkdown(String text) throws IOException {
+        if (text == null) {
+            return this;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '|') {
+                write('\\');
+            }
+            write(c);
+        }
+        return this;
+    }
+    
+    /**
+     * Writes text as a JSON string that is also valid JavaScript. Null is written as {@code null}.
+     */
+    ExportWriter writeJsonString(String text) throws IOException {
+        if (text == null) {
+            return write("null");
+        }
+        write('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    write("\\\"");
+                    break;
+                case '\\':
+                    write("\\\\");
+                    break;
+                case '\n':
+                    write("\\n");
+                    break;
+                case '\r':
+                    write("\\r");
+                    break;
+                case '\t':
+                    write("\\t");
+                    break;
+                default:
+                    // Line and paragraph separators end a line in older JavaScript
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        write("\\u");
+                        for (int shift = 12; shift >= 0; shift -= 4) {
+                            write(HEX_DIGITS[(c >> shift) & 0xF]);
+                        }
+                    } else {
+                        write(c);
+                    }
+            }
+        }
+        return write('"');
+    }
+    
+    void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+    
+    private ExportWriter writeDigits(int value, int digits) throws IOException {
+        for (int divisor = digits == 4 ? 1000 : 10; divisor > 0; divisor /= 10) {
+            write((char) ('0' + value / divisor % 10));
+        }
+        return this;
+    }
+    
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, size);
+        size = 0;
+    }
+}
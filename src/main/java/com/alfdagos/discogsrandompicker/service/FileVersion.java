@@ -0,0 +1,61 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Identifies one version of a file by its identity, size and modification time.
+ */
+final class FileVersion {
+    
+    static final FileVersion MISSING = new FileVersion(null, -1, -1);
+    
+    private final Object fileKey;
+    private final long size;
+    private final long lastModified;
+    
+    private FileVersion(Object fileKey, long size, long lastModified) {
+        this.fileKey = fileKey;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+    
+    static FileVersion of(Path file) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            // The file key changes when a rewrite replaces the file, even at the same size
+            return new FileVersion(attributes.fileKey(), attributes.size(),
+                attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+        } catch (NoSuchFileException e) {
+            return MISSING;
+        }
+    }
+    
+    long size() {
+        return size;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FileVersion that = (FileVersion) o;
+        return size == that.size && lastModified == that.lastModified
+            && Objects.equals(fileKey, that.fileKey);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(fileKey, size, lastModified);
+    }
+    
+    @Override
+    public String toString() {
+        return fileKey + ":" + size + ":" + lastModified;
+    }
+}
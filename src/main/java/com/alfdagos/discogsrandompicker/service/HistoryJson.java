@@ -0,0 +1,163 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JSON form of listening history entries, used by the JSON Lines store and for import and export.
+ * <p>
+ * Histories are read either as JSON Lines or, for files written by earlier versions, as a single
+ * JSON array of entries.
+ */
+public final class HistoryJson {
+    
+    private static final Logger logger = LoggerFactory.getLogger(HistoryJson.class);
+    private static final Gson GSON = new Gson();
+    
+    private HistoryJson() {
+    }
+    
+    /**
+     * Encodes an entry as a single line of JSON, without the line terminator.
+     */
+    public static String toLine(ListeningHistoryEntry entry) {
+        return GSON.toJson(toJson(entry));
+    }
+    
+    /**
+     * Decodes one line of JSON; missing fields get the same defaults as the history file.
+     *
+     * @throws JsonParseException if the line is not a well-formed entry
+     */
+    public static ListeningHistoryEntry fromLine(String line) {
+        JsonObject obj = GSON.fromJson(line, JsonObject.class);
+        if (obj == null) {
+            throw new JsonParseException("Empty history entry");
+        }
+        return fromJson(obj);
+    }
+    
+    /**
+     * Checks whether the input holds a single JSON array, leaving the reader at its start.
+     */
+    public static boolean isArray(BufferedReader reader) throws IOException {
+        while (true) {
+            reader.mark(1);
+            int c = reader.read();
+            if (c == -1) {
+                return false;
+            }
+            if (!Character.isWhitespace(c)) {
+                reader.reset();
+                return c == '[';
+            }
+        }
+    }
+    
+    /**
+     * Reads a JSON array of entries, skipping those that cannot be decoded.
+     *
+     * @throws JsonParseException if the input is not a JSON array
+     */
+    public static List<ListeningHistoryEntry> readArray(Reader reader) {
+        JsonArray jsonArray = GSON.fromJson(reader, JsonArray.class);
+        List<ListeningHistoryEntry> history = new ArrayList<>();
+        
+        if (jsonArray == null) {
+            return history;
+        }
+        
+        for (int i = 0; i < jsonArray.size(); i++) {
+            try {
+                history.add(fromJson(jsonArray.get(i).getAsJsonObject()));
+            } catch (RuntimeException e) {
+                logger.warn("Failed to parse history entry at index {}", i, e);
+            }
+        }
+        return history;
+    }
+    
+    /**
+     * Reads JSON Lines, skipping blank lines and lines that cannot be decoded.
+     */
+    public static List<ListeningHistoryEntry> readLines(BufferedReader reader) throws IOException {
+        List<ListeningHistoryEntry> history = new ArrayList<>();
+        
+        String line;
+        for (int lineNumber = 1; (line = reader.readLine()) != null; lineNumber++) {
+            if (line.isBlank()) {
+                continue;
+            }
+            
+            try {
+                history.add(fromLine(line));
+            } catch (RuntimeException e) {
+                logger.warn("Failed to parse history entry at line {}", lineNumber, e);
+            }
+        }
+        return history;
+    }
+    
+    public static JsonObject toJson(ListeningHistoryEntry entry) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("discogs_id", entry.getDiscogsId());
+        obj.addProperty("artist", entry.getArtist());
+        obj.addProperty("title", entry.getTitle());
+        obj.addProperty("year", entry.getYear());
+        obj.addProperty("listened_date", 
+            entry.getListenedDate().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+        
+        if (entry.getNotes() != null) {
+            obj.addProperty("notes", entry.getNotes());
+        }
+        
+        if (entry.getRating() != null) {
+            obj.addProperty("rating", entry.getRating());
+        }
+        
+        return obj;
+    }
+    
+    public static ListeningHistoryEntry fromJson(JsonObject obj) {
+        try {
+            int discogsId = obj.has("discogs_id") ? obj.get("discogs_id").getAsInt() : 0;
+            String artist = obj.has("artist") ? obj.get("artist").getAsString() : "Unknown";
+            String title = obj.has("title") ? obj.get("title").getAsString() : "Unknown";
+            String year = obj.has("year") ? obj.get("year").getAsString() : "Unknown";
+            
+            LocalDateTime listenedDate = LocalDateTime.now();
+            if (obj.has("listened_date")) {
+                String dateStr = obj.get("listened_date").getAsString();
+                listenedDate = LocalDateTime.parse(dateStr, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+            }
+            
+            ListeningHistoryEntry entry = new ListeningHistoryEntry(
+                discogsId, artist, title, year, listenedDate);
+            
+            if (obj.has("notes")) {
+                entry.setNotes(obj.get("notes").getAsString());
+            }
+            
+            if (obj.has("rating")) {
+                entry.setRating(obj.get("rating").getAsInt());
+            }
+            
+            return entry;
+        } catch (RuntimeException e) {
+            throw new JsonParseException("Invalid history entry: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+
+import java.util.List;
+
+/**
+ * Notified by {@link HistoryService} after each successful write, while the history lock is
+ * still held, so that data derived from the history can be updated in step with it.
+ * <p>
+ * Versions are those returned by {@link HistoryStore#version()}. Listeners must not write to
+ * the history and should handle their own errors; exceptions they throw are logged and ignored.
+ * They run holding the service's monitor, so a lock they take must never be held while reading
+ * the history, or a read and a write on different threads can deadlock.
+ */
+public interface HistoryListener {
+    
+    /**
+     * Entries were appended to a history that was at {@code previousVersion} and is now at
+     * {@code version}.
+     */
+    void entriesAppended(List<ListeningHistoryEntry> entries, Object previousVersion, Object version);
+    
+    /**
+     * The whole history was replaced by {@code entries}.
+     */
+    void historyReplaced(List<ListeningHistoryEntry> entries, Object version);
+}
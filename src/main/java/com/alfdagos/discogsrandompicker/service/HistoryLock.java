@@ -0,0 +1,67 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock on a history file, held against other threads and other processes.
+ * <p>
+ * The operating system lock is taken on a {@code .lock} file next to the history file, since
+ * the history file itself is replaced on every rewrite. File locks belong to the whole JVM and
+ * a second request from the same JVM fails instead of waiting, so threads first queue on an
+ * in-process lock for the same path. The lock is not reentrant.
+ */
+final class HistoryLock implements AutoCloseable {
+    
+    private static final Map<Path, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+    
+    private final ReentrantLock localLock;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+    
+    private HistoryLock(ReentrantLock localLock, FileChannel channel, FileLock fileLock) {
+        this.localLock = localLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+    
+    /**
+     * Blocks until the lock for the given history file is held by the calling thread.
+     */
+    static HistoryLock acquire(Path file) throws IOException {
+        Path lockFile = file.toAbsolutePath().normalize().resolveSibling(file.getFileName() + ".lock");
+        ReentrantLock localLock = LOCAL_LOCKS.computeIfAbsent(lockFile, key -> new ReentrantLock());
+        if (localLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("History lock is already held: " + lockFile);
+        }
+        
+        localLock.lock();
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            return new HistoryLock(localLock, channel, channel.lock());
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            localLock.unlock();
+            throw e;
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            fileLock.release();
+            channel.close();
+        } finally {
+            localLock.unlock();
+        }
+    }
+}
@@ -2,48 +2,84 @@ package com.alfdagos.discogsrandompicker.service;
 
 import com.alfdagos.discogsrandompicker.exception.HistoryException;
 import com.alfdagos.discogsrandompicker.model.Album;
+import com.alfdagos.discogsrandompicker.model.DateRange;
 import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-import com.google.gson.reflect.TypeToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.lang.reflect.Type;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * Service for managing listening history.
+ * <p>
+ * Entries are kept in a {@link HistoryStore}, JSON Lines by default. Writers in every thread and
+ * process are serialized by a {@link HistoryLock} on the store, and appends never rewrite what
+ * is already stored.
+ * <p>
+ * The history is kept in memory as a snapshot together with the store version it was read at;
+ * queries only touch the disk when the version has changed, for instance because another process
+ * added an entry.
  */
 public class HistoryService {
     
     private static final Logger logger = LoggerFactory.getLogger(HistoryService.class);
     private static final String DEFAULT_HISTORY_FILE = "listening_history.json";
     
-    private final String historyFile;
-    private final Gson gson;
+    private final HistoryStore store;
+    private final List<HistoryListener> listeners = new CopyOnWriteArrayList<>();
+    private HistorySnapshot snapshot;
     
     public HistoryService() {
         this(DEFAULT_HISTORY_FILE);
     }
     
     public HistoryService(String historyFile) {
-        this.historyFile = historyFile;
-        this.gson = new GsonBuilder()
-            .setPrettyPrinting()
-            .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
-            .create();
+        this(new JsonLinesHistoryStore(Paths.get(historyFile)));
+    }
+    
+    public HistoryService(HistoryStore store) {
+        this.store = store;
+    }
+    
+    /**
+     * Registers a listener to be notified of every write made through this service.
+     */
+    public void addListener(HistoryListener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Gets the location of the store, for files kept alongside the history.
+     */
+    public Path getStorePath() {
+        return store.getPath();
+    }
+    
+    /**
+     * Gets a token that changes, by {@code equals} and {@code toString}, whenever the stored
+     * history changes.
+     */
+    public Object getVersion() throws HistoryException {
+        try {
+            return store.version();
+        } catch (IOException e) {
+            throw new HistoryException("Failed to read history file: " + store.getPath(), e);
+        }
     }
     
     /**
@@ -52,10 +88,7 @@ public class HistoryService {
     public void addToHistory(Album album) throws HistoryException {
         logger.info("Adding album to history: {}", album);
         
-        ListeningHistoryEntry entry = ListeningHistoryEntry.fromAlbum(album);
-        List<ListeningHistoryEntry> history = loadHistory();
-        history.add(entry);
-        saveHistory(history);
+        appendEntries(Collections.singletonList(ListeningHistoryEntry.fromAlbum(album)));
         
         logger.info("Album added to history successfully");
     }
@@ -66,102 +99,203 @@ public class HistoryService {
     public void addToHistory(ListeningHistoryEntry entry) throws HistoryException {
         logger.info("Adding entry to history: {}", entry);
         
-        List<ListeningHistoryEntry> history = loadHistory();
-        history.add(entry);
-        saveHistory(history);
+        appendEntries(Collections.singletonList(entry));
         
         logger.info("Entry added to history successfully");
     }
     
+    /**
+     * Adds several entries with a single write, in iteration order.
+     */
+    public void addAll(Collection<ListeningHistoryEntry> entries) throws HistoryException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        
+        appendEntries(new ArrayList<>(entries));
+        logger.debug("Added {} entries to history", entries.size());
+    }
+    
     /**
      * Checks if an album is already in the history.
      */
     public boolean isInHistory(Album album) throws HistoryException {
-        List<ListeningHistoryEntry> history = loadHistory();
-        return history.stream()
-            .anyMatch(entry -> entry.getDiscogsId() == album.getDiscogsId());
+        return snapshot().listenCount(album.getDiscogsId()) > 0;
     }
     
     /**
      * Gets the number of times an album was listened.
      */
     public int getListenCount(int discogsId) throws HistoryException {
-        List<ListeningHistoryEntry> history = loadHistory();
-        return (int) history.stream()
-            .filter(entry -> entry.getDiscogsId() == discogsId)
-            .count();
+        return snapshot().listenCount(discogsId);
     }
     
     /**
-     * Loads all listening history entries.
+     * Loads all listening history entries into a new list.
      */
     public List<ListeningHistoryEntry> loadHistory() throws HistoryException {
-        File file = new File(historyFile);
-        
-        if (!file.exists()) {
-            logger.debug("History file does not exist, returning empty list");
-            return new ArrayList<>();
+        return new ArrayList<>(snapshot().entries);
+    }
+    
+    /**
+     * Gets all listening history entries as a read-only view of the cached snapshot.
+     * The entries are shared and must not be modified.
+     */
+    public List<ListeningHistoryEntry> getHistory() throws HistoryException {
+        return snapshot().entries;
+    }
+    
+    /**
+     * Gets the entries listened to within the range. Unless the whole history is already cached,
+     * only the parts of the store that can hold such entries are read. The returned list is
+     * read-only.
+     */
+    public List<ListeningHistoryEntry> query(DateRange range) throws HistoryException {
+        if (range.isAll()) {
+            return getHistory();
         }
         
-        try (FileReader reader = new FileReader(file)) {
-            JsonArray jsonArray = gson.fromJson(reader, JsonArray.class);
-            
-            if (jsonArray == null || jsonArray.size() == 0) {
-                return new ArrayList<>();
+        HistorySnapshot current = currentSnapshot();
+        if (current != null) {
+            List<ListeningHistoryEntry> entries = new ArrayList<>();
+            for (ListeningHistoryEntry entry : current.entries) {
+                if (range.contains(entry.getListenedDate())) {
+                    entries.add(entry);
+                }
             }
-            
-            List<ListeningHistoryEntry> history = new ArrayList<>();
-            
-            for (int i = 0; i < jsonArray.size(); i++) {
-                try {
-                    JsonObject obj = jsonArray.get(i).getAsJsonObject();
-                    
-                    int discogsId = obj.has("discogs_id") ? obj.get("discogs_id").getAsInt() : 0;
-                    String artist = obj.has("artist") ? obj.get("artist").getAsString() : "Unknown";
-                    String title = obj.has("title") ? obj.get("title").getAsString() : "Unknown";
-                    String year = obj.has("year") ? obj.get("year").getAsString() : "Unknown";
-                    
-                    LocalDateTime listenedDate = LocalDateTime.now();
-                    if (obj.has("listened_date")) {
-                        String dateStr = obj.get("listened_date").getAsString();
-                        listenedDate = LocalDateTime.parse(dateStr, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-                    }
-                    
-                    ListeningHistoryEntry entry = new ListeningHistoryEntry(
-                        discogsId, artist, title, year, listenedDate);
-                    
-                    if (obj.has("notes")) {
-                        entry.setNotes(obj.get("notes").getAsString());
-                    }
-                    
-                    if (obj.has("rating")) {
-                        entry.setRating(obj.get("rating").getAsInt());
-                    }
-                    
-                    history.add(entry);
-                } catch (Exception e) {
-                    logger.warn("Failed to parse history entry at index {}", i, e);
+            return Collections.unmodifiableList(entries);
+        }
+        
+        try {
+            List<ListeningHistoryEntry> entries = store.readRange(range);
+            logger.debug("Loaded {} history entries {}", entries.size(), range);
+            return Collections.unmodifiableList(entries);
+        } catch (IOException e) {
+            throw new HistoryException("Failed to load history file: " + store.getPath(), e);
+        }
+    }
+    
+    /**
+     * Passes the entries listened to within the range to the action, in stored order.
+     * <p>
+     * Unlike {@link #query(DateRange)} the entries are not collected, so a store that can scan
+     * its files reads the history in constant memory.
+     */
+    public void forEachInRange(DateRange range, Consumer<ListeningHistoryEntry> action) throws HistoryException {
+        HistorySnapshot current = currentSnapshot();
+        if (current != null) {
+            for (ListeningHistoryEntry entry : current.entries) {
+                if (range.contains(entry.getListenedDate())) {
+                    action.accept(entry);
                 }
             }
-            
-            logger.debug("Loaded {} history entries", history.size());
-            return history;
-            
+            return;
+        }
+        
+        try {
+            store.scanRange(range, entry -> {
+                action.accept(entry);
+                return true;
+            });
         } catch (IOException e) {
-            throw new HistoryException("Failed to load history file: " + historyFile, e);
+            throw new HistoryException("Failed to read history file: " + store.getPath(), e);
         }
     }
     
     /**
-     * Gets recent listening history entries.
+     * Gets up to {@code limit} of the most recent entries, newest first.
      */
     public List<ListeningHistoryEntry> getRecentHistory(int limit) throws HistoryException {
-        List<ListeningHistoryEntry> history = loadHistory();
+        List<ListeningHistoryEntry> recent = new ArrayList<>(Math.min(limit, 1024));
+        forEachRecent(limit, recent::add);
+        return recent;
+    }
+    
+    /**
+     * Passes up to {@code limit} of the most recent entries to the action, newest first.
+     * <p>
+     * Entries are stored in the order they were added, which is the order they were listened
+     * to, so only the end of the store is read. Entries imported or added with an earlier date
+     * count as recent until {@link #compactHistory()} puts the history back in date order.
+     */
+    public void forEachRecent(int limit, Consumer<ListeningHistoryEntry> action) throws HistoryException {
+        if (limit <= 0) {
+            return;
+        }
         
-        return history.stream()
-            .sorted(Comparator.comparing(ListeningHistoryEntry::getListenedDate).reversed())
-            .limit(limit)
-            .collect(Collectors.toList());
+        int[] remaining = {limit};
+        scanRecent(entry -> {
+            action.accept(entry);
+            return --remaining[0] > 0;
+        });
+    }
+    
+    /**
+     * Visits entries from the most recently added one backwards until the visitor returns false,
+     * reading only the end of the store as {@link #forEachRecent} does.
+     */
+    public void scanRecent(HistoryStore.EntryVisitor visitor) throws HistoryException {
+        HistorySnapshot current = currentSnapshot();
+        if (current != null) {
+            List<ListeningHistoryEntry> entries = current.entries;
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                if (!visitor.visit(entries.get(i))) {
+                    return;
+                }
+            }
+            return;
+        }
+        
+        try {
+            store.scanBackward(visitor);
+        } catch (IOException e) {
+            throw new HistoryException("Failed to read history file: " + store.getPath(), e);
+        }
+    }
+    
+    /**
+     * Visits the entries added to the store after the mark, in the order they were added, and
+     * returns the mark to continue from, or null if the history was rewritten since the mark or
+     * the store does not keep the order entries were added in.
+     *
+     * @see HistoryStore#scanAddedAfter
+     */
+    public String scanAddedAfter(String mark, HistoryStore.EntryVisitor visitor) throws HistoryException {
+        try {
+            return store.scanAddedAfter(mark, visitor);
+        } catch (IOException e) {
+            throw new HistoryException("Failed to read history file: " + store.getPath(), e);
+        }
+    }
+    
+    /**
+     * Rewrites the store from its readable entries in date order, converting legacy files and
+     * dropping unreadable ones. Returns the number of entries kept.
+     */
+    public synchronized int compactHistory() throws HistoryException {
+        logger.info("Compacting listening history");
+        
+        try (HistoryLock lock = HistoryLock.acquire(store.getPath())) {
+            List<ListeningHistoryEntry> history = new ArrayList<>(snapshot().entries);
+            // Stable, so entries listened at the same time keep the order they were added in
+            history.sort(Comparator.comparing(ListeningHistoryEntry::getListenedDate));
+            replaceLocked(history);
+            logger.info("History compacted to {} entries", history.size());
+            return history.size();
+        } catch (IOException e) {
+            throw new HistoryException("Failed to lock history file: " + store.getPath(), e);
+        }
+    }
+    
+    /**
+     * Replaces the whole history, for instance after an import into an empty store.
+     */
+    public synchronized void replaceHistory(Collection<ListeningHistoryEntry> entries) throws HistoryException {
+        try (HistoryLock lock = HistoryLock.acquire(store.getPath())) {
+            replaceLocked(new ArrayList<>(entries));
+        } catch (IOException e) {
+            throw new HistoryException("Failed to lock history file: " + store.getPath(), e);
+        }
     }
     
     /**
@@ -169,64 +303,193 @@ public class HistoryService {
      */
     public void clearHistory() throws HistoryException {
         logger.warn("Clearing all listening history");
-        saveHistory(new ArrayList<>());
+        replaceHistory(Collections.emptyList());
         logger.info("History cleared successfully");
     }
     
-    private void saveHistory(List<ListeningHistoryEntry> history) throws HistoryException {
-        try (FileWriter writer = new FileWriter(historyFile)) {
-            JsonArray jsonArray = new JsonArray();
+    private synchronized HistorySnapshot snapshot() throws HistoryException {
+        try {
+            // Read the version first: a change made in between at worst causes one extra reload
+            Object version = store.version();
+            if (snapshot != null && snapshot.version.equals(version)) {
+                return snapshot;
+            }
             
-            for (ListeningHistoryEntry entry : history) {
-                JsonObject obj = new JsonObject();
-                obj.addProperty("discogs_id", entry.getDiscogsId());
-                obj.addProperty("artist", entry.getArtist());
-                obj.addProperty("title", entry.getTitle());
-                obj.addProperty("year", entry.getYear());
-                obj.addProperty("listened_date", 
-                    entry.getListenedDate().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
-                
-                if (entry.getNotes() != null) {
-                    obj.addProperty("notes", entry.getNotes());
-                }
-                
-                if (entry.getRating() != null) {
-                    obj.addProperty("rating", entry.getRating());
+            List<ListeningHistoryEntry> entries = store.readAll();
+            logger.debug("Loaded {} history entries", entries.size());
+            snapshot = new HistorySnapshot(entries, version);
+            return snapshot;
+            
+        } catch (IOException e) {
+            throw new HistoryException("Failed to load history file: " + store.getPath(), e);
+        }
+    }
+    
+    /**
+     * Returns the cached snapshot if the store has not changed since it was read, without
+     * loading anything otherwise.
+     */
+    private synchronized HistorySnapshot currentSnapshot() throws HistoryException {
+        if (snapshot == null) {
+            return null;
+        }
+        
+        try {
+            return snapshot.version.equals(store.version()) ? snapshot : null;
+        } catch (IOException e) {
+            throw new HistoryException("Failed to read history file: " + store.getPath(), e);
+        }
+    }
+    
+    private synchronized void appendEntries(List<ListeningHistoryEntry> entries) throws HistoryException {
+        try (HistoryLock lock = HistoryLock.acquire(store.getPath())) {
+            Object before = store.version();
+            store.append(entries);
+            logger.debug("Appended {} history entries", entries.size());
+            
+            // Nobody else can write while we hold the lock, so a snapshot that was current
+            // before the append only lacks the new entries
+            Object after = store.version();
+            if (snapshot != null && snapshot.version.equals(before)) {
+                snapshot = snapshot.append(entries, after);
+            } else {
+                snapshot = null;
+            }
+            
+            for (HistoryListener listener : listeners) {
+                try {
+                    listener.entriesAppended(entries, before, after);
+                } catch (RuntimeException e) {
+                    logger.warn("History listener failed after append", e);
                 }
-                
-                jsonArray.add(obj);
             }
             
-            gson.toJson(jsonArray, writer);
+        } catch (IOException e) {
+            snapshot = null;
+            throw new HistoryException("Failed to append to history file: " + store.getPath(), e);
+        }
+    }
+    
+    /**
+     * Must be called with the {@link HistoryLock} held.
+     */
+    private void replaceLocked(List<ListeningHistoryEntry> history) throws HistoryException {
+        try {
+            store.replaceAll(history);
             logger.debug("Saved {} history entries", history.size());
+            snapshot = new HistorySnapshot(history, store.version());
             
+            for (HistoryListener listener : listeners) {
+                try {
+                    listener.historyReplaced(snapshot.entries, snapshot.version);
+                } catch (RuntimeException e) {
+                    logger.warn("History listener failed after rewrite", e);
+                }
+            }
         } catch (IOException e) {
-            throw new HistoryException("Failed to save history file: " + historyFile, e);
+            snapshot = null;
+            throw new HistoryException("Failed to save history file: " + store.getPath(), e);
         }
     }
     
     /**
-     * Custom adapter for LocalDateTime serialization/deserialization.
+     * Parsed history with listen counts precomputed per Discogs ID.
+     * <p>
+     * Snapshots taken by appending share their entry log and counts with the one they extend,
+     * so an append costs as much as the entries added. The entries of each snapshot are a view
+     * of the log bounded by the size it had, which later appends leave unchanged; the counts
+     * always include the latest append.
      */
-    private static class LocalDateTimeAdapter extends com.google.gson.TypeAdapter<LocalDateTime> {
-        private final DateTimeFormatter formatter = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+    private static final class HistorySnapshot {
+        private final List<ListeningHistoryEntry> entries;
+        private final EntryLog log;
+        private final Map<Integer, Integer> listenCounts;
+        private final Object version;
         
-        @Override
-        public void write(com.google.gson.stream.JsonWriter out, LocalDateTime value) throws IOException {
-            if (value == null) {
-                out.nullValue();
-            } else {
-                out.value(formatter.format(value));
+        HistorySnapshot(List<ListeningHistoryEntry> entries, Object version) {
+            this(new EntryLog(), new HashMap<>(), version, entries);
+        }
+        
+        private HistorySnapshot(EntryLog log, Map<Integer, Integer> listenCounts, Object version,
+                                List<ListeningHistoryEntry> added) {
+            log.addAll(added);
+            synchronized (listenCounts) {
+                for (ListeningHistoryEntry entry : added) {
+                    listenCounts.merge(entry.getDiscogsId(), 1, Integer::sum);
+                }
             }
+            this.entries = log.view();
+            this.log = log;
+            this.listenCounts = listenCounts;
+            this.version = version;
         }
         
-        @Override
-        public LocalDateTime read(com.google.gson.stream.JsonReader in) throws IOException {
-            if (in.peek() == com.google.gson.stream.JsonToken.NULL) {
-                in.nextNull();
-                return null;
+        /**
+         * Must only be called on the latest snapshot of its log.
+         */
+        HistorySnapshot append(List<ListeningHistoryEntry> added, Object newVersion) {
+            return new HistorySnapshot(log, listenCounts, newVersion, added);
+        }
+        
+        int listenCount(int discogsId) {
+            synchronized (listenCounts) {
+                return listenCounts.getOrDefault(discogsId, 0);
             }
-            return LocalDateTime.parse(in.nextString(), formatter);
+        }
+    }
+    
+    /**
+     * Entries stored in chunks that never move once allocated, so adding entries copies only
+     * the array of chunks, and that only when it fills up.
+     */
+    private static final class EntryLog {
+        private static final int CHUNK_BITS = 12;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        
+        private ListeningHistoryEntry[][] chunks = new ListeningHistoryEntry[4][];
+        private int size;
+        
+        void addAll(List<ListeningHistoryEntry> entries) {
+            for (ListeningHistoryEntry entry : entries) {
+                int chunk = size >>> CHUNK_BITS;
+                if (chunk == chunks.length) {
+                    chunks = Arrays.copyOf(chunks, chunks.length * 2);
+                }
+                if (chunks[chunk] == null) {
+                    chunks[chunk] = new ListeningHistoryEntry[CHUNK_SIZE];
+                }
+                chunks[chunk][size & (CHUNK_SIZE - 1)] = entry;
+                size++;
+            }
+        }
+        
+        /**
+         * Gets a read-only view of the entries added so far, which entries added later do not
+         * change.
+         */
+        List<ListeningHistoryEntry> view() {
+            return new EntryView(chunks, size);
+        }
+    }
+    
+    private static final class EntryView extends AbstractList<ListeningHistoryEntry> implements RandomAccess {
+        private final ListeningHistoryEntry[][] chunks;
+        private final int size;
+        
+        EntryView(ListeningHistoryEntry[][] chunks, int size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+        
+        @Override
+        public ListeningHistoryEntry get(int index) {
+            Objects.checkIndex(index, size);
+            return chunks[index >>> EntryLog.CHUNK_BITS][index & (EntryLog.CHUNK_SIZE - 1)];
+        }
+        
+        @Override
+        public int size() {
+            return size;
         }
     }
 }
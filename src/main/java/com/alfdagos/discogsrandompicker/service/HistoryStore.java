@@ -0,0 +1,104 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.DateRange;
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * On-disk format of the listening history.
+ * <p>
+ * {@link HistoryService} holds the {@link HistoryLock} for {@link #getPath()} around every call
+ * to {@link #append} and {@link #replaceAll}, so stores only need to keep their files readable
+ * by concurrent lock-free readers and consistent across a crash.
+ */
+public interface HistoryStore {
+    
+    /**
+     * Gets the main file of the store, which also names its lock.
+     */
+    Path getPath();
+    
+    /**
+     * Gets a value that changes, by {@code equals}, whenever the stored history changes.
+     */
+    Object version() throws IOException;
+    
+    /**
+     * Reads every entry in the order it was added.
+     */
+    List<ListeningHistoryEntry> readAll() throws IOException;
+    
+    /**
+     * Reads the entries listened to within the range, in stored order. Stores that partition
+     * entries by time should override this to read only the partitions that overlap it.
+     */
+    default List<ListeningHistoryEntry> readRange(DateRange range) throws IOException {
+        List<ListeningHistoryEntry> entries = readAll();
+        if (!range.isAll()) {
+            entries.removeIf(entry -> !range.contains(entry.getListenedDate()));
+        }
+        return entries;
+    }
+    
+    /**
+     * Visits the entries listened to within the range, in stored order, until the visitor returns
+     * false. Stores should override this to parse entries as they are visited, so that a scan of
+     * the whole history does not hold it all in memory.
+     */
+    default void scanRange(DateRange range, EntryVisitor visitor) throws IOException {
+        for (ListeningHistoryEntry entry : readRange(range)) {
+            if (!visitor.visit(entry)) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Visits entries from the most recently added one backwards until the visitor returns
+     * false. Stores that can read from their end should override this so the cost depends on
+     * how many entries are visited rather than on the size of the history.
+     */
+    default void scanBackward(EntryVisitor visitor) throws IOException {
+        List<ListeningHistoryEntry> entries = readAll();
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (!visitor.visit(entries.get(i))) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Visits the entries added after {@code mark} was taken, in the order they were added, until
+     * the visitor returns false, and returns a mark of the position just past the last entry
+     * visited for the next call. A null mark visits every entry.
+     * <p>
+     * Returns null without visiting anything if the history was rewritten since the mark was
+     * taken, so that the entries after it can no longer be told apart, and always for a store
+     * that does not keep entries in the order they were added. Callers then read the whole
+     * history instead.
+     */
+    default String scanAddedAfter(String mark, EntryVisitor visitor) throws IOException {
+        return null;
+    }
+    
+    /**
+     * Durably adds entries after the existing ones.
+     */
+    void append(List<ListeningHistoryEntry> entries) throws IOException;
+    
+    /**
+     * Atomically replaces the whole history.
+     */
+    void replaceAll(List<ListeningHistoryEntry> entries) throws IOException;
+    
+    /**
+     * Receives entries during a scan; returns false to stop it.
+     */
+    @FunctionalInterface
+    interface EntryVisitor {
+        boolean visit(ListeningHistoryEntry entry);
+    }
+}
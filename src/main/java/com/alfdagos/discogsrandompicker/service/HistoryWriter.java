@@ -0,0 +1,241 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.exception.HistoryException;
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Asynchronous, batching front end to {@link HistoryService#addAll} for high-rate ingestion.
+ * <p>
+ * Submitted entries go into a bounded queue and a background thread writes them in groups:
+ * after taking the first entry it waits up to {@code maxDelay} for more before issuing a single
+ * append, so a burst costs one fsync instead of one per entry. When the queue is full
+ * {@link #submit} blocks until the writer catches up. {@link #flush} waits until everything
+ * submitted before it is on disk, and {@link #close} flushes and stops the thread.
+ * <p>
+ * If a write fails, the entries of that batch are lost and the failure is reported by every
+ * later call to {@code submit}, {@code flush} or {@code close}. Those calls also fail, rather
+ * than wait for ever, once the thread has stopped with entries unwritten, e.g. because it was
+ * interrupted.
+ */
+public class HistoryWriter implements AutoCloseable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(HistoryWriter.class);
+    private static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+    private static final Duration DEFAULT_MAX_DELAY = Duration.ofMillis(5);
+    private static final int MAX_BATCH_SIZE = 5_000;
+    private static final long STOPPED_CHECK_MILLIS = 100;
+    private static final ListeningHistoryEntry END_OF_STREAM =
+        new ListeningHistoryEntry(0, "", "", "", LocalDateTime.MIN);
+    
+    private final HistoryService historyService;
+    private final BlockingQueue<ListeningHistoryEntry> queue;
+    private final long maxDelayNanos;
+    private final Thread thread;
+    // Submitters share the read side; close takes the write side so no entry slips in after it
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private final Object progress = new Object();
+    
+    private boolean closed;
+    private long submitted;
+    private long processed;
+    private boolean stopped;
+    private volatile HistoryException failure;
+    
+    public HistoryWriter(HistoryService historyService) {
+        this(historyService, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_DELAY);
+    }
+    
+    public HistoryWriter(HistoryService historyService, int queueCapacity, Duration maxDelay) {
+        this.historyService = historyService;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.thread = new Thread(this::run, "history-writer");
+        // Daemon so a forgotten writer cannot keep the JVM alive; close() is what guarantees delivery
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Queues an entry for writing, blocking while the queue is full.
+     */
+    public void submit(ListeningHistoryEntry entry) throws HistoryException {
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new HistoryException("History writer is closed");
+            }
+            checkFailure();
+            
+            enqueue(entry);
+            synchronized (progress) {
+                submitted++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HistoryException("Interrupted while queueing history entry", e);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Blocks until every entry submitted before this call has been written.
+     */
+    public void flush() throws HistoryException {
+        try {
+            synchronized (progress) {
+                long target = submitted;
+                while (processed < target) {
+                    checkStopped();
+                    progress.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HistoryException("Interrupted while flushing history", e);
+        }
+        checkFailure();
+    }
+    
+    /**
+     * Writes all pending entries and stops the background thread. Further submits are rejected.
+     */
+    @Override
+    public void close() throws HistoryException {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        
+        try {
+            enqueue(END_OF_STREAM);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HistoryException("Interrupted while closing history writer", e);
+        } finally {
+            checkFailure();
+        }
+        synchronized (progress) {
+            checkStopped();
+        }
+    }
+    
+    /**
+     * Queues an entry, blocking while the queue is full for as long as the thread is there to
+     * empty it.
+     */
+    private void enqueue(ListeningHistoryEntry entry) throws InterruptedException, HistoryException {
+        while (!queue.offer(entry, STOPPED_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+            synchronized (progress) {
+                checkStopped();
+            }
+        }
+    }
+    
+    /**
+     * Throws if the thread has stopped before writing everything submitted. Must be called
+     * holding {@code progress}.
+     */
+    private void checkStopped() throws HistoryException {
+        if (stopped && processed < submitted) {
+            HistoryException error = failure;
+            throw new HistoryException("History writer stopped with " + (submitted - processed)
+                + " entries unwritten", error);
+        }
+    }
+    
+    private void checkFailure() throws HistoryException {
+        HistoryException error = failure;
+        if (error != null) {
+            throw new HistoryException("Failed to write history: " + error.getMessage(), error);
+        }
+    }
+    
+    private void run() {
+        List<ListeningHistoryEntry> batch = new ArrayList<>();
+        boolean endOfStream = false;
+        
+        try {
+            while (!endOfStream) {
+                ListeningHistoryEntry entry = queue.take();
+                long deadline = System.nanoTime() + maxDelayNanos;
+                
+                // Collect whatever arrives within the window
+                while (entry != null) {
+                    if (entry == END_OF_STREAM) {
+                        endOfStream = true;
+                        break;
+                    }
+                    batch.add(entry);
+                    if (batch.size() >= MAX_BATCH_SIZE) {
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    entry = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                }
+                
+                write(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            logger.warn("History writer interrupted with {} entries pending", batch.size() + queue.size());
+            Thread.currentThread().interrupt();
+        } catch (Error e) {
+            logger.error("History writer failed with {} entries pending", batch.size() + queue.size(), e);
+            if (failure == null) {
+                failure = new HistoryException("History writer failed", e);
+            }
+            throw e;
+        } finally {
+            synchronized (progress) {
+                stopped = true;
+                progress.notifyAll();
+            }
+        }
+    }
+    
+    private void write(List<ListeningHistoryEntry> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        
+        try {
+            historyService.addAll(batch);
+            logger.debug("Wrote batch of {} history entries", batch.size());
+        } catch (HistoryException e) {
+            fail(batch, e);
+        } catch (RuntimeException e) {
+            fail(batch, new HistoryException("Unexpected error writing history", e));
+        } finally {
+            synchronized (progress) {
+                processed += batch.size();
+                progress.notifyAll();
+            }
+        }
+    }
+    
+    private void fail(List<ListeningHistoryEntry> batch, HistoryException e) {
+        logger.error("Failed to write {} history entries", batch.size(), e);
+        if (failure == null) {
+            failure = e;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Sends HTTP GET requests on behalf of {@link DiscogsService}.
+ * <p>
+ * Abstracted so a local stub server or an in-memory fake can stand in for api.discogs.com.
+ */
+public interface HttpTransport {
+    
+    /**
+     * Sends a GET request without blocking the caller.
+     */
+    CompletableFuture<Response> sendAsync(String url, Map<String, String> headers);
+    
+    /**
+     * Sends a GET request and waits for the response headers.
+     */
+    default Response send(String url, Map<String, String> headers) throws IOException, InterruptedException {
+        try {
+            return sendAsync(url, headers).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+    
+    /**
+     * An HTTP response whose body has not been read yet.
+     */
+    class Response implements Closeable {
+        private final int statusCode;
+        private final Map<String, String> headers;
+        private final InputStream body;
+        
+        public Response(int statusCode, Map<String, String> headers, InputStream body) {
+            this.statusCode = statusCode;
+            this.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            this.headers.putAll(headers);
+            this.body = body;
+        }
+        
+        public int getStatusCode() {
+            return statusCode;
+        }
+        
+        /**
+         * Gets a header value by case-insensitive name, or null if absent.
+         */
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+        
+        public Map<String, String> getHeaders() {
+            return Collections.unmodifiableMap(headers);
+        }
+        
+        /**
+         * Gets the decoded response body. The caller must close the response.
+         */
+        public InputStream getBody() {
+            return body;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+}
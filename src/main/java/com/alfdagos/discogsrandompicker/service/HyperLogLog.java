@@ -0,0 +1,67 @@
+package com.alfdagos.discogsrandompicker.service;
+
+/**
+ * HyperLogLog: an estimate of the number of distinct keys seen, in a fixed 16 KB.
+ * <p>
+ * Each key, given by a 64-bit hash, picks one of {@value #REGISTERS} registers with its top bits,
+ * which keeps the longest run of leading zeros seen in the remaining bits. The standard error of
+ * the estimate is 1.04 / sqrt({@value #REGISTERS}), about 0.8%, so it is within 2.5% of the true
+ * count with over 99% probability. Small counts are estimated by linear counting and are close
+ * to exact. Sketches merge by keeping the larger value of each register.
+ */
+final class HyperLogLog {
+    
+    private static final int PRECISION = 14;
+    static final int REGISTERS = 1 << PRECISION;
+    
+    private final byte[] registers = new byte[REGISTERS];
+    
+    void add(long hash) {
+        int register = (int) (hash >>> (64 - PRECISION));
+        // The marker bit caps the rank when the remaining bits are all zero
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+        if (rank > registers[register]) {
+            registers[register] = rank;
+        }
+    }
+    
+    long estimate() {
+        double sum = 0;
+        int empty = 0;
+        for (byte rank : registers) {
+            sum += 1.0 / (1L << rank);
+            if (rank == 0) {
+                empty++;
+            }
+        }
+        
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double estimate = alpha * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && empty > 0) {
+            estimate = REGISTERS * Math.log((double) REGISTERS / empty);
+        }
+        return Math.round(estimate);
+    }
+    
+    void merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+        }
+    }
+    
+    byte[] toBytes() {
+        return registers.clone();
+    }
+    
+    /**
+     * @throws RuntimeException if the bytes do not hold a sketch of this size
+     */
+    static HyperLogLog fromBytes(byte[] bytes) {
+        if (bytes.length != REGISTERS) {
+            throw new IllegalArgumentException("HyperLogLog of " + bytes.length + " bytes");
+        }
+        HyperLogLog sketch = new HyperLogLog();
+        System.arraycopy(bytes, 0, sketch.registers, 0, REGISTERS);
+        return sketch;
+    }
+}
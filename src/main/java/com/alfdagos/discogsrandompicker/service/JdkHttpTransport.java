@@ -0,0 +1,136 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link HttpTransport} backed by a single {@link HttpClient}.
+ * <p>
+ * The client negotiates HTTP/2 and keeps connections alive between calls, so repeated
+ * requests to Discogs skip the TCP and TLS handshakes. Responses are requested gzip-encoded
+ * and decompressed transparently as the body is read.
+ */
+public class JdkHttpTransport implements HttpTransport {
+    
+    private static final Logger logger = LoggerFactory.getLogger(JdkHttpTransport.class);
+    private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    
+    public JdkHttpTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT);
+    }
+    
+    public JdkHttpTransport(Duration connectTimeout, Duration requestTimeout) {
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(connectTimeout)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+        this.requestTimeout = requestTimeout;
+    }
+    
+    /**
+     * Gets the transport shared by all services that do not supply their own.
+     */
+    public static JdkHttpTransport getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+    
+    @Override
+    public CompletableFuture<Response> sendAsync(String url, Map<String, String> headers) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+            .timeout(requestTimeout)
+            .header("Accept-Encoding", "gzip")
+            .GET();
+        headers.forEach(builder::header);
+        
+        return client.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofInputStream())
+            .thenApply(this::toResponse);
+    }
+    
+    private Response toResponse(HttpResponse<InputStream> response) {
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            if (!header.getValue().isEmpty()) {
+                headers.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+        
+        InputStream body = response.body();
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("");
+        if (encoding.equalsIgnoreCase("gzip")) {
+            body = new LazyGzipInputStream(body, response.uri());
+        }
+        
+        logger.trace("{} {} via {}", response.statusCode(), response.uri(), response.version());
+        return new Response(response.statusCode(), headers, body);
+    }
+    
+    /**
+     * Decompresses a gzip body, reading the gzip header on the first read instead of when the
+     * response arrives. The thread completing the response then never blocks on the body, and
+     * a malformed header is reported to the reader as an {@link IOException}, with the body
+     * still closed by closing this stream.
+     */
+    private static final class LazyGzipInputStream extends InputStream {
+        private final InputStream compressed;
+        private final URI uri;
+        private InputStream decompressed;
+        
+        LazyGzipInputStream(InputStream compressed, URI uri) {
+            this.compressed = compressed;
+            this.uri = uri;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            return open().read();
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return open().read(buffer, offset, length);
+        }
+        
+        @Override
+        public int available() throws IOException {
+            return decompressed != null ? decompressed.available() : 0;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            (decompressed != null ? decompressed : compressed).close();
+        }
+        
+        private InputStream open() throws IOException {
+            if (decompressed == null) {
+                try {
+                    decompressed = new GZIPInputStream(compressed, 8192);
+                } catch (IOException e) {
+                    throw new IOException("Invalid gzip response from " + uri, e);
+                }
+            }
+            return decompressed;
+        }
+    }
+    
+    private static class DefaultHolder {
+        private static final JdkHttpTransport INSTANCE = new JdkHttpTransport();
+    }
+}
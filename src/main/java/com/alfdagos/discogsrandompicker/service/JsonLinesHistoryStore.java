@@ -0,0 +1,333 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.DateRange;
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * History stored as JSON Lines, one entry per line, so adding an entry appends to the end of the
+ * file instead of rewriting it.
+ * <p>
+ * Files written by earlier versions as a single JSON array are still read, and are converted
+ * the first time an entry is appended. A line torn by a crash during an append is skipped when
+ * reading, and the next append starts on a fresh line. Recent entries are read from the end of
+ * the file without parsing the rest.
+ */
+public class JsonLinesHistoryStore implements HistoryStore {
+    
+    private static final Logger logger = LoggerFactory.getLogger(JsonLinesHistoryStore.class);
+    private static final int SCAN_BLOCK_SIZE = 64 * 1024;
+    private static final int MAX_OPEN_ATTEMPTS = 3;
+    
+    private final Path file;
+    
+    public JsonLinesHistoryStore(Path file) {
+        this.file = file;
+    }
+    
+    @Override
+    public Path getPath() {
+        return file;
+    }
+    
+    @Override
+    public Object version() throws IOException {
+        return FileVersion.of(file);
+    }
+    
+    @Override
+    public List<ListeningHistoryEntry> readAll() throws IOException {
+        if (!Files.exists(file)) {
+            logger.debug("History file does not exist, returning empty list");
+            return new ArrayList<>();
+        }
+        
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return HistoryJson.isArray(reader) ? HistoryJson.readArray(reader) : HistoryJson.readLines(reader);
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed history file: " + file, e);
+        }
+    }
+    
+    /**
+     * Parses lines as they are visited. A legacy array file is read in full.
+     */
+    @Override
+    public void scanRange(DateRange range, EntryVisitor visitor) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (HistoryJson.isArray(reader)) {
+                reader.close();
+                HistoryStore.super.scanRange(range, visitor);
+                return;
+            }
+            
+            String line;
+            for (int lineNumber = 1; (line = reader.readLine()) != null; lineNumber++) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                
+                ListeningHistoryEntry entry;
+                try {
+                    entry = HistoryJson.fromLine(line);
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to parse history entry at line {} of {}", lineNumber, file, e);
+                    continue;
+                }
+                if (range.contains(entry.getListenedDate()) && !visitor.visit(entry)) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reads the file backwards in blocks, parsing only the lines that are visited. A legacy
+     * array file is read in full.
+     */
+    @Override
+    public void scanBackward(EntryVisitor visitor) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > 0 && readByte(channel, 0) == '[') {
+                channel.close();
+                HistoryStore.super.scanBackward(visitor);
+                return;
+            }
+            
+            // Bytes of the line that starts before the current block and ends after it
+            byte[] carry = new byte[0];
+            long position = size;
+            while (position > 0) {
+                int length = (int) Math.min(SCAN_BLOCK_SIZE, position);
+                position -= length;
+                
+                byte[] block = new byte[length + carry.length];
+                ByteBuffer buffer = ByteBuffer.wrap(block, 0, length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("History file shrank while reading: " + file);
+                    }
+                }
+                System.arraycopy(carry, 0, block, length, carry.length);
+                
+                int end = block.length;
+                for (int i = block.length - 1; i >= 0; i--) {
+                    if (block[i] == '\n') {
+                        if (!visitLine(block, i + 1, end, visitor)) {
+                            return;
+                        }
+                        end = i;
+                    }
+                }
+                carry = Arrays.copyOf(block, end);
+            }
+            visitLine(carry, 0, carry.length, visitor);
+        }
+    }
+    
+    /**
+     * Marks are the identity of the file, which a rewrite changes, and the byte offset just past
+     * the last line visited. Lines are parsed from that offset on; a line still being written is
+     * left for the next call. A legacy array file is visited in full, as the first append
+     * converts it and so changes its identity.
+     */
+    @Override
+    public String scanAddedAfter(String mark, EntryVisitor visitor) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            String identity = identity();
+            long start = 0;
+            if (mark != null) {
+                int separator = mark.lastIndexOf('@');
+                if (separator < 0 || !mark.substring(0, separator).equals(identity)) {
+                    return null;
+                }
+                try {
+                    start = Long.parseLong(mark.substring(separator + 1));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            if (identity.isEmpty()) {
+                return "@0";
+            }
+            
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                // The same identity after opening means the file opened is the one it names
+                if (!identity.equals(identity())) {
+                    if (attempt == MAX_OPEN_ATTEMPTS) {
+                        throw new IOException("History file keeps being replaced: " + file);
+                    }
+                    continue;
+                }
+                
+                long size = channel.size();
+                if (start < 0 || start > size) {
+                    return null;
+                }
+                if (size > 0 && readByte(channel, 0) == '[') {
+                    if (start == 0) {
+                        for (ListeningHistoryEntry entry : readAll()) {
+                            if (!visitor.visit(entry)) {
+                                break;
+                            }
+                        }
+                    }
+                    return identity + "@" + size;
+                }
+                return identity + "@" + scanLinesFrom(channel, start, visitor);
+            }
+        }
+    }
+    
+    /**
+     * Appends entries with a single write, followed by an fsync so an acknowledged entry
+     * survives a crash.
+     */
+    @Override
+    public void append(List<ListeningHistoryEntry> entries) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (ListeningHistoryEntry entry : entries) {
+            lines.append(HistoryJson.toLine(entry)).append('\n');
+        }
+        byte[] data = lines.toString().getBytes(StandardCharsets.UTF_8);
+        
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            
+            if (size > 0 && readByte(channel, 0) == '[') {
+                channel.close();
+                List<ListeningHistoryEntry> history = readAll();
+                logger.info("Converting {} history entries to JSON Lines format", history.size());
+                history.addAll(entries);
+                replaceAll(history);
+                return;
+            }
+            
+            long position = size;
+            // A crash mid-append can leave a partial last line; start on a fresh one
+            if (size > 0 && readByte(channel, size - 1) != '\n') {
+                position += HistoryFiles.writeFully(channel, ByteBuffer.wrap(new byte[] {'\n'}), position);
+            }
+            HistoryFiles.writeFully(channel, ByteBuffer.wrap(data), position);
+            channel.force(false);
+        }
+    }
+    
+    /**
+     * Writes the history to a temporary file, syncs it and renames it over the history file.
+     */
+    @Override
+    public void replaceAll(List<ListeningHistoryEntry> entries) throws IOException {
+        Path tempFile = HistoryFiles.tempFile(file);
+        
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             BufferedWriter writer = new BufferedWriter(
+                 Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1))) {
+            for (ListeningHistoryEntry entry : entries) {
+                writer.write(HistoryJson.toLine(entry));
+                writer.write('\n');
+            }
+            writer.flush();
+            channel.force(true);
+        }
+        
+        HistoryFiles.replace(tempFile, file);
+    }
+    
+    /**
+     * Visits the complete lines from {@code start} on and returns the offset just past the last
+     * one visited.
+     */
+    private long scanLinesFrom(FileChannel channel, long start, EntryVisitor visitor) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK_SIZE);
+        byte[] line = new byte[256];
+        int lineLength = 0;
+        long position = start;
+        while (channel.read(block, position) > 0) {
+            block.flip();
+            for (int i = 0; i < block.limit(); i++) {
+                byte b = block.get(i);
+                if (b != '\n') {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[lineLength++] = b;
+                    continue;
+                }
+                
+                boolean more = visitLine(line, 0, lineLength, visitor);
+                lineLength = 0;
+                if (!more) {
+                    return position + i + 1;
+                }
+            }
+            position += block.limit();
+            block.clear();
+        }
+        return position - lineLength;
+    }
+    
+    /**
+     * Identifies the file so that a rewrite, which renames a new file over it, can be told from
+     * appends: by its file key, or its creation time where the file system has no keys. Empty if
+     * there is no file.
+     */
+    private String identity() throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return String.valueOf(attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime());
+        } catch (NoSuchFileException e) {
+            return "";
+        }
+    }
+    
+    private boolean visitLine(byte[] bytes, int start, int end, EntryVisitor visitor) {
+        String line = new String(bytes, start, end - start, StandardCharsets.UTF_8).trim();
+        if (line.isEmpty()) {
+            return true;
+        }
+        
+        ListeningHistoryEntry entry;
+        try {
+            entry = HistoryJson.fromLine(line);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to parse history entry in {}", file, e);
+            return true;
+        }
+        return visitor.visit(entry);
+    }
+    
+    private static int readByte(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        return channel.read(buffer, position) == 1 ? buffer.get(0) : -1;
+    }
+}
@@ -0,0 +1,404 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.exception.DiscogsApiException;
+import com.alfdagos.discogsrandompicker.exception.HistoryException;
+import com.alfdagos.discogsrandompicker.model.Album;
+import com.alfdagos.discogsrandompicker.model.AlbumFilter;
+import com.alfdagos.discogsrandompicker.model.DateRange;
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.alfdagos.discogsrandompicker.model.PickResult;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves picks, history, statistics and exports as JSON over HTTP on the loopback interface.
+ * <p>
+ * The services stay loaded between requests, so the collection, the history snapshot and the
+ * statistics aggregate are read once and every later request is answered from memory. Requests
+ * are handled on a fixed number of threads. The services are shared by all of them: writes to
+ * the history are serialized by its lock, and statistics never read the history while holding
+ * their own monitor, so reads and writes can run at the same time.
+ */
+public class PickerServer implements AutoCloseable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(PickerServer.class);
+    private static final int DEFAULT_HISTORY_LIMIT = 50;
+    private static final Gson GSON = new GsonBuilder()
+        .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+        .registerTypeAdapter(LocalDate.class,
+            (JsonSerializer<LocalDate>) (date, type, context) -> new JsonPrimitive(date.toString()))
+        .create();
+    
+    private final DiscogsService discogsService;
+    private final HistoryService historyService;
+    private final StatisticsService statisticsService;
+    private final ExportService exportService;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    
+    /**
+     * Creates a server on the given port of the loopback interface, or on any free port if it is
+     * 0. It handles up to {@code threads} requests at once and does not accept any before
+     * {@link #start()}.
+     */
+    public PickerServer(DiscogsService discogsService, HistoryService historyService,
+                        StatisticsService statisticsService, ExportService exportService,
+                        int port, int threads) throws IOException {
+        this.discogsService = discogsService;
+        this.historyService = historyService;
+        this.statisticsService = statisticsService;
+        this.exportService = exportService;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new RequestThreadFactory());
+        
+        server.createContext("/pick", exchange -> handle(exchange, "GET", this::pick));
+        server.createContext("/history", exchange -> handle(exchange, null, this::history));
+        server.createContext("/stats", exchange -> handle(exchange, "GET", this::stats));
+        server.createContext("/export", exchange -> handle(exchange, "GET", this::export));
+        server.setExecutor(executor);
+    }
+    
+    public void start() {
+        server.start();
+        logger.info("Serving on http://{}", hostAndPort());
+    }
+    
+    /**
+     * Gets the address the server listens on, with the actual port if it was created on port 0.
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+    
+    /**
+     * Stops accepting requests, giving those in progress a second to finish.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Server stopped");
+    }
+    
+    private String hostAndPort() {
+        return getAddress().getAddress().getHostAddress() + ":" + getAddress().getPort();
+    }
+    
+    /**
+     * {@code GET /pick} with the filters of the command line as parameters.
+     */
+    private void pick(HttpExchange exchange, Map<String, String> params)
+            throws IOException, DiscogsApiException, HistoryException {
+        AlbumFilter filter = new AlbumFilter();
+        filter.setGenre(params.get("genre"));
+        filter.setStyle(params.get("style"));
+        filter.setYear(params.get("year"));
+        filter.setFormat(params.get("format"));
+        filter.setArtist(params.get("artist"));
+        filter.setMinYear(intParam(params, "min_year", null));
+        filter.setMaxYear(intParam(params, "max_year", null));
+        
+        PickResult pick = discogsService.pickRandomAlbum(filter);
+        Album album = pick.getAlbum();
+        
+        JsonObject json = new JsonObject();
+        json.add("album", toJson(album));
+        json.addProperty("match_count", pick.getMatchCount());
+        json.addProperty("collection_size", pick.getCollectionSize());
+        json.addProperty("listen_count", historyService.getListenCount(album.getDiscogsId()));
+        json.addProperty("artist_listens_this_month",
+            statisticsService.countArtistListensThisMonth(album.getArtistsAsString()));
+        sendJson(exchange, 200, json);
+    }
+    
+    /**
+     * {@code GET /history?limit=N} lists the most recent entries, newest first.
+     * {@code POST /history} adds the entry in the body, in the format of the history file. A body
+     * with only a {@code discogs_id}, and optionally a rating and notes, adds that album of the
+     * collection.
+     */
+    private void history(HttpExchange exchange, Map<String, String> params)
+            throws IOException, DiscogsApiException, HistoryException {
+        String method = exchange.getRequestMethod();
+        if (method.equals("GET")) {
+            JsonArray entries = new JsonArray();
+            historyService.forEachRecent(intParam(params, "limit", DEFAULT_HISTORY_LIMIT),
+                entry -> entries.add(HistoryJson.toJson(entry)));
+            sendJson(exchange, 200, entries);
+        } else if (method.equals("POST")) {
+            ListeningHistoryEntry entry = toEntry(readJsonObject(exchange));
+            historyService.addToHistory(entry);
+            sendJson(exchange, 201, HistoryJson.toJson(entry));
+        } else {
+            throw new RequestException(405, "Use GET or POST");
+        }
+    }
+    
+    /**
+     * {@code GET /stats?from=&to=}, with the rolling statistics when no period is given.
+     */
+    private void stats(HttpExchange exchange, Map<String, String> params) throws IOException, HistoryException {
+        DateRange range = dateRange(params);
+        
+        JsonObject json = new JsonObject();
+        json.add("statistics", GSON.toJsonTree(statisticsService.generateStatistics(range)));
+        if (range.isAll()) {
+            json.add("rolling", GSON.toJsonTree(statisticsService.generateRollingStatistics()));
+        } else {
+            json.addProperty("period", range.toString());
+        }
+        sendJson(exchange, 200, json);
+    }
+    
+    /**
+     * {@code GET /export?format=csv&compression=gzip&from=&to=} streams an export as it is written.
+     */
+    private void export(HttpExchange exchange, Map<String, String> params) throws IOException, HistoryException {
+        ExportFormat format;
+        ExportService.Compression compression;
+        try {
+            format = ExportFormat.parse(params.getOrDefault("format", "csv"));
+            compression = ExportService.Compression.parse(params.getOrDefault("compression", "none"));
+        } catch (IllegalArgumentException e) {
+            throw new RequestException(400, "Use format csv, html, markdown or json and compression gzip or zstd");
+        }
+        if (compression != ExportService.Compression.NONE
+                && format != ExportFormat.CSV && format != ExportFormat.JSON) {
+            throw new RequestException(400, "Only csv and json exports can be compressed");
+        }
+        DateRange range = dateRange(params);
+        
+        exchange.getResponseHeaders().set("Content-Type", compression == ExportService.Compression.NONE
+            ? format.getMediaType() + "; charset=utf-8"
+            : "application/octet-stream");
+        exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"listening_history."
+            + format.name().toLowerCase() + compression.getExtension() + "\"");
+        // Once the headers are sent a failure can only cut the response short
+        exchange.sendResponseHeaders(200, 0);
+        exportService.exportTo(exchange.getResponseBody(), range, format, compression);
+    }
+    
+    private void handle(HttpExchange exchange, String method, Endpoint endpoint) {
+        try {
+            if (method != null && !exchange.getRequestMethod().equals(method)) {
+                throw new RequestException(405, "Use " + method);
+            }
+            endpoint.handle(exchange, queryParams(exchange));
+        } catch (RequestException e) {
+            sendError(exchange, e.getStatus(), e.getMessage());
+        } catch (DiscogsApiException e) {
+            logger.error("Discogs request failed", e);
+            sendError(exchange, 502, e.getMessage());
+        } catch (HistoryException | RuntimeException e) {
+            logger.error("Request failed: {}", exchange.getRequestURI(), e);
+            sendError(exchange, 500, e.getMessage());
+        } catch (IOException e) {
+            logger.debug("Could not answer request: {}", exchange.getRequestURI(), e);
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    private static void sendJson(HttpExchange exchange, int status, JsonElement json) throws IOException {
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+    
+    private static void sendError(HttpExchange exchange, int status, String message) {
+        if (exchange.getResponseCode() != -1) {
+            // Too late for a status, the response was already started
+            return;
+        }
+        JsonObject json = new JsonObject();
+        json.addProperty("error", message);
+        try {
+            sendJson(exchange, status, json);
+        } catch (IOException e) {
+            logger.debug("Could not send error response", e);
+        }
+    }
+    
+    private ListeningHistoryEntry toEntry(JsonObject body) throws DiscogsApiException {
+        if (body.has("title")) {
+            try {
+                return HistoryJson.fromJson(body);
+            } catch (JsonParseException e) {
+                throw new RequestException(400, e.getMessage());
+            }
+        }
+        if (!body.has("discogs_id")) {
+            throw new RequestException(400, "Give a discogs_id or a full history entry");
+        }
+        
+        int discogsId = intField(body, "discogs_id");
+        Album album = discogsService.getCollectionIndex().getAlbums().stream()
+            .filter(candidate -> candidate.getDiscogsId() == discogsId)
+            .findFirst()
+            .orElseThrow(() -> new RequestException(404, "Album " + discogsId + " is not in the collection"));
+        ListeningHistoryEntry entry = ListeningHistoryEntry.fromAlbum(album);
+        if (body.has("rating")) {
+            try {
+                entry.setRating(intField(body, "rating"));
+            } catch (IllegalArgumentException e) {
+                throw new RequestException(400, "Invalid history entry: " + e.getMessage());
+            }
+        }
+        if (body.has("notes")) {
+            entry.setNotes(field(body, "notes").getAsString());
+        }
+        return entry;
+    }
+    
+    private static int intField(JsonObject body, String name) {
+        try {
+            return field(body, name).getAsInt();
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Invalid history entry: " + name + " must be a number");
+        }
+    }
+    
+    /**
+     * Gets a number or string field, which Gson converts as asked.
+     */
+    private static JsonPrimitive field(JsonObject body, String name) {
+        JsonElement value = body.get(name);
+        if (!value.isJsonPrimitive()) {
+            throw new RequestException(400, "Invalid history entry: " + name + " must be a number or a string");
+        }
+        return value.getAsJsonPrimitive();
+    }
+    
+    private static JsonObject toJson(Album album) {
+        JsonObject json = new JsonObject();
+        json.addProperty("discogs_id", album.getDiscogsId());
+        json.addProperty("title", album.getTitle());
+        json.add("artists", GSON.toJsonTree(album.getArtists()));
+        json.addProperty("year", album.getYear());
+        json.add("formats", GSON.toJsonTree(album.getFormats()));
+        json.add("genres", GSON.toJsonTree(album.getGenres()));
+        json.add("styles", GSON.toJsonTree(album.getStyles()));
+        json.addProperty("cover_image", album.getCoverImage());
+        return json;
+    }
+    
+    private static JsonObject readJsonObject(HttpExchange exchange) throws IOException {
+        try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+            return JsonParser.parseReader(reader).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new RequestException(400, "Send a JSON object");
+        }
+    }
+    
+    private static Map<String, String> queryParams(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            String[] parts = pair.split("=", 2);
+            if (parts.length == 2 && !parts[1].isEmpty()) {
+                params.put(URLDecoder.decode(parts[0], StandardCharsets.UTF_8),
+                    URLDecoder.decode(parts[1], StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+    
+    private static Integer intParam(Map<String, String> params, String name, Integer defaultValue) {
+        String value = params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Invalid " + name + " '" + value + "'");
+        }
+    }
+    
+    private static DateRange dateRange(Map<String, String> params) {
+        try {
+            return DateRange.parse(params.get("from"), params.get("to"));
+        } catch (IllegalArgumentException e) {
+            throw new RequestException(400, e.getMessage());
+        }
+    }
+    
+    /**
+     * Answers one request, throwing a {@link RequestException} for a bad one.
+     */
+    @FunctionalInterface
+    private interface Endpoint {
+        void handle(HttpExchange exchange, Map<String, String> params)
+            throws IOException, DiscogsApiException, HistoryException;
+    }
+    
+    /**
+     * A request that cannot be answered, reported to the client with its status.
+     */
+    private static class RequestException extends RuntimeException {
+        private final int status;
+        
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+        
+        int getStatus() {
+            return status;
+        }
+    }
+    
+    /**
+     * Names request threads and keeps them from blocking JVM exit.
+     */
+    private static class RequestThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+        
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "picker-server-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
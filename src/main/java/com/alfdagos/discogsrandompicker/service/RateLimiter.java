@@ -0,0 +1,158 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Client-side token bucket that keeps requests just under the Discogs rate limit.
+ * <p>
+ * Discogs allows a fixed number of requests per moving 60 second window and reports the
+ * current budget in the {@code X-Discogs-Ratelimit*} response headers. The bucket refills at
+ * the advertised rate and is corrected from those headers after every response, so all threads
+ * sharing a token are paced together. A 429 pauses every caller for the {@code Retry-After}
+ * delay or an exponential backoff with jitter, whichever is longer.
+ */
+public class RateLimiter {
+    
+    private static final Logger logger = LoggerFactory.getLogger(RateLimiter.class);
+    private static final int DEFAULT_REQUESTS_PER_MINUTE = 60;
+    private static final int SAFETY_MARGIN = 1;
+    private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long BASE_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+    private static final Map<String, RateLimiter> SHARED = new ConcurrentHashMap<>();
+    
+    private final LongSupplier nanoClock;
+    private final Sleeper sleeper;
+    private final Random random;
+    
+    private int requestsPerMinute;
+    private double capacity;
+    private double tokens;
+    private long lastRefillNanos;
+    private long pausedUntilNanos;
+    
+    public RateLimiter() {
+        this(DEFAULT_REQUESTS_PER_MINUTE);
+    }
+    
+    public RateLimiter(int requestsPerMinute) {
+        this(requestsPerMinute, System::nanoTime, TimeUnit.NANOSECONDS::sleep, new Random());
+    }
+    
+    RateLimiter(int requestsPerMinute, LongSupplier nanoClock, Sleeper sleeper, Random random) {
+        this.nanoClock = nanoClock;
+        this.sleeper = sleeper;
+        this.random = random;
+        this.lastRefillNanos = nanoClock.getAsLong();
+        this.pausedUntilNanos = lastRefillNanos;
+        setRequestsPerMinute(requestsPerMinute);
+        this.tokens = capacity;
+    }
+    
+    /**
+     * Gets the limiter shared by every client in this JVM that uses the given API token.
+     */
+    public static RateLimiter forToken(String token) {
+        return SHARED.computeIfAbsent(token, key -> new RateLimiter());
+    }
+    
+    /**
+     * Blocks until a request may be sent.
+     */
+    public void acquire() throws InterruptedException {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                long now = nanoClock.getAsLong();
+                refill(now);
+                
+                if (now < pausedUntilNanos) {
+                    waitNanos = pausedUntilNanos - now;
+                } else if (tokens >= 1) {
+                    tokens -= 1;
+                    return;
+                } else {
+                    waitNanos = (long) Math.ceil((1 - tokens) * WINDOW_NANOS / capacity);
+                }
+            }
+            
+            logger.trace("Rate limiter waiting {} ms", TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            sleeper.sleep(waitNanos);
+        }
+    }
+    
+    /**
+     * Corrects the bucket from the rate-limit headers of a response.
+     * Any argument may be negative when the header was missing.
+     */
+    public synchronized void update(int limit, int used, int remaining) {
+        if (limit > 0 && limit != requestsPerMinute) {
+            logger.debug("Discogs rate limit is {} requests per minute", limit);
+            setRequestsPerMinute(limit);
+        }
+        
+        if (remaining < 0 && used >= 0) {
+            remaining = requestsPerMinute - used;
+        }
+        
+        if (remaining >= 0) {
+            refill(nanoClock.getAsLong());
+            // The server is authoritative when it reports less budget than we think we have
+            tokens = Math.min(tokens, remaining - SAFETY_MARGIN);
+        }
+    }
+    
+    /**
+     * Pauses all callers after a 429 response and returns the chosen delay in milliseconds.
+     *
+     * @param attempt zero-based retry attempt for this request
+     * @param retryAfterMillis delay requested by the server, or a negative value if none
+     */
+    public synchronized long onRateLimited(int attempt, long retryAfterMillis) {
+        long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempt, 16));
+        // Equal jitter: half the backoff is fixed, the other half is random
+        long delay = backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+        if (retryAfterMillis > delay) {
+            delay = retryAfterMillis + (long) (random.nextDouble() * BASE_BACKOFF_MS);
+        }
+        
+        long now = nanoClock.getAsLong();
+        pausedUntilNanos = Math.max(pausedUntilNanos, now + TimeUnit.MILLISECONDS.toNanos(delay));
+        refill(now);
+        tokens = Math.min(tokens, 0);
+        return delay;
+    }
+    
+    synchronized double availableTokens() {
+        refill(nanoClock.getAsLong());
+        return tokens;
+    }
+    
+    private void setRequestsPerMinute(int limit) {
+        this.requestsPerMinute = limit;
+        this.capacity = Math.max(1, limit - SAFETY_MARGIN);
+        this.tokens = Math.min(tokens, capacity);
+    }
+    
+    private void refill(long now) {
+        long elapsed = now - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * capacity / WINDOW_NANOS);
+            lastRefillNanos = now;
+        }
+    }
+    
+    /**
+     * Sleeps for the given number of nanoseconds; replaced in tests.
+     */
+    interface Sleeper {
+        void sleep(long nanos) throws InterruptedException;
+    }
+}
@@ -0,0 +1,565 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.DateRange;
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.Year;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * History split by listening time into one JSON Lines segment per month or year, so that range
+ * queries only open the segments that overlap the range.
+ * <p>
+ * The store is a directory holding {@code manifest.json}, which lists the segments, and one
+ * subdirectory per generation holding the segment files, for instance {@code 3/2024-05.jsonl}.
+ * Appends go to the segment of each entry's period, adding it to the manifest first if it is
+ * new. A rewrite fills a new generation directory and then replaces the manifest, so readers
+ * always see either the old or the new history; segments of periods that have ended are gzipped
+ * by the rewrite, and entries added to such a period later go to a plain file next to them, which
+ * the manifest records before it is created.
+ */
+public class SegmentedHistoryStore implements HistoryStore {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedHistoryStore.class);
+    private static final String MANIFEST_FILE = "manifest.json";
+    private static final int MANIFEST_FORMAT = 1;
+    private static final String SEGMENT_SUFFIX = ".jsonl";
+    private static final String COMPRESSED_SUFFIX = ".jsonl.gz";
+    private static final int MAX_READ_ATTEMPTS = 3;
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * How entries are grouped into segments.
+     */
+    public enum Partition {
+        MONTH,
+        YEAR;
+        
+        public static Partition parse(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+        
+        String key(LocalDateTime time) {
+            return this == MONTH ? YearMonth.from(time).toString() : String.valueOf(time.getYear());
+        }
+        
+        LocalDateTime start(String key) {
+            return this == MONTH
+                ? YearMonth.parse(key).atDay(1).atStartOfDay()
+                : Year.parse(key).atDay(1).atStartOfDay();
+        }
+        
+        LocalDateTime end(String key) {
+            return this == MONTH ? start(key).plusMonths(1) : start(key).plusYears(1);
+        }
+    }
+    
+    private final Path directory;
+    private final Partition partition;
+    private final boolean compressClosedSegments;
+    private final Clock clock;
+    
+    private Manifest cachedManifest;
+    
+    public SegmentedHistoryStore(Path directory) {
+        this(directory, Partition.MONTH, true);
+    }
+    
+    /**
+     * @param partition used for a new store and whenever the history is rewritten; an existing
+     *                  store keeps the partition it was written with until then
+     */
+    public SegmentedHistoryStore(Path directory, Partition partition, boolean compressClosedSegments) {
+        this(directory, partition, compressClosedSegments, Clock.systemDefaultZone());
+    }
+    
+    SegmentedHistoryStore(Path directory, Partition partition, boolean compressClosedSegments, Clock clock) {
+        this.directory = directory;
+        this.partition = partition;
+        this.compressClosedSegments = compressClosedSegments;
+        this.clock = clock;
+    }
+    
+    @Override
+    public Path getPath() {
+        return directory;
+    }
+    
+    /**
+     * Combines the versions of the manifest and of the plain segment files. A compressed segment
+     * only changes with a rewrite, and gains a plain file only after the manifest records it, so
+     * the manifest's version covers it until then.
+     */
+    @Override
+    public Object version() throws IOException {
+        Manifest manifest = readManifest();
+        if (manifest == null) {
+            return FileVersion.MISSING;
+        }
+        
+        List<Object> version = new ArrayList<>(manifest.segments.size() + 1);
+        version.add(manifest.version);
+        for (Map.Entry<String, Boolean> segment : manifest.segments.entrySet()) {
+            if (!segment.getValue() || manifest.appended.contains(segment.getKey())) {
+                version.add(FileVersion.of(segmentFile(manifest.generation, segment.getKey(), false)));
+            }
+        }
+        return version;
+    }
+    
+    @Override
+    public List<ListeningHistoryEntry> readAll() throws IOException {
+        return readRange(DateRange.ALL);
+    }
+    
+    /**
+     * Reads only the segments whose period overlaps the range.
+     */
+    @Override
+    public List<ListeningHistoryEntry> readRange(DateRange range) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Manifest manifest = readManifest();
+                if (manifest == null) {
+                    return new ArrayList<>();
+                }
+                
+                List<ListeningHistoryEntry> entries = new ArrayList<>();
+                int segments = 0;
+                for (String key : manifest.segments.keySet()) {
+                    if (range.overlaps(manifest.partition.start(key), manifest.partition.end(key))) {
+                        readSegment(manifest, key, entries);
+                        segments++;
+                    }
+                }
+                
+                // A rewrite deletes the generation we read from only after replacing the manifest
+                if (manifest.version.equals(FileVersion.of(manifestFile()))) {
+                    logger.debug("Read {} of {} history segments", segments, manifest.segments.size());
+                    if (!range.isAll()) {
+                        entries.removeIf(entry -> !range.contains(entry.getListenedDate()));
+                    }
+                    return entries;
+                }
+            } catch (NoSuchFileException e) {
+                if (attempt == MAX_READ_ATTEMPTS) {
+                    throw e;
+                }
+            }
+            if (attempt == MAX_READ_ATTEMPTS) {
+                throw new IOException("History was rewritten repeatedly while reading: " + directory);
+            }
+            logger.debug("History segments replaced while reading {}, retrying", directory);
+        }
+    }
+    
+    /**
+     * Reads one overlapping segment at a time, so at most one period is held in memory.
+     * <p>
+     * Each segment is taken from the manifest current when it is reached and only visited once
+     * the manifest is found unchanged after reading it, so a scan overtaken by a rewrite goes on
+     * from the same period in the new generation instead of reading a deleted one as empty.
+     */
+    @Override
+    public void scanRange(DateRange range, EntryVisitor visitor) throws IOException {
+        String after = null;
+        int attempt = 1;
+        while (true) {
+            Manifest manifest = readManifest();
+            if (manifest == null) {
+                return;
+            }
+            
+            String key = after == null ? firstKey(manifest.segments) : manifest.segments.higherKey(after);
+            while (key != null && !range.overlaps(manifest.partition.start(key), manifest.partition.end(key))) {
+                key = manifest.segments.higherKey(key);
+            }
+            if (key == null) {
+                return;
+            }
+            
+            List<ListeningHistoryEntry> entries = readCurrentSegment(manifest, key);
+            if (entries == null) {
+                attempt = retry(attempt);
+                continue;
+            }
+            attempt = 1;
+            for (ListeningHistoryEntry entry : entries) {
+                if (range.contains(entry.getListenedDate()) && !visitor.visit(entry)) {
+                    return;
+                }
+            }
+            after = key;
+        }
+    }
+    
+    /**
+     * Visits segments from the latest period backwards, reading the end of each segment first.
+     * Within a segment entries come in the order they were added. Like {@link #scanRange},
+     * each segment is taken from the current manifest and read again if a rewrite overtook it.
+     */
+    @Override
+    public void scanBackward(EntryVisitor visitor) throws IOException {
+        String before = null;
+        int attempt = 1;
+        while (true) {
+            Manifest manifest = readManifest();
+            if (manifest == null) {
+                return;
+            }
+            Map.Entry<String, Boolean> segment = before == null
+                ? manifest.segments.lastEntry()
+                : manifest.segments.lowerEntry(before);
+            if (segment == null) {
+                return;
+            }
+            
+            List<ListeningHistoryEntry> compressed = new ArrayList<>();
+            try {
+                if (segment.getValue()) {
+                    compressed = readCompressed(segmentFile(manifest.generation, segment.getKey(), true));
+                }
+            } catch (NoSuchFileException e) {
+                if (isCurrent(manifest)) {
+                    throw e;
+                }
+                attempt = retry(attempt);
+                continue;
+            }
+            
+            // The plain file reads as empty once its generation is deleted; an open one stays readable
+            int[] visited = {0};
+            boolean[] stopped = {false};
+            Path plain = segmentFile(manifest.generation, segment.getKey(), false);
+            new JsonLinesHistoryStore(plain).scanBackward(entry -> {
+                visited[0]++;
+                stopped[0] = !visitor.visit(entry);
+                return !stopped[0];
+            });
+            if (stopped[0]) {
+                return;
+            }
+            if (visited[0] == 0 && !isCurrent(manifest)) {
+                attempt = retry(attempt);
+                continue;
+            }
+            
+            attempt = 1;
+            for (int i = compressed.size() - 1; i >= 0; i--) {
+                if (!visitor.visit(compressed.get(i))) {
+                    return;
+                }
+            }
+            before = segment.getKey();
+        }
+    }
+    
+    /**
+     * Reads the segment of a period from the generation the manifest names, or returns null if
+     * the manifest was replaced meanwhile, so that the generation may have been deleted.
+     */
+    private List<ListeningHistoryEntry> readCurrentSegment(Manifest manifest, String key) throws IOException {
+        List<ListeningHistoryEntry> entries = new ArrayList<>();
+        try {
+            readSegment(manifest, key, entries);
+        } catch (NoSuchFileException e) {
+            if (isCurrent(manifest)) {
+                throw e;
+            }
+            return null;
+        }
+        // A rewrite deletes the generation we read from only after replacing the manifest
+        return isCurrent(manifest) ? entries : null;
+    }
+    
+    private boolean isCurrent(Manifest manifest) throws IOException {
+        return manifest.version.equals(FileVersion.of(manifestFile()));
+    }
+    
+    private int retry(int attempt) throws IOException {
+        if (attempt == MAX_READ_ATTEMPTS) {
+            throw new IOException("History was rewritten repeatedly while reading: " + directory);
+        }
+        logger.debug("History segments replaced while reading {}, retrying", directory);
+        return attempt + 1;
+    }
+    
+    private static String firstKey(NavigableMap<String, Boolean> segments) {
+        return segments.isEmpty() ? null : segments.firstKey();
+    }
+    
+    @Override
+    public void append(List<ListeningHistoryEntry> entries) throws IOException {
+        Manifest manifest = readManifest();
+        if (manifest == null) {
+            manifest = new Manifest(1, partition, new TreeMap<>(), new TreeSet<>(), null);
+            Files.createDirectories(generationDirectory(1));
+            writeManifest(manifest);
+        }
+        
+        Map<String, List<ListeningHistoryEntry>> byPeriod = new LinkedHashMap<>();
+        for (ListeningHistoryEntry entry : entries) {
+            byPeriod.computeIfAbsent(manifest.partition.key(entry.getListenedDate()), key -> new ArrayList<>())
+                .add(entry);
+        }
+        
+        // List new segments and plain files before writing them, so a crash never leaves entries
+        // nobody reads and version() always looks at every file that can change
+        TreeMap<String, Boolean> segments = new TreeMap<>(manifest.segments);
+        TreeSet<String> appended = new TreeSet<>(manifest.appended);
+        for (String key : byPeriod.keySet()) {
+            if (segments.putIfAbsent(key, false) != null && segments.get(key)) {
+                appended.add(key);
+            }
+        }
+        if (segments.size() != manifest.segments.size() || appended.size() != manifest.appended.size()) {
+            writeManifest(new Manifest(manifest.generation, manifest.partition, segments, appended, null));
+        }
+        
+        for (Map.Entry<String, List<ListeningHistoryEntry>> period : byPeriod.entrySet()) {
+            Path segment = segmentFile(manifest.generation, period.getKey(), false);
+            boolean created = !Files.exists(segment);
+            new JsonLinesHistoryStore(segment).append(period.getValue());
+            if (created) {
+                HistoryFiles.syncDirectory(segment);
+            }
+        }
+    }
+    
+    /**
+     * Writes the history into a new generation, compressing the segments of periods that have
+     * ended, and switches to it by replacing the manifest.
+     */
+    @Override
+    public void replaceAll(List<ListeningHistoryEntry> entries) throws IOException {
+        Manifest current = readManifest();
+        long generation = current != null ? current.generation + 1 : 1;
+        Path generationDirectory = generationDirectory(generation);
+        // Left over from a rewrite that crashed before switching to it
+        deleteRecursively(generationDirectory);
+        Files.createDirectories(generationDirectory);
+        
+        Map<String, List<ListeningHistoryEntry>> byPeriod = new TreeMap<>();
+        for (ListeningHistoryEntry entry : entries) {
+            byPeriod.computeIfAbsent(partition.key(entry.getListenedDate()), key -> new ArrayList<>()).add(entry);
+        }
+        
+        String openPeriod = partition.key(LocalDateTime.now(clock));
+        TreeMap<String, Boolean> segments = new TreeMap<>();
+        for (Map.Entry<String, List<ListeningHistoryEntry>> period : byPeriod.entrySet()) {
+            boolean compress = compressClosedSegments && period.getKey().compareTo(openPeriod) < 0;
+            writeSegment(segmentFile(generation, period.getKey(), compress), period.getValue(), compress);
+            segments.put(period.getKey(), compress);
+        }
+        // Makes the segment files durable before the manifest that lists them
+        HistoryFiles.syncDirectory(generationDirectory.resolve(MANIFEST_FILE));
+        
+        writeManifest(new Manifest(generation, partition, segments, new TreeSet<>(), null));
+        deleteOtherGenerations(generation);
+        logger.debug("Wrote {} history entries in {} segments as generation {}",
+            entries.size(), segments.size(), generation);
+    }
+    
+    private void readSegment(Manifest manifest, String key, List<ListeningHistoryEntry> into) throws IOException {
+        if (manifest.segments.get(key)) {
+            into.addAll(readCompressed(segmentFile(manifest.generation, key, true)));
+        }
+        Path plain = segmentFile(manifest.generation, key, false);
+        if (Files.exists(plain)) {
+            into.addAll(new JsonLinesHistoryStore(plain).readAll());
+        }
+    }
+    
+    private static List<ListeningHistoryEntry> readCompressed(Path file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file), GZIP_BUFFER_SIZE), StandardCharsets.UTF_8))) {
+            return HistoryJson.readLines(reader);
+        }
+    }
+    
+    private static void writeSegment(Path file, List<ListeningHistoryEntry> entries, boolean compress)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            BufferedOutputStream buffered = new BufferedOutputStream(Channels.newOutputStream(channel));
+            GZIPOutputStream gzip = compress ? new GZIPOutputStream(buffered, GZIP_BUFFER_SIZE) : null;
+            OutputStream out = gzip != null ? gzip : buffered;
+            
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            for (ListeningHistoryEntry entry : entries) {
+                writer.write(HistoryJson.toLine(entry));
+                writer.write('\n');
+            }
+            writer.flush();
+            if (gzip != null) {
+                gzip.finish();
+            }
+            buffered.flush();
+            channel.force(true);
+        }
+    }
+    
+    private synchronized Manifest readManifest() throws IOException {
+        Path file = manifestFile();
+        FileVersion version = FileVersion.of(file);
+        if (version == FileVersion.MISSING) {
+            return null;
+        }
+        if (cachedManifest != null && cachedManifest.version.equals(version)) {
+            return cachedManifest;
+        }
+        
+        // Read the version first: a replacement in between at worst causes one extra parse
+        String json = Files.readString(file, StandardCharsets.UTF_8);
+        try {
+            cachedManifest = Manifest.fromJson(JsonParser.parseString(json).getAsJsonObject(), version);
+            return cachedManifest;
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed history manifest: " + file, e);
+        }
+    }
+    
+    private void writeManifest(Manifest manifest) throws IOException {
+        Path file = manifestFile();
+        Path tempFile = HistoryFiles.tempFile(file);
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            HistoryFiles.writeFully(channel,
+                StandardCharsets.UTF_8.encode(manifest.toJson().toString()), 0);
+            channel.force(true);
+        }
+        HistoryFiles.replace(tempFile, file);
+    }
+    
+    private void deleteOtherGenerations(long generation) {
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory,
+                path -> Files.isDirectory(path) && path.getFileName().toString().matches("\\d+"))) {
+            for (Path child : children) {
+                if (Long.parseLong(child.getFileName().toString()) != generation) {
+                    deleteRecursively(child);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to delete old history segments in {}", directory, e);
+        }
+    }
+    
+    private static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+    
+    private Path manifestFile() {
+        return directory.resolve(MANIFEST_FILE);
+    }
+    
+    private Path generationDirectory(long generation) {
+        return directory.resolve(Long.toString(generation));
+    }
+    
+    private Path segmentFile(long generation, String key, boolean compressed) {
+        return generationDirectory(generation).resolve(key + (compressed ? COMPRESSED_SUFFIX : SEGMENT_SUFFIX));
+    }
+    
+    /**
+     * The segments of one generation, keyed by period and mapped to whether they are compressed,
+     * and the compressed ones that have a plain file of later entries as well.
+     */
+    private static final class Manifest {
+        final long generation;
+        final Partition partition;
+        final NavigableMap<String, Boolean> segments;
+        final Set<String> appended;
+        final FileVersion version;
+        
+        Manifest(long generation, Partition partition, NavigableMap<String, Boolean> segments, Set<String> appended,
+                FileVersion version) {
+            this.generation = generation;
+            this.partition = partition;
+            this.segments = segments;
+            this.appended = appended;
+            this.version = version;
+        }
+        
+        static Manifest fromJson(JsonObject json, FileVersion version) throws IOException {
+            if (json.get("format").getAsInt() != MANIFEST_FORMAT) {
+                throw new IOException("Unsupported history manifest format " + json.get("format"));
+            }
+            
+            TreeMap<String, Boolean> segments = new TreeMap<>();
+            TreeSet<String> appended = new TreeSet<>();
+            for (JsonElement element : json.getAsJsonArray("segments")) {
+                JsonObject segment = element.getAsJsonObject();
+                String period = segment.get("period").getAsString();
+                boolean compressed = segment.get("compressed").getAsBoolean();
+                segments.put(period, compressed);
+                // Manifests written before this was recorded may have plain files anywhere
+                if (compressed && (!segment.has("appended") || segment.get("appended").getAsBoolean())) {
+                    appended.add(period);
+                }
+            }
+            return new Manifest(json.get("generation").getAsLong(),
+                Partition.parse(json.get("partition").getAsString()), segments, appended, version);
+        }
+        
+        JsonObject toJson() {
+            JsonArray array = new JsonArray();
+            for (Map.Entry<String, Boolean> segment : segments.entrySet()) {
+                JsonObject json = new JsonObject();
+                json.addProperty("period", segment.getKey());
+                json.addProperty("compressed", segment.getValue());
+                if (segment.getValue()) {
+                    json.addProperty("appended", appended.contains(segment.getKey()));
+                }
+                array.add(json);
+            }
+            
+            JsonObject json = new JsonObject();
+            json.addProperty("format", MANIFEST_FORMAT);
+            json.addProperty("partition", partition.name().toLowerCase());
+            json.addProperty("generation", generation);
+            json.add("segments", array);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.alfdagos.discogsrandompicker.model.RollingStatistics;
+import com.alfdagos.discogsrandompicker.model.Statistics;
+import com.google.gson.JsonObject;
+
+import java.time.LocalDate;
+import java.util.Collection;
+
+/**
+ * Counts from which statistics are produced, built by adding entries one at a time. Accumulators
+ * of separate chunks of the history merge into one over all of them.
+ */
+interface StatisticsAccumulator {
+    
+    void add(ListeningHistoryEntry entry);
+    
+    default void addAll(Collection<ListeningHistoryEntry> entries) {
+        for (ListeningHistoryEntry entry : entries) {
+            add(entry);
+        }
+    }
+    
+    /**
+     * Adds the counts of another accumulator of the same kind to this one.
+     */
+    void merge(StatisticsAccumulator other);
+    
+    long getTotal();
+    
+    Statistics toStatistics();
+    
+    RollingStatistics toRollingStatistics(LocalDate today);
+    
+    JsonObject toJson();
+}
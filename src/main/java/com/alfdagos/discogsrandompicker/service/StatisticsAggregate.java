@@ -0,0 +1,105 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.alfdagos.discogsrandompicker.model.RollingStatistics;
+import com.alfdagos.discogsrandompicker.model.Statistics;
+import com.google.gson.JsonObject;
+
+import java.time.LocalDate;
+import java.util.Collection;
+
+/**
+ * Exact listen counts by year, artist and day, built in one pass over the history and kept up to date
+ * by adding new entries. Counts by decade are derived from the years when statistics are produced.
+ */
+final class StatisticsAggregate implements StatisticsAccumulator {
+    
+    private static final int FORMAT = 2;
+    
+    private long total;
+    private final CountDictionary years = new CountDictionary();
+    private final CountDictionary artists = new CountDictionary();
+    private final DailyListens days = new DailyListens();
+    
+    static StatisticsAggregate of(Collection<ListeningHistoryEntry> entries) {
+        StatisticsAggregate aggregate = new StatisticsAggregate();
+        aggregate.addAll(entries);
+        return aggregate;
+    }
+    
+    @Override
+    public void add(ListeningHistoryEntry entry) {
+        total++;
+        years.increment(entry.getYear(), 1);
+        days.add(entry.getListenedDate());
+        artists.increment(entry.getArtist(), 1);
+    }
+    
+    @Override
+    public void merge(StatisticsAccumulator other) {
+        StatisticsAggregate aggregate = (StatisticsAggregate) other;
+        total += aggregate.total;
+        years.merge(aggregate.years);
+        days.merge(aggregate.days);
+        artists.merge(aggregate.artists);
+    }
+    
+    @Override
+    public long getTotal() {
+        return total;
+    }
+    
+    /**
+     * Produces statistics in time proportional to the number of distinct years and artists.
+     * Ties for the most popular key go to the smallest one.
+     */
+    @Override
+    public Statistics toStatistics() {
+        Statistics stats = new Statistics();
+        stats.setTotalAlbums((int) total);
+        if (total == 0) {
+            return stats;
+        }
+        
+        CountDictionary decades = years.decades();
+        stats.setAlbumsByYear(years.toMap());
+        stats.setMostPopularYear(years.mostFrequent());
+        stats.setAlbumsByArtist(artists.toMap());
+        stats.setMostListenedArtist(artists.mostFrequent());
+        stats.setAlbumsByDecade(decades.toMap());
+        stats.setMostPopularDecade(decades.mostFrequent());
+        return stats;
+    }
+    
+    @Override
+    public RollingStatistics toRollingStatistics(LocalDate today) {
+        return days.toRollingStatistics(today);
+    }
+    
+    @Override
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("format", FORMAT);
+        json.addProperty("total", total);
+        json.add("by_year", years.toJson());
+        json.add("by_day", days.toJson());
+        json.add("by_artist", artists.toJson());
+        return json;
+    }
+    
+    /**
+     * @throws RuntimeException if the JSON is not an aggregate in the current format
+     */
+    static StatisticsAggregate fromJson(JsonObject json) {
+        if (json.get("format").getAsInt() != FORMAT) {
+            throw new IllegalArgumentException("Unsupported statistics format " + json.get("format"));
+        }
+        
+        StatisticsAggregate aggregate = new StatisticsAggregate();
+        aggregate.total = json.get("total").getAsLong();
+        aggregate.years.addJson(json.getAsJsonArray("by_year"));
+        aggregate.days.addJson(json.getAsJsonArray("by_day"));
+        aggregate.artists.addJson(json.getAsJsonArray("by_artist"));
+        return aggregate;
+    }
+}
@@ -1,104 +1,409 @@
 package com.alfdagos.discogsrandompicker.service;
 
 import com.alfdagos.discogsrandompicker.exception.HistoryException;
+import com.alfdagos.discogsrandompicker.model.DateRange;
 import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.alfdagos.discogsrandompicker.model.RollingStatistics;
 import com.alfdagos.discogsrandompicker.model.Statistics;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Comparator;
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Service for generating statistics from listening history.
+ * <p>
+ * Statistics over the whole history come from an aggregate of counts that is updated on every
+ * write made through the {@link HistoryService} and saved next to the history, tagged with the
+ * history version it matches, so showing them does not read the history. When the tag does not
+ * match, for instance because another program changed the history, the aggregate is recomputed
+ * from the full history. Statistics for a date range are always computed from the entries in it.
+ * Recomputing splits large histories into chunks that are counted in parallel on a
+ * {@link ForkJoinPool}, the common pool by default.
+ * <p>
+ * In {@link Mode#APPROXIMATE} mode artist counts are estimated in a sketch of fixed size, so that
+ * memory and the saved file stay small however many artists the history holds. Only the top
+ * artists are listed then, and the statistics say how far their counts may be off.
+ * <p>
+ * Rolling statistics come from the listens per day kept in the same aggregate, and listens of an
+ * artist within a period from a timeline of each artist's listens, so neither scans the history
+ * once the timeline is built.
  */
 public class StatisticsService {
     
     private static final Logger logger = LoggerFactory.getLogger(StatisticsService.class);
+    // Chunks at most this large are counted by a single task
+    private static final int CHUNK_SIZE = 1 << 16;
+    
+    /**
+     * How listens are counted.
+     */
+    public enum Mode {
+        /** Every artist is counted exactly. */
+        EXACT(".stats.json"),
+        /** Artist counts and distinct counts are estimated in bounded memory. */
+        APPROXIMATE(".sketch.json");
+        
+        private final String fileSuffix;
+        
+        Mode(String fileSuffix) {
+            this.fileSuffix = fileSuffix;
+        }
+        
+        public static Mode parse(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+        
+        StatisticsAccumulator newAccumulator() {
+            return this == EXACT ? new StatisticsAggregate() : new StatisticsSketch();
+        }
+        
+        StatisticsAccumulator fromJson(JsonObject json) {
+            return this == EXACT ? StatisticsAggregate.fromJson(json) : StatisticsSketch.fromJson(json);
+        }
+    }
     
     private final HistoryService historyService;
+    private final Path aggregateFile;
+    private final ForkJoinPool pool;
+    private final Mode mode;
+    
+    // Aggregate of the whole history and the history version it matches
+    private StatisticsAccumulator aggregate;
+    private String aggregateVersion;
+    
+    // Built once artists are asked about more than once, then kept up to date like the aggregate
+    private ArtistTimeline artistTimeline;
+    private String artistTimelineVersion;
+    private boolean artistListensCounted;
     
     public StatisticsService(HistoryService historyService) {
+        this(historyService, Mode.EXACT);
+    }
+    
+    /**
+     * Saves the aggregate next to the history, in a file named after the mode.
+     */
+    public StatisticsService(HistoryService historyService, Mode mode) {
+        this(historyService, historyService.getStorePath().resolveSibling(
+            historyService.getStorePath().getFileName() + mode.fileSuffix), ForkJoinPool.commonPool(), mode);
+    }
+    
+    public StatisticsService(HistoryService historyService, Path aggregateFile) {
+        this(historyService, aggregateFile, ForkJoinPool.commonPool());
+    }
+    
+    public StatisticsService(HistoryService historyService, Path aggregateFile, ForkJoinPool pool) {
+        this(historyService, aggregateFile, pool, Mode.EXACT);
+    }
+    
+    /**
+     * @param pool runs the counting of large histories, in parallel chunks
+     */
+    public StatisticsService(HistoryService historyService, Path aggregateFile, ForkJoinPool pool, Mode mode) {
         this.historyService = historyService;
+        this.aggregateFile = aggregateFile;
+        this.pool = pool;
+        this.mode = mode;
+        historyService.addListener(new AggregateUpdater());
     }
     
     /**
      * Generates comprehensive statistics from listening history.
      */
     public Statistics generateStatistics() throws HistoryException {
-        logger.info("Generating statistics");
-        
-        List<ListeningHistoryEntry> history = historyService.loadHistory();
-        Statistics stats = new Statistics();
-        
-        stats.setTotalAlbums(history.size());
-        
-        if (history.isEmpty()) {
-            return stats;
-        }
-        
-        // Count by year
-        Map<String, Integer> byYear = new HashMap<>();
-        for (ListeningHistoryEntry entry : history) {
-            String year = entry.getYear();
-            byYear.put(year, byYear.getOrDefault(year, 0) + 1);
-        }
-        stats.setAlbumsByYear(byYear);
-        
-        // Find most popular year
-        String mostPopularYear = byYear.entrySet().stream()
-            .max(Comparator.comparing(Map.Entry::getValue))
-            .map(Map.Entry::getKey)
-            .orElse("Unknown");
-        stats.setMostPopularYear(mostPopularYear);
-        
-        // Count by artist
-        Map<String, Integer> byArtist = new HashMap<>();
-        for (ListeningHistoryEntry entry : history) {
-            String artist = entry.getArtist();
-            byArtist.put(artist, byArtist.getOrDefault(artist, 0) + 1);
-        }
-        stats.setAlbumsByArtist(byArtist);
-        
-        // Find most listened artist
-        String mostListenedArtist = byArtist.entrySet().stream()
-            .max(Comparator.comparing(Map.Entry::getValue))
-            .map(Map.Entry::getKey)
-            .orElse("Unknown");
-        stats.setMostListenedArtist(mostListenedArtist);
-        
-        // Count by decade
-        Map<String, Integer> byDecade = new HashMap<>();
-        for (ListeningHistoryEntry entry : history) {
-            try {
-                int year = Integer.parseInt(entry.getYear());
-                int decade = (year / 10) * 10;
-                String decadeStr = decade + "s";
-                byDecade.put(decadeStr, byDecade.getOrDefault(decadeStr, 0) + 1);
-            } catch (NumberFormatException e) {
-                // Skip invalid years
-            }
-        }
-        stats.setAlbumsByDecade(byDecade);
+        return generateStatistics(DateRange.ALL);
+    }
+    
+    /**
+     * Generates statistics from the entries listened to within the range.
+     */
+    public Statistics generateStatistics(DateRange range) throws HistoryException {
+        logger.info("Generating statistics for {}", range);
         
-        // Find most popular decade
-        String mostPopularDecade = byDecade.entrySet().stream()
-            .max(Comparator.comparing(Map.Entry::getValue))
-            .map(Map.Entry::getKey)
-            .orElse("Unknown");
-        stats.setMostPopularDecade(mostPopularDecade);
+        Statistics stats = range.isAll()
+            ? currentStatistics()
+            : count(historyService.query(range), pool, mode).toStatistics();
         
         logger.info("Statistics generated: {} total albums", stats.getTotalAlbums());
         return stats;
     }
     
     /**
-     * Formats statistics as a readable string.
+     * Computes statistics from the full history without using the saved aggregate, to verify it.
+     */
+    public Statistics recomputeStatistics() throws HistoryException {
+        return count(historyService.getHistory(), pool, mode).toStatistics();
+    }
+    
+    /**
+     * Counts the entries in chunks on the pool and merges the results. Small histories are
+     * counted on the calling thread.
+     */
+    static StatisticsAccumulator count(List<ListeningHistoryEntry> entries, ForkJoinPool pool, Mode mode) {
+        if (entries.size() <= CHUNK_SIZE) {
+            StatisticsAccumulator accumulator = mode.newAccumulator();
+            accumulator.addAll(entries);
+            return accumulator;
+        }
+        return pool.invoke(new CountTask(entries, 0, entries.size(), mode));
+    }
+    
+    /**
+     * Generates listening activity over the last days, months and streaks as of today.
+     */
+    public RollingStatistics generateRollingStatistics() throws HistoryException {
+        return generateRollingStatistics(LocalDate.now());
+    }
+    
+    RollingStatistics generateRollingStatistics(LocalDate today) throws HistoryException {
+        StatisticsAccumulator current = currentAggregate();
+        synchronized (this) {
+            return current.toRollingStatistics(today);
+        }
+    }
+    
+    /**
+     * Counts the listens of an artist within the range, by the artist name as stored in the history.
+     * <p>
+     * The first question about a range with a start, such as the one of a pick on the command
+     * line, is answered by scanning that range of the store only. Later questions, and those
+     * about the whole history, are answered from the timeline of all artists, which is built
+     * with one pass over the history and then kept up to date by writes.
+     */
+    public int countArtistListens(String artist, DateRange range) throws HistoryException {
+        String version = historyService.getVersion().toString();
+        boolean buildTimeline;
+        synchronized (this) {
+            if (artistTimeline != null && version.equals(artistTimelineVersion)) {
+                return artistTimeline.count(artist, range);
+            }
+            buildTimeline = range.getFrom() == null || artistListensCounted;
+            artistListensCounted = true;
+        }
+        
+        // See currentAggregate for why the history is read outside this monitor
+        if (!buildTimeline) {
+            int[] count = new int[1];
+            historyService.forEachInRange(range, entry -> {
+                if (Objects.equals(artist, entry.getArtist())) {
+                    count[0]++;
+                }
+            });
+            return count[0];
+        }
+        
+        ArtistTimeline built = new ArtistTimeline(historyService.getHistory());
+        synchronized (this) {
+            // Keep a timeline that a write or another reader brought up to date meanwhile
+            if (artistTimeline == null || !version.equals(artistTimelineVersion)) {
+                artistTimeline = built;
+                artistTimelineVersion = version;
+            }
+            return artistTimeline.count(artist, range);
+        }
+    }
+    
+    /**
+     * Counts the listens of an artist in the current calendar month.
+     */
+    public int countArtistListensThisMonth(String artist) throws HistoryException {
+        LocalDateTime monthStart = YearMonth.now().atDay(1).atStartOfDay();
+        return countArtistListens(artist, new DateRange(monthStart, monthStart.plusMonths(1)));
+    }
+    
+    private Statistics currentStatistics() throws HistoryException {
+        StatisticsAccumulator current = currentAggregate();
+        synchronized (this) {
+            return current.toStatistics();
+        }
+    }
+    
+    /**
+     * Gets the aggregate of the whole history. It is only read or changed while holding this
+     * service's monitor, since writes to the history update it.
+     * <p>
+     * Writes notify the {@link AggregateUpdater} while holding the history service's monitor, so
+     * the history must never be read while holding this one: the two monitors would be taken in
+     * opposite orders and a read and a write on different threads could deadlock.
+     */
+    private StatisticsAccumulator currentAggregate() throws HistoryException {
+        // Read the version first: entries added meanwhile at worst make the tag look stale
+        String version = historyService.getVersion().toString();
+        StatisticsAccumulator stale;
+        synchronized (this) {
+            if (aggregate != null && version.equals(aggregateVersion)) {
+                return aggregate;
+            }
+            stale = aggregate;
+            StatisticsAccumulator loaded = load(version);
+            if (loaded != null) {
+                aggregate = loaded;
+                aggregateVersion = version;
+                return loaded;
+            }
+        }
+        
+        StatisticsAccumulator counted = count(historyService.getHistory(), pool, mode);
+        logger.debug("Recomputed statistics from {} history entries", counted.getTotal());
+        synchronized (this) {
+            // Keep an aggregate that a write or another reader installed meanwhile
+            if (aggregate != stale) {
+                return aggregate != null ? aggregate : counted;
+            }
+            save(counted, version);
+            aggregate = counted;
+            aggregateVersion = version;
+            return counted;
+        }
+    }
+    
+    private StatisticsAccumulator load(String version) {
+        if (!Files.exists(aggregateFile)) {
+            return null;
+        }
+        
+        try {
+            JsonObject json = JsonParser.parseString(Files.readString(aggregateFile, StandardCharsets.UTF_8))
+                .getAsJsonObject();
+            if (!version.equals(json.get("history_version").getAsString())) {
+                logger.debug("Saved statistics are out of date");
+                return null;
+            }
+            return mode.fromJson(json);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable statistics file {}", aggregateFile, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Replaces the saved aggregate. It is not synced: one lost or torn by a crash is recomputed.
+     */
+    private void save(StatisticsAccumulator aggregate, String version) {
+        JsonObject json = aggregate.toJson();
+        json.addProperty("history_version", version);
+        
+        Path directory = aggregateFile.toAbsolutePath().getParent();
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(directory, aggregateFile.getFileName().toString(), ".tmp");
+            Files.writeString(tempFile, json.toString(), StandardCharsets.UTF_8);
+            Files.move(tempFile, aggregateFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Failed to save statistics to {}", aggregateFile, e);
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ignored) {
+                    // Nothing more to do
+                }
+            }
+        }
+    }
+    
+    /**
+     * Keeps the aggregate and the artist timeline in step with writes, running under the history lock.
+     */
+    private class AggregateUpdater implements HistoryListener {
+        
+        @Override
+        public void entriesAppended(List<ListeningHistoryEntry> entries, Object previousVersion, Object version) {
+            synchronized (StatisticsService.this) {
+                String previous = previousVersion.toString();
+                if (artistTimeline != null && previous.equals(artistTimelineVersion)) {
+                    artistTimeline.addAll(entries);
+                    artistTimelineVersion = version.toString();
+                } else {
+                    artistTimeline = null;
+                }
+                
+                StatisticsAccumulator current = aggregate != null && previous.equals(aggregateVersion)
+                    ? aggregate
+                    : load(previous);
+                if (current == null) {
+                    // Nothing valid to extend; the next read recomputes
+                    aggregate = null;
+                    return;
+                }
+                
+                current.addAll(entries);
+                aggregate = current;
+                aggregateVersion = version.toString();
+                save(current, aggregateVersion);
+            }
+        }
+        
+        @Override
+        public void historyReplaced(List<ListeningHistoryEntry> entries, Object version) {
+            synchronized (StatisticsService.this) {
+                if (artistTimeline != null) {
+                    artistTimeline = new ArtistTimeline(entries);
+                    artistTimelineVersion = version.toString();
+                }
+                aggregate = count(entries, pool, mode);
+                aggregateVersion = version.toString();
+                save(aggregate, aggregateVersion);
+            }
+        }
+    }
+    
+    /**
+     * Counts a range of the history, splitting it in half until the pieces fit in one chunk.
+     */
+    private static final class CountTask extends RecursiveTask<StatisticsAccumulator> {
+        private final List<ListeningHistoryEntry> entries;
+        private final int start;
+        private final int end;
+        private final Mode mode;
+        
+        CountTask(List<ListeningHistoryEntry> entries, int start, int end, Mode mode) {
+            this.entries = entries;
+            this.start = start;
+            this.end = end;
+            this.mode = mode;
+        }
+        
+        @Override
+        protected StatisticsAccumulator compute() {
+            if (end - start <= CHUNK_SIZE) {
+                StatisticsAccumulator accumulator = mode.newAccumulator();
+                for (int i = start; i < end; i++) {
+                    accumulator.add(entries.get(i));
+                }
+                return accumulator;
+            }
+            
+            int middle = (start + end) >>> 1;
+            CountTask left = new CountTask(entries, start, middle, mode);
+            left.fork();
+            StatisticsAccumulator right = new CountTask(entries, middle, end, mode).compute();
+            StatisticsAccumulator result = left.join();
+            result.merge(right);
+            return result;
+        }
+    }
+    
+    /**
+     * Formats statistics as a readable string. Estimated figures are marked with "~".
      */
     public String formatStatistics(Statistics stats) {
         StringBuilder sb = new StringBuilder();
+        String artistMark = stats.isApproximate() ? "~" : "";
         
         sb.append("\n╔══════════════════════════════════════╗\n");
         sb.append("║     LISTENING HISTORY STATISTICS     ║\n");
@@ -111,8 +416,9 @@ public class StatisticsService {
             return sb.toString();
         }
         
-        sb.append(String.format("🎤 Most Listened Artist: %s (%d albums)\n", 
+        sb.append(String.format("🎤 Most Listened Artist: %s (%s%d albums)\n", 
             stats.getMostListenedArtist(), 
+            artistMark,
             stats.getAlbumsByArtist().get(stats.getMostListenedArtist())));
         
         sb.append(String.format("📅 Most Popular Year: %s (%d albums)\n", 
@@ -128,8 +434,8 @@ public class StatisticsService {
         stats.getAlbumsByArtist().entrySet().stream()
             .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
             .limit(5)
-            .forEach(entry -> sb.append(String.format("   %s: %d albums\n", 
-                entry.getKey(), entry.getValue())));
+            .forEach(entry -> sb.append(String.format("   %s: %s%d albums\n", 
+                entry.getKey(), artistMark, entry.getValue())));
         
         sb.append("\n");
         
@@ -141,6 +447,34 @@ public class StatisticsService {
             .forEach(entry -> sb.append(String.format("   %s: %d albums\n", 
                 entry.getKey(), entry.getValue())));
         
+        if (stats.isApproximate()) {
+            sb.append(String.format("\n👥 Distinct Artists: ~%d\n", stats.getDistinctArtists()));
+            sb.append(String.format("💿 Distinct Albums: ~%d\n", stats.getDistinctAlbums()));
+            sb.append(String.format("\n~ Approximate: artist counts may be up to %d too high and distinct "
+                + "counts up to 2.5%% off (99%% confidence)\n", stats.getArtistCountError()));
+        }
+        
+        return sb.toString();
+    }
+    
+    /**
+     * Formats rolling statistics as a readable string.
+     */
+    public String formatRollingStatistics(RollingStatistics stats) {
+        StringBuilder sb = new StringBuilder();
+        
+        sb.append("\n⏱️  Recent Listening:\n");
+        sb.append(String.format("   Last 7 days: %d albums\n", stats.getListensLast7Days()));
+        sb.append(String.format("   Last 30 days: %d albums\n", stats.getListensLast30Days()));
+        sb.append(String.format("   Last 365 days: %d albums (%.1f per month)\n",
+            stats.getListensLast365Days(), stats.getAveragePerMonth()));
+        sb.append(String.format("   Current streak: %d days (longest: %d days)\n",
+            stats.getCurrentStreak(), stats.getLongestStreak()));
+        
+        sb.append("\n📈 Last 12 Months:\n");
+        stats.getListensByMonth().forEach((month, count) ->
+            sb.append(String.format("   %s: %d albums\n", month, count)));
+        
         return sb.toString();
     }
 }
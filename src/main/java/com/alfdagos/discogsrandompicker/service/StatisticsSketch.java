@@ -0,0 +1,253 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.alfdagos.discogsrandompicker.model.RollingStatistics;
+import com.alfdagos.discogsrandompicker.model.Statistics;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+import java.time.LocalDate;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Approximate listen counts whose size does not grow with the number of distinct artists.
+ * <p>
+ * Artist counts are kept in a {@link CountMinSketch}, and the {@value #TOP_ARTISTS} artists with
+ * the highest estimates are tracked as heavy hitters; those are the only artists listed, and their
+ * counts may be overstated by the sketch's error bound. The numbers of distinct artists and albums
+ * are estimated with a {@link HyperLogLog} each. Years and days are few, so counts by year, decade
+ * and day stay exact. The sketches take about 75 KB however many artists the history holds.
+ */
+final class StatisticsSketch implements StatisticsAccumulator {
+    
+    static final int TOP_ARTISTS = 100;
+    private static final int FORMAT = 2;
+    
+    private long total;
+    private final CountDictionary years = new CountDictionary();
+    private final DailyListens days = new DailyListens();
+    private CountMinSketch artistCounts = new CountMinSketch();
+    private HyperLogLog artists = new HyperLogLog();
+    private HyperLogLog albums = new HyperLogLog();
+    
+    // Heavy hitters and their estimates
+    private final Map<String, Integer> topArtists = new HashMap<>();
+    // At most the smallest estimate in topArtists; it only grows as counts do
+    private int topArtistsFloor;
+    // The artist with the smallest estimate once topArtists is full, while smallestKnown is set;
+    // estimates only grow, so it stays the smallest until its entry is updated or replaced
+    private String smallestArtist;
+    private boolean smallestKnown;
+    
+    static StatisticsSketch of(Collection<ListeningHistoryEntry> entries) {
+        StatisticsSketch sketch = new StatisticsSketch();
+        sketch.addAll(entries);
+        return sketch;
+    }
+    
+    @Override
+    public void add(ListeningHistoryEntry entry) {
+        total++;
+        years.increment(entry.getYear(), 1);
+        days.add(entry.getListenedDate());
+        
+        long artistHash = hash(entry.getArtist());
+        offer(entry.getArtist(), artistCounts.add(artistHash, 1));
+        artists.add(artistHash);
+        albums.add(mix(entry.getDiscogsId()));
+    }
+    
+    private void offer(String artist, int estimate) {
+        if (topArtists.size() < TOP_ARTISTS || topArtists.containsKey(artist)) {
+            topArtists.put(artist, estimate);
+            if (smallestKnown && Objects.equals(artist, smallestArtist)) {
+                smallestKnown = false;
+            }
+            return;
+        }
+        if (estimate <= topArtistsFloor) {
+            return;
+        }
+        
+        if (!smallestKnown) {
+            findSmallest();
+            if (estimate <= topArtistsFloor) {
+                return;
+            }
+        }
+        topArtists.remove(smallestArtist);
+        topArtists.put(artist, estimate);
+        smallestKnown = false;
+    }
+    
+    private void findSmallest() {
+        Map.Entry<String, Integer> smallest = null;
+        for (Map.Entry<String, Integer> top : topArtists.entrySet()) {
+            if (smallest == null || top.getValue() < smallest.getValue()) {
+                smallest = top;
+            }
+        }
+        smallestArtist = smallest.getKey();
+        topArtistsFloor = smallest.getValue();
+        smallestKnown = true;
+    }
+    
+    @Override
+    public void merge(StatisticsAccumulator other) {
+        StatisticsSketch sketch = (StatisticsSketch) other;
+        total += sketch.total;
+        years.merge(sketch.years);
+        days.merge(sketch.days);
+        artistCounts.merge(sketch.artistCounts);
+        artists.merge(sketch.artists);
+        albums.merge(sketch.albums);
+        
+        Set<String> candidates = new HashSet<>(topArtists.keySet());
+        candidates.addAll(sketch.topArtists.keySet());
+        rankTopArtists(candidates);
+    }
+    
+    // Keeps the candidates with the highest estimates in the current sketch
+    private void rankTopArtists(Collection<String> candidates) {
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>(candidates.size());
+        for (String artist : candidates) {
+            ranked.add(new AbstractMap.SimpleEntry<>(artist, artistCounts.estimate(hash(artist))));
+        }
+        ranked.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        
+        topArtists.clear();
+        topArtistsFloor = 0;
+        smallestKnown = false;
+        for (Map.Entry<String, Integer> top : ranked.subList(0, Math.min(TOP_ARTISTS, ranked.size()))) {
+            topArtists.put(top.getKey(), top.getValue());
+        }
+    }
+    
+    @Override
+    public long getTotal() {
+        return total;
+    }
+    
+    @Override
+    public Statistics toStatistics() {
+        Statistics stats = new Statistics();
+        stats.setTotalAlbums((int) total);
+        stats.setApproximate(true);
+        stats.setArtistCountError(artistCounts.errorBound());
+        stats.setDistinctArtists(artists.estimate());
+        stats.setDistinctAlbums(albums.estimate());
+        if (total == 0) {
+            return stats;
+        }
+        
+        // Estimates taken when artists were last counted may have grown since
+        Map<String, Integer> estimates = new HashMap<>(topArtists.size() * 2);
+        for (String artist : topArtists.keySet()) {
+            estimates.put(artist, artistCounts.estimate(hash(artist)));
+        }
+        
+        CountDictionary decades = years.decades();
+        stats.setAlbumsByYear(years.toMap());
+        stats.setMostPopularYear(years.mostFrequent());
+        stats.setAlbumsByArtist(estimates);
+        stats.setMostListenedArtist(mostFrequent(estimates));
+        stats.setAlbumsByDecade(decades.toMap());
+        stats.setMostPopularDecade(decades.mostFrequent());
+        return stats;
+    }
+    
+    private static String mostFrequent(Map<String, Integer> estimates) {
+        Map.Entry<String, Integer> best = null;
+        for (Map.Entry<String, Integer> top : estimates.entrySet()) {
+            if (best == null || top.getValue() > best.getValue()
+                    || (top.getValue().equals(best.getValue())
+                        && CountDictionary.compareKeys(top.getKey(), best.getKey()) < 0)) {
+                best = top;
+            }
+        }
+        return best.getKey();
+    }
+    
+    @Override
+    public RollingStatistics toRollingStatistics(LocalDate today) {
+        return days.toRollingStatistics(today);
+    }
+    
+    @Override
+    public JsonObject toJson() {
+        Base64.Encoder base64 = Base64.getEncoder();
+        JsonObject json = new JsonObject();
+        json.addProperty("format", FORMAT);
+        json.addProperty("total", total);
+        json.add("by_year", years.toJson());
+        json.add("by_day", days.toJson());
+        json.addProperty("artist_counts", base64.encodeToString(artistCounts.toBytes()));
+        json.addProperty("distinct_artists", base64.encodeToString(artists.toBytes()));
+        json.addProperty("distinct_albums", base64.encodeToString(albums.toBytes()));
+        
+        JsonArray top = new JsonArray(topArtists.size());
+        for (String artist : topArtists.keySet()) {
+            top.add(artist);
+        }
+        json.add("top_artists", top);
+        return json;
+    }
+    
+    /**
+     * @throws RuntimeException if the JSON is not a sketch in the current format
+     */
+    static StatisticsSketch fromJson(JsonObject json) {
+        if (json.get("format").getAsInt() != FORMAT) {
+            throw new IllegalArgumentException("Unsupported statistics format " + json.get("format"));
+        }
+        
+        Base64.Decoder base64 = Base64.getDecoder();
+        StatisticsSketch sketch = new StatisticsSketch();
+        sketch.total = json.get("total").getAsLong();
+        sketch.years.addJson(json.getAsJsonArray("by_year"));
+        sketch.days.addJson(json.getAsJsonArray("by_day"));
+        sketch.artistCounts = CountMinSketch.fromBytes(base64.decode(json.get("artist_counts").getAsString()));
+        sketch.artists = HyperLogLog.fromBytes(base64.decode(json.get("distinct_artists").getAsString()));
+        sketch.albums = HyperLogLog.fromBytes(base64.decode(json.get("distinct_albums").getAsString()));
+        
+        List<String> candidates = new ArrayList<>();
+        for (JsonElement artist : json.getAsJsonArray("top_artists")) {
+            candidates.add(artist instanceof JsonNull ? null : artist.getAsString());
+        }
+        sketch.rankTopArtists(candidates);
+        return sketch;
+    }
+    
+    /**
+     * A 64-bit hash of the artist: FNV-1a over its characters, mixed so that all bits vary.
+     */
+    static long hash(String key) {
+        if (key == null) {
+            return mix(0x9E3779B97F4A7C15L);
+        }
+        
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+    
+    // The 64-bit finalizer of MurmurHash3
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return value ^ (value >>> 33);
+    }
+}
@@ -0,0 +1,141 @@
+package com.alfdagos.discogsrandompicker.benchmark;
+
+import com.alfdagos.discogsrandompicker.model.Album;
+import com.alfdagos.discogsrandompicker.model.AlbumFilter;
+import com.alfdagos.discogsrandompicker.model.AlbumPredicate;
+import com.alfdagos.discogsrandompicker.model.CollectionIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a single filter evaluation against one album.
+ * <p>
+ * {@code legacyMatches} is the implementation {@link AlbumFilter#matches} had before filters
+ * were compiled; {@code compiledMatches} should report a {@code gc.alloc.rate.norm} of about
+ * zero bytes per operation when run with
+ * {@code mvn -Pbenchmark test-compile exec:exec -Djmh.args="AlbumFilter -prof gc"}.
+ * {@code indexCount} evaluates the same filter over the whole collection through
+ * {@link CollectionIndex} for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlbumFilterBenchmark {
+    
+    @Param({"5000"})
+    public int collectionSize;
+    
+    private Album[] albums;
+    private AlbumFilter filter;
+    private AlbumPredicate predicate;
+    private CollectionIndex index;
+    private int cursor;
+    
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<Album> list = new ArrayList<>();
+        for (int i = 0; i < collectionSize; i++) {
+            list.add(new Album.Builder()
+                .withDiscogsId(i)
+                .withTitle("Album " + i)
+                .withArtists(Arrays.asList("Artist " + random.nextInt(2000)))
+                .withYear(String.valueOf(1955 + random.nextInt(70)))
+                .withFormats(Arrays.asList(BenchmarkData.FORMATS[random.nextInt(BenchmarkData.FORMATS.length)]))
+                .withGenres(Arrays.asList(BenchmarkData.GENRES[random.nextInt(BenchmarkData.GENRES.length)]))
+                .withStyles(Arrays.asList(BenchmarkData.STYLES[random.nextInt(BenchmarkData.STYLES.length)]))
+                .build());
+        }
+        albums = list.toArray(new Album[0]);
+        index = new CollectionIndex(list);
+        
+        filter = new AlbumFilter();
+        filter.setGenre("Rock");
+        filter.setFormat("Vinyl");
+        filter.setArtist("artist 1");
+        filter.setMinYear(1970);
+        filter.setMaxYear(1989);
+        predicate = filter.compile();
+    }
+    
+    private Album nextAlbum() {
+        Album album = albums[cursor];
+        cursor = cursor + 1 == albums.length ? 0 : cursor + 1;
+        return album;
+    }
+    
+    @Benchmark
+    public boolean legacyMatches() {
+        return legacyMatches(filter, nextAlbum());
+    }
+    
+    @Benchmark
+    public boolean compiledMatches() {
+        return predicate.matches(nextAlbum());
+    }
+    
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int indexCount() {
+        return index.countMatches(filter);
+    }
+    
+    private static boolean legacyMatches(AlbumFilter filter, Album album) {
+        String genre = filter.getGenre();
+        String format = filter.getFormat();
+        String artist = filter.getArtist();
+        
+        if (genre != null && !album.getGenres().stream()
+                .anyMatch(g -> g.toLowerCase().contains(genre.toLowerCase()))) {
+            return false;
+        }
+        
+        if (filter.getYear() != null && !album.getYear().equals(filter.getYear())) {
+            return false;
+        }
+        
+        if (format != null && !album.getFormats().stream()
+                .anyMatch(f -> f.toLowerCase().contains(format.toLowerCase()))) {
+            return false;
+        }
+        
+        if (artist != null && !String.join(", ", album.getArtists()).toLowerCase()
+                .contains(artist.toLowerCase())) {
+            return false;
+        }
+        
+        if (filter.getMinYear() != null || filter.getMaxYear() != null) {
+            try {
+                int albumYear = Integer.parseInt(album.getYear());
+                if (filter.getMinYear() != null && albumYear < filter.getMinYear()) {
+                    return false;
+                }
+                if (filter.getMaxYear() != null && albumYear > filter.getMaxYear()) {
+                    return false;
+                }
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+}
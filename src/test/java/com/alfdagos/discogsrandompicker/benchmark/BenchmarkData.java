@@ -0,0 +1,120 @@
+package com.alfdagos.discogsrandompicker.benchmark;
+
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic data shared by the benchmarks.
+ */
+final class BenchmarkData {
+    
+    static final String[] GENRES = {
+        "Rock", "Electronic", "Jazz", "Funk / Soul", "Hip Hop", "Classical", "Pop", "Reggae",
+        "Folk, World, & Country", "Blues", "Latin", "Stage & Screen"
+    };
+    
+    static final String[] STYLES = {
+        "Prog Rock", "Psychedelic Rock", "Krautrock", "Ambient", "Techno", "Hard Bop", "Soul-Jazz",
+        "Disco", "Boom Bap", "Dub", "Post-Punk", "New Wave", "Synth-pop", "Folk Rock"
+    };
+    
+    static final String[] FORMATS = {"Vinyl", "CD", "Cassette", "File", "Box Set"};
+    
+    private BenchmarkData() {
+    }
+    
+    /**
+     * Builds a collection page in the shape returned by the Discogs collection endpoint,
+     * including the fields the application ignores.
+     */
+    static String collectionPage(int page, int perPage, int totalItems, long seed) {
+        Random random = new Random(seed);
+        int pages = (totalItems + perPage - 1) / perPage;
+        
+        StringBuilder json = new StringBuilder(perPage * 1200);
+        json.append("{\"pagination\": {\"page\": ").append(page)
+            .append(", \"pages\": ").append(pages)
+            .append(", \"per_page\": ").append(perPage)
+            .append(", \"items\": ").append(totalItems)
+            .append(", \"urls\": {\"next\": \"https://api.discogs.com/users/bench/collection/folders/0/releases?page=")
+            .append(page + 1).append("&per_page=").append(perPage).append("\"}}, \"releases\": [");
+        
+        for (int i = 0; i < perPage; i++) {
+            int id = (page - 1) * perPage + i + 1;
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append("{\"id\": ").append(id)
+                .append(", \"instance_id\": ").append(100000 + id)
+                .append(", \"date_added\": \"2024-03-0").append(1 + i % 9).append("T10:15:00-08:00\"")
+                .append(", \"rating\": ").append(random.nextInt(6))
+                .append(", \"folder_id\": 1")
+                .append(", \"basic_information\": {\"id\": ").append(id)
+                .append(", \"master_id\": ").append(5000 + id)
+                .append(", \"master_url\": \"https://api.discogs.com/masters/").append(5000 + id).append("\"")
+                .append(", \"resource_url\": \"https://api.discogs.com/releases/").append(id).append("\"")
+                .append(", \"thumb\": \"https://i.discogs.com/thumb/").append(id).append(".jpg\"")
+                .append(", \"cover_image\": \"https://i.discogs.com/cover/").append(id).append(".jpg\"")
+                .append(", \"title\": \"Album Title Number ").append(id).append("\"")
+                .append(", \"year\": ").append(1955 + random.nextInt(70))
+                .append(", \"formats\": [{\"name\": \"").append(FORMATS[random.nextInt(FORMATS.length)])
+                .append("\", \"qty\": \"1\", \"descriptions\": [\"LP\", \"Album\", \"Reissue\"]}]")
+                .append(", \"labels\": [{\"name\": \"Label ").append(random.nextInt(300))
+                .append("\", \"catno\": \"CAT-").append(id).append("\", \"entity_type\": \"1\", \"id\": ")
+                .append(random.nextInt(100000)).append("}]")
+                .append(", \"artists\": [{\"name\": \"Artist ").append(random.nextInt(2000))
+                .append("\", \"anv\": \"\", \"join\": \"\", \"role\": \"\", \"tracks\": \"\", \"id\": ")
+                .append(random.nextInt(100000)).append(", \"resource_url\": \"https://api.discogs.com/artists/1\"}]")
+                .append(", \"genres\": [\"").append(GENRES[random.nextInt(GENRES.length)]).append("\"]")
+                .append(", \"styles\": [\"").append(STYLES[random.nextInt(STYLES.length)])
+                .append("\", \"").append(STYLES[random.nextInt(STYLES.length)]).append("\"]}")
+                .append(", \"notes\": [{\"field_id\": 1, \"value\": \"Mint (M)\"}]}");
+        }
+        
+        json.append("]}");
+        return json.toString();
+    }
+    
+    /**
+     * Builds a history with a realistic spread of repeated artists and years. Equal strings are
+     * shared, as they would be after interning, so that ten million entries fit in memory.
+     */
+    static List<ListeningHistoryEntry> history(int size, long seed) {
+        String[] artists = pool("Artist ", 5_000);
+        String[] albums = pool("Album ", 50_000);
+        String[] years = new String[70];
+        for (int i = 0; i < years.length; i++) {
+            years[i] = String.valueOf(1955 + i);
+        }
+        
+        Random random = new Random(seed);
+        LocalDateTime start = LocalDateTime.of(2015, 1, 1, 0, 0);
+        List<ListeningHistoryEntry> history = new ArrayList<>(size);
+        
+        for (int i = 0; i < size; i++) {
+            ListeningHistoryEntry entry = new ListeningHistoryEntry(
+                random.nextInt(50_000),
+                artists[random.nextInt(artists.length)],
+                albums[random.nextInt(albums.length)],
+                years[random.nextInt(years.length)],
+                start.plusSeconds(i * 300L + random.nextInt(300)));
+            if (random.nextInt(4) == 0) {
+                entry.setRating(1 + random.nextInt(5));
+            }
+            history.add(entry);
+        }
+        return history;
+    }
+    
+    private static String[] pool(String prefix, int size) {
+        String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = prefix + i;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,77 @@
+package com.alfdagos.discogsrandompicker.benchmark;
+
+import com.alfdagos.discogsrandompicker.model.Album;
+import com.alfdagos.discogsrandompicker.service.CollectionPage;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing a 100-release collection page the old way (buffer the body into a String,
+ * build a Gson tree, walk it with {@link Album#fromDiscogsJson}) with the streaming
+ * {@link CollectionPage} reader.
+ * <p>
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec -Djmh.args="CollectionPage -prof gc"}
+ * to also see allocated bytes per page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CollectionPageBenchmark {
+    
+    private final Gson gson = new Gson();
+    private byte[] body;
+    
+    @Setup
+    public void setUp() {
+        body = BenchmarkData.collectionPage(1, 100, 5000, 42).getBytes(StandardCharsets.UTF_8);
+    }
+    
+    @Benchmark
+    public List<Album> treeParse() throws IOException {
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+        StringBuilder response = new StringBuilder();
+        String inputLine;
+        while ((inputLine = in.readLine()) != null) {
+            response.append(inputLine);
+        }
+        in.close();
+        
+        JsonObject json = gson.fromJson(response.toString(), JsonObject.class);
+        JsonArray releases = json.getAsJsonArray("releases");
+        List<Album> albums = new ArrayList<>();
+        for (int i = 0; i < releases.size(); i++) {
+            albums.add(Album.fromDiscogsJson(releases.get(i).getAsJsonObject()));
+        }
+        return albums;
+    }
+    
+    @Benchmark
+    public List<Album> streamingParse() throws IOException {
+        return CollectionPage.read(
+            new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8)).getAlbums();
+    }
+}
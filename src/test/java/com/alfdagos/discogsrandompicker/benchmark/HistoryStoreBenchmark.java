@@ -0,0 +1,84 @@
+package com.alfdagos.discogsrandompicker.benchmark;
+
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.alfdagos.discogsrandompicker.service.BinaryHistoryStore;
+import com.alfdagos.discogsrandompicker.service.JsonLinesHistoryStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures loading a large listening history from each store.
+ * <p>
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec -Djmh.args="HistoryStore"}; the setup
+ * prints the size of both files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class HistoryStoreBenchmark {
+    
+    @Param({"1000000"})
+    public int entries;
+    
+    private Path directory;
+    private JsonLinesHistoryStore jsonStore;
+    private BinaryHistoryStore binaryStore;
+    
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("history-benchmark");
+        jsonStore = new JsonLinesHistoryStore(directory.resolve("history.json"));
+        binaryStore = new BinaryHistoryStore(directory.resolve("history.bin"));
+        
+        List<ListeningHistoryEntry> history = BenchmarkData.history(entries, 42);
+        jsonStore.replaceAll(history);
+        binaryStore.replaceAll(history);
+        
+        System.out.printf("%nJSON Lines: %,d bytes, binary: %,d bytes%n",
+            Files.size(jsonStore.getPath()), directorySize() - Files.size(jsonStore.getPath()));
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+    
+    @Benchmark
+    public List<ListeningHistoryEntry> readJsonLines() throws IOException {
+        return jsonStore.readAll();
+    }
+    
+    @Benchmark
+    public List<ListeningHistoryEntry> readBinary() throws IOException {
+        return binaryStore.readAll();
+    }
+    
+    private long directorySize() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.alfdagos.discogsrandompicker.benchmark;
+
+import com.alfdagos.discogsrandompicker.exception.HistoryException;
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.alfdagos.discogsrandompicker.model.Statistics;
+import com.alfdagos.discogsrandompicker.service.HistoryService;
+import com.alfdagos.discogsrandompicker.service.HistoryStore;
+import com.alfdagos.discogsrandompicker.service.StatisticsService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures recomputing statistics over a large in-memory history.
+ * <p>
+ * {@code recompute} counts in parallel chunks on a pool of {@code parallelism} threads and
+ * should scale with the cores available, in either mode; {@code legacyThreePass} is the implementation
+ * {@link StatisticsService#generateStatistics()} had before it was aggregated in one pass.
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec -Djmh.args="Statistics"}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class StatisticsBenchmark {
+    
+    @State(Scope.Benchmark)
+    public static class History {
+        @Param({"1000000", "10000000"})
+        public int entries;
+        
+        List<ListeningHistoryEntry> list;
+        HistoryService historyService;
+        
+        @Setup
+        public void setUp() throws HistoryException {
+            list = BenchmarkData.history(entries, 42);
+            historyService = new HistoryService(new InMemoryStore(list));
+            // Load the snapshot once so only counting is measured
+            historyService.getHistory();
+        }
+    }
+    
+    @State(Scope.Benchmark)
+    public static class Pool {
+        @Param({"1", "2", "4", "8"})
+        public int parallelism;
+        
+        @Param({"EXACT", "APPROXIMATE"})
+        public StatisticsService.Mode mode;
+        
+        private ForkJoinPool pool;
+        private Path aggregateFile;
+        StatisticsService statisticsService;
+        
+        @Setup
+        public void setUp(History history) throws IOException {
+            pool = new ForkJoinPool(parallelism);
+            aggregateFile = Files.createTempFile("statistics-benchmark", ".json");
+            statisticsService = new StatisticsService(history.historyService, aggregateFile, pool, mode);
+        }
+        
+        @TearDown
+        public void tearDown() throws IOException {
+            pool.shutdown();
+            Files.deleteIfExists(aggregateFile);
+        }
+    }
+    
+    @Benchmark
+    public Statistics recompute(Pool pool) throws HistoryException {
+        return pool.statisticsService.recomputeStatistics();
+    }
+    
+    @Benchmark
+    public Statistics legacyThreePass(History history) {
+        List<ListeningHistoryEntry> entries = history.list;
+        Statistics stats = new Statistics();
+        stats.setTotalAlbums(entries.size());
+        
+        Map<String, Integer> byYear = new HashMap<>();
+        for (ListeningHistoryEntry entry : entries) {
+            String year = entry.getYear();
+            byYear.put(year, byYear.getOrDefault(year, 0) + 1);
+        }
+        stats.setAlbumsByYear(byYear);
+        stats.setMostPopularYear(mostFrequent(byYear));
+        
+        Map<String, Integer> byArtist = new HashMap<>();
+        for (ListeningHistoryEntry entry : entries) {
+            String artist = entry.getArtist();
+            byArtist.put(artist, byArtist.getOrDefault(artist, 0) + 1);
+        }
+        stats.setAlbumsByArtist(byArtist);
+        stats.setMostListenedArtist(mostFrequent(byArtist));
+        
+        Map<String, Integer> byDecade = new HashMap<>();
+        for (ListeningHistoryEntry entry : entries) {
+            try {
+                int year = Integer.parseInt(entry.getYear());
+                String decade = (year / 10) * 10 + "s";
+                byDecade.put(decade, byDecade.getOrDefault(decade, 0) + 1);
+            } catch (NumberFormatException e) {
+                // Skip invalid years
+            }
+        }
+        stats.setAlbumsByDecade(byDecade);
+        stats.setMostPopularDecade(mostFrequent(byDecade));
+        return stats;
+    }
+    
+    private static String mostFrequent(Map<String, Integer> counts) {
+        return counts.entrySet().stream()
+            .max(Comparator.comparing(Map.Entry::getValue))
+            .map(Map.Entry::getKey)
+            .orElse("Unknown");
+    }
+    
+    /**
+     * A history that never changes, so the service keeps its snapshot.
+     */
+    private static final class InMemoryStore implements HistoryStore {
+        private static final Object VERSION = new Object();
+        
+        private final List<ListeningHistoryEntry> entries;
+        
+        InMemoryStore(List<ListeningHistoryEntry> entries) {
+            this.entries = entries;
+        }
+        
+        @Override
+        public Path getPath() {
+            return Paths.get("in-memory-history");
+        }
+        
+        @Override
+        public Object version() {
+            return VERSION;
+        }
+        
+        @Override
+        public List<ListeningHistoryEntry> readAll() {
+            return new ArrayList<>(entries);
+        }
+        
+        @Override
+        public void append(List<ListeningHistoryEntry> added) {
+            throw new UnsupportedOperationException("Benchmark history is read-only");
+        }
+        
+        @Override
+        public void replaceAll(List<ListeningHistoryEntry> replacement) {
+            throw new UnsupportedOperationException("Benchmark history is read-only");
+        }
+    }
+}
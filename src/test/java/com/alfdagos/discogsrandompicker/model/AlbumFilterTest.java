@@ -67,4 +67,47 @@ class AlbumFilterTest {
         
         assertFalse(filter.matches(album));
     }
+    
+    @Test
+    void testMatchingIsCaseInsensitive() {
+        Album album = new Album.Builder()
+            .withArtists(java.util.Arrays.asList("Pink Floyd", "Roger Waters"))
+            .withFormats(java.util.Arrays.asList("Vinyl"))
+            .withStyles(java.util.Arrays.asList("Prog Rock"))
+            .build();
+        
+        AlbumFilter filter = new AlbumFilter();
+        filter.setArtist("floyd, ROGER");
+        filter.setFormat("VINYL");
+        filter.setStyle("prog");
+        
+        assertTrue(filter.matches(album));
+    }
+    
+    @Test
+    void testSetterInvalidatesCompiledFilter() {
+        Album album = new Album.Builder()
+            .withGenres(java.util.Arrays.asList("Rock"))
+            .build();
+        
+        AlbumFilter filter = new AlbumFilter();
+        filter.setGenre("Rock");
+        assertTrue(filter.matches(album));
+        
+        AlbumPredicate predicate = filter.compile();
+        filter.setGenre("Jazz");
+        
+        assertFalse(filter.matches(album));
+        assertTrue(predicate.matches(album));
+    }
+    
+    @Test
+    void testNonNumericYearNeverMatchesRange() {
+        Album album = new Album.Builder().build();
+        
+        AlbumFilter filter = new AlbumFilter();
+        filter.setMaxYear(2000);
+        
+        assertFalse(filter.matches(album));
+    }
 }
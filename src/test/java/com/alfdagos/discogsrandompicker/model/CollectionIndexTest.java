@@ -0,0 +1,165 @@
+package com.alfdagos.discogsrandompicker.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CollectionIndexTest {
+    
+    private static CollectionIndex sampleIndex() {
+        List<Album> albums = new ArrayList<>();
+        albums.add(album(1, "Pink Floyd", "1973", "Rock", "Vinyl"));
+        albums.add(album(2, "Miles Davis", "1959", "Jazz", "Vinyl"));
+        albums.add(album(3, "Kraftwerk", "1978", "Electronic", "CD"));
+        albums.add(album(4, "Pink Floyd", "1979", "Rock", "CD"));
+        albums.add(album(5, "John Coltrane", "1965", "Jazz", "CD"));
+        return new CollectionIndex(albums);
+    }
+    
+    private static Album album(int id, String artist, String year, String genre, String format) {
+        return new Album.Builder()
+            .withDiscogsId(id)
+            .withArtists(Arrays.asList(artist))
+            .withYear(year)
+            .withGenres(Arrays.asList(genre))
+            .withFormats(Arrays.asList(format))
+            .build();
+    }
+    
+    @Test
+    void testEmptyFilterMatchesEverything() {
+        CollectionIndex index = sampleIndex();
+        
+        Optional<PickResult> pick = index.pick(new AlbumFilter(), new Random(1));
+        
+        assertTrue(pick.isPresent());
+        assertEquals(5, pick.get().getMatchCount());
+        assertEquals(5, pick.get().getCollectionSize());
+    }
+    
+    @Test
+    void testPicksOnlyMatchingAlbums() {
+        CollectionIndex index = sampleIndex();
+        AlbumFilter filter = new AlbumFilter();
+        filter.setGenre("jazz");
+        filter.setFormat("CD");
+        
+        assertEquals(1, index.countMatches(filter));
+        for (int seed = 0; seed < 20; seed++) {
+            PickResult pick = index.pick(filter, new Random(seed)).get();
+            assertEquals(5, pick.getAlbum().getDiscogsId());
+            assertEquals(1, pick.getMatchCount());
+        }
+    }
+    
+    @Test
+    void testEveryMatchCanBePicked() {
+        CollectionIndex index = sampleIndex();
+        AlbumFilter filter = new AlbumFilter();
+        filter.setArtist("pink floyd");
+        
+        Set<Integer> picked = new HashSet<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100; i++) {
+            picked.add(index.pick(filter, random).get().getAlbum().getDiscogsId());
+        }
+        
+        assertEquals(new HashSet<>(Arrays.asList(1, 4)), picked);
+    }
+    
+    @Test
+    void testNoMatch() {
+        CollectionIndex index = sampleIndex();
+        AlbumFilter filter = new AlbumFilter();
+        filter.setGenre("Rock");
+        filter.setMinYear(1990);
+        
+        assertEquals(0, index.countMatches(filter));
+        assertFalse(index.pick(filter, new Random()).isPresent());
+    }
+    
+    @Test
+    void testStyleFilter() {
+        List<Album> albums = Arrays.asList(
+            new Album.Builder().withDiscogsId(1).withStyles(Arrays.asList("Prog Rock")).build(),
+            new Album.Builder().withDiscogsId(2).withStyles(Arrays.asList("Techno", "Ambient")).build());
+        CollectionIndex index = new CollectionIndex(albums);
+        AlbumFilter filter = new AlbumFilter();
+        filter.setStyle("ambient");
+        
+        assertEquals(2, index.pick(filter, new Random()).get().getAlbum().getDiscogsId());
+    }
+    
+    @Test
+    void testSelectBit() {
+        BitSet bits = new BitSet();
+        bits.set(3);
+        bits.set(64);
+        bits.set(130);
+        
+        assertEquals(3, CollectionIndex.selectBit(bits, 0));
+        assertEquals(64, CollectionIndex.selectBit(bits, 1));
+        assertEquals(130, CollectionIndex.selectBit(bits, 2));
+    }
+    
+    @Test
+    void testAgreesWithAlbumFilter() {
+        String[] genres = {"Rock", "Folk Rock", "Jazz", "Electronic"};
+        String[] formats = {"Vinyl", "CD", "Cassette"};
+        String[] artists = {"Pink Floyd", "Floyd Cramer", "Miles Davis", "Can"};
+        Random random = new Random(3);
+        
+        List<Album> albums = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            albums.add(new Album.Builder()
+                .withDiscogsId(i)
+                .withArtists(Arrays.asList(artists[random.nextInt(artists.length)],
+                    artists[random.nextInt(artists.length)]))
+                .withYear(random.nextInt(10) == 0 ? "Unknown" : String.valueOf(1960 + random.nextInt(40)))
+                .withGenres(Arrays.asList(genres[random.nextInt(genres.length)]))
+                .withFormats(Arrays.asList(formats[random.nextInt(formats.length)]))
+                .build());
+        }
+        CollectionIndex index = new CollectionIndex(albums);
+        
+        List<AlbumFilter> filters = new ArrayList<>();
+        for (String term : new String[] {"rock", "Folk", "jazz", "xyz"}) {
+            AlbumFilter filter = new AlbumFilter();
+            filter.setGenre(term);
+            filters.add(filter);
+        }
+        for (String term : new String[] {"floyd", "d, c", "can", " can", "", "Pink Floyd", "floyd c"}) {
+            AlbumFilter filter = new AlbumFilter();
+            filter.setArtist(term);
+            filter.setFormat("vinyl");
+            filters.add(filter);
+        }
+        AlbumFilter range = new AlbumFilter();
+        range.setMinYear(1970);
+        range.setMaxYear(1979);
+        filters.add(range);
+        AlbumFilter exactYear = new AlbumFilter();
+        exactYear.setYear("1985");
+        exactYear.setMaxYear(1990);
+        filters.add(exactYear);
+        
+        // The second round is answered from the cached matches of each term
+        for (int round = 0; round < 2; round++) {
+            for (AlbumFilter filter : filters) {
+                BitSet selected = index.select(filter);
+                for (int i = 0; i < albums.size(); i++) {
+                    assertEquals(filter.matches(albums.get(i)), selected.get(i), "album " + i);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.alfdagos.discogsrandompicker.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DateRangeTest {
+    
+    @Test
+    void testParseCoversWholePeriods() {
+        DateRange year = DateRange.parse("2025", "2025");
+        assertEquals(LocalDateTime.of(2025, 1, 1, 0, 0), year.getFrom());
+        assertEquals(LocalDateTime.of(2026, 1, 1, 0, 0), year.getTo());
+        
+        DateRange days = DateRange.parse("2025-02-10", "2025-03");
+        assertEquals(LocalDateTime.of(2025, 2, 10, 0, 0), days.getFrom());
+        assertEquals(LocalDateTime.of(2025, 4, 1, 0, 0), days.getTo());
+        
+        assertTrue(DateRange.parse(null, null).isAll());
+        assertNull(DateRange.parse(null, "2025-01-31").getFrom());
+    }
+    
+    @Test
+    void testContainsAndOverlapsAreHalfOpen() {
+        DateRange march = DateRange.parse("2025-03", "2025-03");
+        
+        assertTrue(march.contains(LocalDateTime.of(2025, 3, 1, 0, 0)));
+        assertTrue(march.contains(LocalDateTime.of(2025, 3, 31, 23, 59)));
+        assertFalse(march.contains(LocalDateTime.of(2025, 4, 1, 0, 0)));
+        
+        assertTrue(march.overlaps(LocalDateTime.of(2025, 1, 1, 0, 0), LocalDateTime.of(2025, 3, 2, 0, 0)));
+        assertFalse(march.overlaps(LocalDateTime.of(2025, 2, 1, 0, 0), LocalDateTime.of(2025, 3, 1, 0, 0)));
+        assertTrue(DateRange.ALL.overlaps(LocalDateTime.MIN, LocalDateTime.MAX));
+    }
+    
+    @Test
+    void testRejectsInvalidInput() {
+        assertThrows(IllegalArgumentException.class, () -> DateRange.parse("2025-13", null));
+        assertThrows(IllegalArgumentException.class, () -> DateRange.parse("last week", null));
+        assertThrows(IllegalArgumentException.class, () -> DateRange.parse("2025-07", "2025-05"));
+    }
+}
@@ -0,0 +1,227 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.Album;
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryHistoryStoreTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private Path historyFile;
+    private BinaryHistoryStore store;
+    
+    @BeforeEach
+    void setUp() {
+        historyFile = tempDir.resolve("history.bin");
+        store = new BinaryHistoryStore(historyFile);
+    }
+    
+    @Test
+    void testRoundTripKeepsEveryField() throws Exception {
+        ListeningHistoryEntry full = new ListeningHistoryEntry(
+            42, "Sigur Rós", "Ágætis byrjun", "1999", LocalDateTime.of(2024, 2, 29, 23, 59, 58, 123_456_789));
+        full.setRating(5);
+        full.setNotes("late night\nheadphones");
+        ListeningHistoryEntry bare = new ListeningHistoryEntry(
+            7, "Artist", "Title", "Unknown", LocalDateTime.of(1970, 1, 1, 0, 0));
+        
+        store.append(List.of(full));
+        store.append(List.of(bare));
+        
+        List<ListeningHistoryEntry> history = new BinaryHistoryStore(historyFile).readAll();
+        assertEquals(2, history.size());
+        
+        ListeningHistoryEntry loaded = history.get(0);
+        assertEquals(42, loaded.getDiscogsId());
+        assertEquals("Sigur Rós", loaded.getArtist());
+        assertEquals("Ágætis byrjun", loaded.getTitle());
+        assertEquals("1999", loaded.getYear());
+        assertEquals(full.getListenedDate(), loaded.getListenedDate());
+        assertEquals(5, loaded.getRating());
+        assertEquals("late night\nheadphones", loaded.getNotes());
+        
+        assertNull(history.get(1).getRating());
+        assertNull(history.get(1).getNotes());
+    }
+    
+    @Test
+    void testRatingsRoundTripAndOutOfRangeOnesAreRejected() throws Exception {
+        List<ListeningHistoryEntry> rated = new ArrayList<>();
+        for (int rating = 1; rating <= 5; rating++) {
+            ListeningHistoryEntry entry = entry(rating, "A");
+            entry.setRating(rating);
+            rated.add(entry);
+        }
+        rated.add(entry(6, "A"));
+        store.replaceAll(rated);
+        store.append(rated);
+        
+        List<Integer> ratings = store.readAll().stream()
+            .map(ListeningHistoryEntry::getRating)
+            .collect(Collectors.toList());
+        assertEquals(List.of(1, 2, 3, 4, 5), ratings.subList(0, 5));
+        assertNull(ratings.get(5));
+        assertEquals(ratings.subList(0, 6), ratings.subList(6, 12));
+        
+        // Neither 0, which would read back as no rating, nor a value that overflows the byte is written
+        for (int rating : new int[] {0, 200}) {
+            List<ListeningHistoryEntry> invalid = List.of(entry(7, "B"), withRating(entry(8, "B"), rating));
+            IOException e = assertThrows(IOException.class, () -> store.append(invalid));
+            assertTrue(e.getMessage().contains("Rating " + rating));
+            assertThrows(IOException.class, () -> store.replaceAll(invalid));
+        }
+        assertEquals(12, store.readAll().size());
+    }
+    
+    /**
+     * An entry whose rating bypasses the model's check, as one built by another reader could.
+     */
+    private static ListeningHistoryEntry withRating(ListeningHistoryEntry entry, int rating) {
+        return new ListeningHistoryEntry(entry.getDiscogsId(), entry.getArtist(), entry.getTitle(),
+                entry.getYear(), entry.getListenedDate()) {
+            @Override
+            public Integer getRating() {
+                return rating;
+            }
+        };
+    }
+    
+    @Test
+    void testMissingFileReadsAsEmpty() throws Exception {
+        assertTrue(store.readAll().isEmpty());
+    }
+    
+    @Test
+    void testTornRecordIsIgnoredAndOverwritten() throws Exception {
+        store.append(List.of(entry(1, "A")));
+        try (FileChannel channel = FileChannel.open(historyFile, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5}));
+        }
+        
+        assertEquals(1, store.readAll().size());
+        
+        store.append(List.of(entry(2, "B")));
+        List<ListeningHistoryEntry> history = store.readAll();
+        assertEquals(2, history.size());
+        assertEquals(2, history.get(1).getDiscogsId());
+        assertEquals("B", history.get(1).getArtist());
+    }
+    
+    @Test
+    void testRepeatedStringsAreStoredOnce() throws Exception {
+        List<ListeningHistoryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            entries.add(entry(i, "Artist " + (i % 10)));
+        }
+        
+        store.replaceAll(entries);
+        long compactSize = totalSize();
+        store.append(entries);
+        
+        // The second batch reuses every string written by the first
+        assertEquals(compactSize + 1000 * 36, totalSize());
+        assertEquals(2000, store.readAll().size());
+    }
+    
+    @Test
+    void testReplaceAllStartsNewGeneration() throws Exception {
+        store.append(List.of(entry(1, "A"), entry(2, "B")));
+        store.replaceAll(List.of(entry(3, "C")));
+        store.append(List.of(entry(4, "C")));
+        
+        assertEquals(List.of(3, 4), store.readAll().stream()
+            .map(ListeningHistoryEntry::getDiscogsId).collect(Collectors.toList()));
+        assertEquals(List.of("history.bin.strings.2"), stringTables());
+        
+        // After another instance rewrites the file, offsets remembered from before are stale
+        BinaryHistoryStore other = new BinaryHistoryStore(historyFile);
+        other.append(List.of(entry(5, "D")));
+        other.replaceAll(List.of(entry(5, "D")));
+        store.append(List.of(entry(6, "C")));
+        List<ListeningHistoryEntry> history = new BinaryHistoryStore(historyFile).readAll();
+        assertEquals("D", history.get(0).getArtist());
+        assertEquals("C", history.get(1).getArtist());
+        assertEquals(List.of("history.bin.strings.3"), stringTables());
+    }
+    
+    @Test
+    void testScanBackwardStartsAtTheLastRecord() throws Exception {
+        List<ListeningHistoryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            entries.add(entry(i, "Artist " + (i % 3)));
+        }
+        store.append(entries);
+        
+        List<Integer> visited = new ArrayList<>();
+        new BinaryHistoryStore(historyFile).scanBackward(entry -> {
+            visited.add(entry.getDiscogsId());
+            return visited.size() < 3;
+        });
+        assertEquals(List.of(99, 98, 97), visited);
+        
+        List<Integer> all = new ArrayList<>();
+        store.scanBackward(entry -> all.add(entry.getDiscogsId()));
+        assertEquals(100, all.size());
+        assertEquals(0, all.get(99));
+    }
+    
+    @Test
+    void testRejectsFilesInOtherFormats() throws Exception {
+        Files.writeString(historyFile, "{\"discogs_id\": 1}\n");
+        
+        assertThrows(IOException.class, () -> store.readAll());
+    }
+    
+    @Test
+    void testWorksAsHistoryServiceBackend() throws Exception {
+        HistoryService historyService = new HistoryService(store);
+        Album album = new Album.Builder().withDiscogsId(9).withTitle("Nine").withYear("1969").build();
+        
+        historyService.addToHistory(album);
+        historyService.addToHistory(album);
+        
+        assertEquals(2, new HistoryService(new BinaryHistoryStore(historyFile)).getListenCount(9));
+        assertEquals(2, historyService.compactHistory());
+        historyService.clearHistory();
+        assertFalse(new HistoryService(new BinaryHistoryStore(historyFile)).isInHistory(album));
+    }
+    
+    private long totalSize() throws Exception {
+        long size = Files.size(historyFile);
+        for (String table : stringTables()) {
+            size += Files.size(tempDir.resolve(table));
+        }
+        return size;
+    }
+    
+    private List<String> stringTables() throws Exception {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.map(path -> path.getFileName().toString())
+                .filter(name -> name.startsWith("history.bin.strings."))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+    
+    private static ListeningHistoryEntry entry(int id, String artist) {
+        return new ListeningHistoryEntry(id, artist, "Title", "1990", LocalDateTime.of(2024, 1, 1, 12, 0));
+    }
+}
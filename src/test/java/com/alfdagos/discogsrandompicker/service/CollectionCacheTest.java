@@ -0,0 +1,97 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.Album;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CollectionCacheTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    @Test
+    void testSaveAndLoad() {
+        CollectionCache cache = new CollectionCache(
+            tempDir.resolve("cache.json").toString(), Duration.ofMinutes(10));
+        
+        Album album = new Album.Builder()
+            .withDiscogsId(123)
+            .withTitle("Test Album")
+            .withArtists(Arrays.asList("Artist A", "Artist B"))
+            .withYear("1980")
+            .withFormats(Arrays.asList("Vinyl"))
+            .withGenres(Arrays.asList("Rock"))
+            .withStyles(Arrays.asList("Prog Rock"))
+            .withCoverImage("http://example.com/cover.jpg")
+            .build();
+        
+        cache.save("user", Arrays.asList(album));
+        
+        Optional<List<Album>> loaded = cache.load("user");
+        assertTrue(loaded.isPresent());
+        assertEquals(1, loaded.get().size());
+        
+        Album cached = loaded.get().get(0);
+        assertEquals(123, cached.getDiscogsId());
+        assertEquals("Test Album", cached.getTitle());
+        assertEquals("Artist A, Artist B", cached.getArtistsAsString());
+        assertEquals("1980", cached.getYear());
+        assertEquals("Vinyl", cached.getFormatsAsString());
+        assertEquals("Rock", cached.getGenresAsString());
+        assertEquals("Prog Rock", cached.getStylesAsString());
+        assertEquals("http://example.com/cover.jpg", cached.getCoverImage());
+    }
+    
+    @Test
+    void testSaveReplacesSnapshotWithoutLeavingTemporaryFiles() throws Exception {
+        CollectionCache cache = new CollectionCache(
+            tempDir.resolve("cache.json").toString(), Duration.ofMinutes(10));
+        
+        cache.save("user", Arrays.asList(new Album.Builder().withDiscogsId(1).build()));
+        cache.save("user", Arrays.asList(new Album.Builder().withDiscogsId(2).build()));
+        
+        assertEquals(2, cache.load("user").get().get(0).getDiscogsId());
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(List.of(tempDir.resolve("cache.json")), files.collect(Collectors.toList()));
+        }
+    }
+    
+    @Test
+    void testOtherUserIsIgnored() {
+        CollectionCache cache = new CollectionCache(
+            tempDir.resolve("cache.json").toString(), Duration.ofMinutes(10));
+        
+        cache.save("user", Arrays.asList(new Album.Builder().withDiscogsId(1).build()));
+        
+        assertFalse(cache.load("someone-else").isPresent());
+    }
+    
+    @Test
+    void testExpiredSnapshotIsIgnored() {
+        CollectionCache cache = new CollectionCache(
+            tempDir.resolve("cache.json").toString(), Duration.ofMinutes(-1));
+        
+        cache.save("user", Arrays.asList(new Album.Builder().withDiscogsId(1).build()));
+        
+        assertFalse(cache.load("user").isPresent());
+    }
+    
+    @Test
+    void testMissingFile() {
+        CollectionCache cache = new CollectionCache(
+            tempDir.resolve("missing.json").toString(), Duration.ofMinutes(10));
+        
+        assertFalse(cache.load("user").isPresent());
+    }
+}
@@ -0,0 +1,92 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.Album;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CollectionPageTest {
+    
+    private static final String PAGE = "{"
+        + "\"pagination\": {\"page\": 2, \"pages\": 7, \"per_page\": 2, \"items\": 13, \"urls\": {}},"
+        + "\"releases\": ["
+        + "  {\"id\": 11, \"instance_id\": 99, \"rating\": 0, \"notes\": [{\"field_id\": 1, \"value\": \"x\"}],"
+        + "   \"basic_information\": {\"title\": \"First\", \"year\": 1973,"
+        + "     \"artists\": [{\"name\": \"Artist A\", \"id\": 1}, {\"name\": \"Artist B\", \"id\": 2}],"
+        + "     \"formats\": [{\"name\": \"Vinyl\", \"descriptions\": [\"LP\"]}],"
+        + "     \"labels\": [{\"name\": \"Label\"}],"
+        + "     \"genres\": [\"Rock\", \"Jazz\"], \"styles\": [\"Prog Rock\"],"
+        + "     \"thumb\": \"thumb.jpg\", \"cover_image\": \"cover.jpg\"}},"
+        + "  {\"id\": 12, \"basic_information\": {\"title\": \"Second\", \"year\": 0,"
+        + "     \"thumb\": \"only-thumb.jpg\", \"styles\": []}}"
+        + "]}";
+    
+    @Test
+    void testReadsPagination() throws IOException {
+        CollectionPage page = CollectionPage.read(new StringReader(PAGE));
+        
+        assertEquals(2, page.getPage());
+        assertEquals(7, page.getPages());
+        assertEquals(13, page.getItems());
+        assertEquals(2, page.getAlbums().size());
+    }
+    
+    @Test
+    void testMatchesTreeParser() throws IOException {
+        List<Album> streamed = CollectionPage.read(new StringReader(PAGE)).getAlbums();
+        
+        JsonArray releases = new Gson().fromJson(PAGE, JsonObject.class).getAsJsonArray("releases");
+        for (int i = 0; i < releases.size(); i++) {
+            Album expected = Album.fromDiscogsJson(releases.get(i).getAsJsonObject());
+            Album actual = streamed.get(i);
+            
+            assertEquals(expected.getDiscogsId(), actual.getDiscogsId());
+            assertEquals(expected.getTitle(), actual.getTitle());
+            assertEquals(expected.getArtists(), actual.getArtists());
+            assertEquals(expected.getYear(), actual.getYear());
+            assertEquals(expected.getFormats(), actual.getFormats());
+            assertEquals(expected.getGenres(), actual.getGenres());
+            assertEquals(expected.getStyles(), actual.getStyles());
+            assertEquals(expected.getCoverImage(), actual.getCoverImage());
+        }
+    }
+    
+    @Test
+    void testStreamsAlbumsToSink() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        
+        CollectionPage page = CollectionPage.read(new StringReader(PAGE), album -> ids.add(album.getDiscogsId()));
+        
+        assertEquals(List.of(11, 12), ids);
+        assertTrue(page.getAlbums().isEmpty());
+    }
+    
+    @Test
+    void testSkipsMalformedReleases() throws IOException {
+        String page = "{\"releases\": ["
+            + "  {\"id\": 1, \"basic_information\": {\"title\": \"Good\", \"year\": 1970}},"
+            + "  {\"id\": 2, \"basic_information\": {\"year\": \"soon\", \"title\": \"Bad year\","
+            + "     \"artists\": [{\"name\": \"A\"}]}},"
+            + "  {\"id\": 3, \"basic_information\": {\"artists\": [{\"name\": \"A\"}, \"B\", {\"name\": \"C\"}],"
+            + "     \"formats\": [{\"name\": \"Vinyl\"}]}},"
+            + "  \"not a release\","
+            + "  {\"id\": 4.5},"
+            + "  {\"id\": 5, \"basic_information\": {\"title\": \"Also good\", \"genres\": [\"Rock\"]}}"
+            + "], \"pagination\": {\"page\": 3, \"pages\": 4}}";
+        
+        CollectionPage parsed = CollectionPage.read(new StringReader(page));
+        
+        assertEquals(List.of(1, 5), parsed.getAlbums().stream().map(Album::getDiscogsId).collect(Collectors.toList()));
+        assertEquals(List.of("Rock"), parsed.getAlbums().get(1).getGenres());
+        assertEquals(3, parsed.getPage());
+    }
+}
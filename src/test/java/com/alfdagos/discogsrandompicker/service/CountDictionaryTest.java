@@ -0,0 +1,31 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CountDictionaryTest {
+    
+    @Test
+    void testCountsAgreeWithHashMapAcrossRehashes() {
+        CountDictionary first = new CountDictionary();
+        CountDictionary second = new CountDictionary();
+        Map<String, Integer> expected = new HashMap<>();
+        Random random = new Random(5);
+        
+        for (int i = 0; i < 20_000; i++) {
+            // "Aa" and "BB" share a hash code, as do their concatenations
+            String key = random.nextInt(50) == 0 ? null
+                : random.nextBoolean() ? "Artist " + random.nextInt(3000) : (random.nextBoolean() ? "Aa" : "BB");
+            (i % 2 == 0 ? first : second).increment(key, 1);
+            expected.merge(key, 1, Integer::sum);
+        }
+        first.merge(second);
+        
+        assertEquals(expected, first.toMap());
+    }
+}
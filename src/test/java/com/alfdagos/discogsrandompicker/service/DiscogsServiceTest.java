@@ -0,0 +1,220 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.exception.DiscogsApiException;
+import com.alfdagos.discogsrandompicker.model.Album;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiscogsServiceTest {
+    
+    private static final int COLLECTION_SIZE = 250;
+    
+    @TempDir
+    Path tempDir;
+    
+    private HttpServer server;
+    private String baseUrl;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger rateLimitedResponses = new AtomicInteger();
+    private volatile int forcedStatus = 200;
+    private volatile boolean corruptGzip;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/users/test/collection/folders/0/releases", this::handleReleases);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+    
+    @Test
+    void testGetAllAlbumsMergesPagesInOrder() throws DiscogsApiException {
+        DiscogsService service = newService();
+        
+        List<Album> albums = service.getAllAlbums();
+        
+        assertEquals(COLLECTION_SIZE, albums.size());
+        for (int i = 0; i < COLLECTION_SIZE; i++) {
+            assertEquals(i + 1, albums.get(i).getDiscogsId());
+        }
+        assertEquals(3, requests.get());
+    }
+    
+    @Test
+    void testGetCollectionSize() throws DiscogsApiException {
+        assertEquals(COLLECTION_SIZE, newService().getCollectionSize());
+    }
+    
+    @Test
+    void testRetriesAfterRateLimit() throws DiscogsApiException {
+        rateLimitedResponses.set(1);
+        
+        List<Album> albums = newService().getAllAlbums(1, 10);
+        
+        assertEquals(10, albums.size());
+        assertEquals(2, requests.get());
+    }
+    
+    @Test
+    void testAuthenticationFailure() {
+        forcedStatus = 401;
+        
+        DiscogsApiException e = assertThrows(DiscogsApiException.class,
+            () -> newService().getCollectionSize());
+        assertEquals(401, e.getStatusCode());
+    }
+    
+    @Test
+    void testInvalidGzipIsReportedAsApiError() {
+        corruptGzip = true;
+        
+        DiscogsApiException e = assertThrows(DiscogsApiException.class,
+            () -> newService().getCollectionSize());
+        assertTrue(e.getMessage().contains("Invalid gzip response"), e.getMessage());
+    }
+    
+    @Test
+    void testCollectionIsReloadedOnceTheSnapshotExpires() throws Exception {
+        String cacheFile = tempDir.resolve("collection.json").toString();
+        CollectionCache cache = new CollectionCache(cacheFile, Duration.ofSeconds(1));
+        cache.save("test", List.of(new Album.Builder().withDiscogsId(1).build()));
+        DiscogsService service = new DiscogsService("test", "token-" + UUID.randomUUID(), cache, 4,
+            new JdkHttpTransport(), baseUrl);
+        
+        assertEquals(1, service.getCollectionIndex().getAlbums().get(0).getDiscogsId());
+        
+        // Another process refreshes the snapshot after the first one expired
+        Thread.sleep(1100);
+        cache.save("test", List.of(new Album.Builder().withDiscogsId(2).build()));
+        
+        assertEquals(2, service.getCollectionIndex().getAlbums().get(0).getDiscogsId());
+        assertEquals(0, requests.get());
+    }
+    
+    @Test
+    void testExpiredCollectionIsKeptWhenTheReloadFails() throws Exception {
+        String cacheFile = tempDir.resolve("collection.json").toString();
+        CollectionCache cache = new CollectionCache(cacheFile, Duration.ofSeconds(1));
+        cache.save("test", List.of(new Album.Builder().withDiscogsId(1).build()));
+        DiscogsService service = new DiscogsService("test", "token-" + UUID.randomUUID(), cache, 4,
+            new JdkHttpTransport(), baseUrl);
+        
+        assertEquals(1, service.getCollectionIndex().getAlbums().get(0).getDiscogsId());
+        
+        Thread.sleep(1100);
+        forcedStatus = 500;
+        
+        assertEquals(1, service.getCollectionIndex().getAlbums().get(0).getDiscogsId());
+        assertTrue(requests.get() > 0);
+        
+        // The failed reload is not retried on every call
+        int requestsAfterFailure = requests.get();
+        assertEquals(1, service.getCollectionIndex().getAlbums().get(0).getDiscogsId());
+        assertEquals(requestsAfterFailure, requests.get());
+    }
+    
+    private DiscogsService newService() {
+        // A fresh token per test keeps the shared rate limiter state isolated
+        return new DiscogsService("test", "token-" + UUID.randomUUID(), null, 4,
+            new JdkHttpTransport(), baseUrl);
+    }
+    
+    private void handleReleases(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        
+        if (rateLimitedResponses.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            exchange.getResponseHeaders().add("Retry-After", "0");
+            exchange.sendResponseHeaders(429, -1);
+            exchange.close();
+            return;
+        }
+        
+        if (forcedStatus != 200) {
+            exchange.sendResponseHeaders(forcedStatus, -1);
+            exchange.close();
+            return;
+        }
+        
+        String query = exchange.getRequestURI().getQuery();
+        int page = queryParam(query, "page", 1);
+        int perPage = queryParam(query, "per_page", 50);
+        int pages = (COLLECTION_SIZE + perPage - 1) / perPage;
+        
+        StringBuilder json = new StringBuilder();
+        json.append("{\"pagination\":{\"page\":").append(page)
+            .append(",\"pages\":").append(pages)
+            .append(",\"per_page\":").append(perPage)
+            .append(",\"items\":").append(COLLECTION_SIZE)
+            .append("},\"releases\":[");
+        int first = (page - 1) * perPage + 1;
+        int last = Math.min(COLLECTION_SIZE, page * perPage);
+        for (int id = first; id <= last; id++) {
+            if (id > first) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(id)
+                .append(",\"basic_information\":{\"title\":\"Album ").append(id)
+                .append("\",\"year\":").append(1960 + id % 60)
+                .append(",\"artists\":[{\"name\":\"Artist ").append(id % 7).append("\"}]")
+                .append(",\"formats\":[{\"name\":\"Vinyl\"}],\"genres\":[\"Rock\"],\"styles\":[]}}");
+        }
+        json.append("]}");
+        
+        // Exercise the gzip path of the transport
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        if (corruptGzip) {
+            compressed.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        } else {
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(json.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        exchange.getResponseHeaders().add("X-Discogs-Ratelimit", "60");
+        exchange.getResponseHeaders().add("X-Discogs-Ratelimit-Remaining", "59");
+        exchange.sendResponseHeaders(200, compressed.size());
+        try (OutputStream out = exchange.getResponseBody()) {
+            compressed.writeTo(out);
+        }
+    }
+    
+    private static int queryParam(String query, String name, int defaultValue) {
+        if (query == null) {
+            return defaultValue;
+        }
+        for (String pair : query.split("&")) {
+            String[] parts = pair.split("=", 2);
+            if (parts[0].equals(name) && parts.length == 2) {
+                return Integer.parseInt(parts[1]);
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,323 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.exception.HistoryException;
+import com.alfdagos.discogsrandompicker.model.DateRange;
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExportServiceTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private Path historyPath;
+    
+    @BeforeEach
+    void setUp() throws HistoryException {
+        historyPath = tempDir.resolve("history.jsonl");
+        ListeningHistoryEntry rated = new ListeningHistoryEntry(
+            1, "Simon & \"Garfunkel\"", "<Bookends> | Side A", "1968", LocalDateTime.of(2024, 3, 5, 9, 7));
+        rated.setRating(3);
+        rated.setNotes("Said \"wow\"");
+        new HistoryService(historyPath.toString()).addAll(List.of(
+            rated,
+            new ListeningHistoryEntry(22, "Miles Davis", "Kind of Blue", null, LocalDateTime.of(2024, 4, 1, 23, 59))));
+    }
+    
+    @Test
+    void testCsvEscapesQuotesAndKeepsEmptyFields() throws Exception {
+        Path file = tempDir.resolve("history.csv");
+        
+        // A fresh service has no snapshot, so entries are streamed from the file
+        new ExportService(new HistoryService(historyPath.toString())).exportToCsv(file.toString());
+        
+        assertEquals("Discogs ID,Artist,Title,Year,Listened Date,Rating,Notes\n"
+            + "1,\"Simon & \"\"Garfunkel\"\"\",\"<Bookends> | Side A\",\"1968\",\"2024-03-05 09:07\",3,\"Said \"\"wow\"\"\"\n"
+            + "22,\"Miles Davis\",\"Kind of Blue\",\"Unknown\",\"2024-04-01 23:59\",,\"\"\n", read(file));
+    }
+    
+    @Test
+    void testHtmlEscapesMarkupAndTotalsAfterTable() throws Exception {
+        Path file = tempDir.resolve("history.html");
+        
+        new ExportService(new HistoryService(historyPath.toString())).exportToHtml(file.toString());
+        
+        String html = read(file);
+        assertTrue(html.contains("<tr><td>Simon &amp; &quot;Garfunkel&quot;</td><td>&lt;Bookends&gt; | Side A</td>"
+            + "<td>1968</td><td>2024-03-05 09:07</td><td class=\"rating\">★★★</td></tr>\n"));
+        assertTrue(html.endsWith("</table>\n<p>Total albums: <strong>2</strong></p>\n</body>\n</html>"));
+    }
+    
+    @Test
+    void testMarkdownExportsOnlyRange() throws Exception {
+        Path file = tempDir.resolve("history.md");
+        
+        new ExportService(new HistoryService(historyPath.toString()))
+            .exportToMarkdown(file.toString(), DateRange.parse("2024-03-01", "2024-03-31"));
+        
+        assertEquals("# 🎵 Listening History\n\n"
+            + "| Artist | Title | Year | Date | Rating |\n"
+            + "|--------|-------|------|------|--------|\n"
+            + "| Simon & \"Garfunkel\" | <Bookends> \\| Side A | 1968 | 2024-03-05 09:07 | ★★★ |\n"
+            + "\nTotal albums: **1**\n", read(file));
+    }
+    
+    @Test
+    void testParallelExportIsByteIdentical() throws Exception {
+        // Several chunks, with escaping, missing values and characters outside the BMP
+        List<ListeningHistoryEntry> entries = new ArrayList<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 30_000; i++) {
+            ListeningHistoryEntry entry = new ListeningHistoryEntry(i, "Artist \"" + random.nextInt(500) + "\" & <co>",
+                "Title | 🎸 " + i, i % 11 == 0 ? null : String.valueOf(1950 + i % 70),
+                LocalDateTime.of(2020, 1, 1, 0, 0).plusMinutes(random.nextInt(2_000_000)));
+            if (i % 3 == 0) {
+                entry.setRating(1 + i % 5);
+            }
+            if (i % 7 == 0) {
+                entry.setNotes("note, \"" + i + "\"");
+            }
+            entries.add(entry);
+        }
+        HistoryService historyService = new HistoryService(tempDir.resolve("large.jsonl").toString());
+        historyService.addAll(entries);
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ExportService sequential = new ExportService(historyService);
+            ExportService parallel = new ExportService(historyService, pool);
+            for (ExportFormat format : ExportFormat.values()) {
+                Path expected = tempDir.resolve("sequential." + format);
+                Path actual = tempDir.resolve("parallel." + format);
+                export(sequential, format, expected);
+                export(parallel, format, actual);
+                
+                assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual), format.getLabel());
+            }
+            
+            // An empty range still gets its header and footer
+            Path expected = tempDir.resolve("sequential-empty.html");
+            Path actual = tempDir.resolve("parallel-empty.html");
+            sequential.exportToHtml(expected.toString(), DateRange.parse("1990", "1990"));
+            parallel.exportToHtml(actual.toString(), DateRange.parse("1990", "1990"));
+            assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual));
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    void testCompressedExportsDecompressToPlainOutput() throws Exception {
+        List<ListeningHistoryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            entries.add(new ListeningHistoryEntry(i, "Artist " + i % 300, "Title " + i, "1977",
+                LocalDateTime.of(2021, 1, 1, 0, 0).plusMinutes(i)));
+        }
+        HistoryService historyService = new HistoryService(tempDir.resolve("large.jsonl").toString());
+        historyService.addAll(entries);
+        
+        Path csv = tempDir.resolve("plain.csv");
+        Path json = tempDir.resolve("plain.jsonl");
+        ExportService sequential = new ExportService(historyService);
+        sequential.exportToCsv(csv.toString());
+        sequential.exportToJson(json.toString());
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // Chunks compressed in parallel form a stream of members or frames
+            for (ExportService service : List.of(sequential, new ExportService(historyService, pool))) {
+                for (ExportService.Compression compression : ExportService.Compression.values()) {
+                    Path compressedCsv = tempDir.resolve("export.csv" + compression.getExtension());
+                    Path compressedJson = tempDir.resolve("export.jsonl" + compression.getExtension());
+                    service.exportToCsv(compressedCsv.toString(), DateRange.ALL, compression);
+                    service.exportToJson(compressedJson.toString(), DateRange.ALL, compression);
+                    
+                    assertArrayEquals(Files.readAllBytes(csv), decompress(compressedCsv, compression));
+                    assertArrayEquals(Files.readAllBytes(json), decompress(compressedJson, compression));
+                    if (compression != ExportService.Compression.NONE) {
+                        assertTrue(Files.size(compressedCsv) < Files.size(csv) / 4);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    void testIncrementalExportAppendsOnlyNewEntries() throws Exception {
+        HistoryService historyService = new HistoryService(historyPath.toString());
+        ExportService exportService = new ExportService(historyService);
+        Path csv = tempDir.resolve("nightly.csv");
+        Path zstd = tempDir.resolve("nightly.jsonl.zst");
+        Path full = tempDir.resolve("full.csv");
+        Path fullJson = tempDir.resolve("full.jsonl");
+        
+        assertEquals(2, exportService.exportToCsvIncrementally(csv.toString(), ExportService.Compression.NONE));
+        assertEquals(2, exportService.exportToJsonIncrementally(zstd.toString(), ExportService.Compression.ZSTD));
+        assertEquals(0, exportService.exportToCsvIncrementally(csv.toString(), ExportService.Compression.NONE));
+        
+        historyService.addAll(List.of(
+            new ListeningHistoryEntry(3, "Nick Drake", "Pink Moon", "1972", LocalDateTime.of(2024, 4, 2, 8, 0)),
+            new ListeningHistoryEntry(4, "Can", "Tago Mago", "1971", LocalDateTime.of(2024, 4, 3, 21, 30))));
+        
+        assertEquals(2, exportService.exportToCsvIncrementally(csv.toString(), ExportService.Compression.NONE));
+        assertEquals(2, exportService.exportToJsonIncrementally(zstd.toString(), ExportService.Compression.ZSTD));
+        exportService.exportToCsv(full.toString());
+        exportService.exportToJson(fullJson.toString());
+        assertEquals(read(full), read(csv));
+        assertArrayEquals(Files.readAllBytes(fullJson), decompress(zstd, ExportService.Compression.ZSTD));
+        
+        // A file changed since the checkpoint is written again in full
+        Files.writeString(csv, "edited\n", StandardOpenOption.APPEND);
+        assertEquals(4, exportService.exportToCsvIncrementally(csv.toString(), ExportService.Compression.NONE));
+        assertEquals(read(full), read(csv));
+    }
+    
+    @Test
+    void testIncrementalExportFollowsAddedOrder() throws Exception {
+        for (HistoryStore store : List.of(new JsonLinesHistoryStore(tempDir.resolve("added.jsonl")),
+                new BinaryHistoryStore(tempDir.resolve("added.bin")))) {
+            HistoryService historyService = new HistoryService(store);
+            ExportService exportService = new ExportService(historyService);
+            Path csv = tempDir.resolve(store.getPath().getFileName() + ".csv");
+            Path full = tempDir.resolve("full.csv");
+            ListeningHistoryEntry latest =
+                new ListeningHistoryEntry(4, "Can", "Tago Mago", "1971", LocalDateTime.of(2024, 4, 3, 21, 30));
+            historyService.addToHistory(latest);
+            assertEquals(1, exportService.exportToCsvIncrementally(csv.toString(), ExportService.Compression.NONE));
+            
+            // An older import and the same listen logged twice come after the last entry exported
+            historyService.addAll(List.of(
+                new ListeningHistoryEntry(3, "Nick Drake", "Pink Moon", "1972", LocalDateTime.of(2020, 1, 2, 8, 0)),
+                latest));
+            assertEquals(2, exportService.exportToCsvIncrementally(csv.toString(), ExportService.Compression.NONE));
+            assertEquals(4, read(csv).split("\n").length);
+            assertTrue(read(csv).contains("Pink Moon"));
+            
+            // Compacting rewrites the history in date order, so it is exported again in full
+            historyService.compactHistory();
+            assertEquals(3, exportService.exportToCsvIncrementally(csv.toString(), ExportService.Compression.NONE));
+            exportService.exportToCsv(full.toString());
+            assertEquals(read(full), read(csv));
+        }
+    }
+    
+    @Test
+    void testIncrementalExportWithoutAddedOrderExportsChangesInFull() throws Exception {
+        HistoryService historyService = new HistoryService(new SegmentedHistoryStore(tempDir.resolve("segments")));
+        historyService.addAll(List.of(
+            new ListeningHistoryEntry(4, "Can", "Tago Mago", "1971", LocalDateTime.of(2024, 4, 3, 21, 30)),
+            new ListeningHistoryEntry(3, "Nick Drake", "Pink Moon", "1972", LocalDateTime.of(2020, 1, 2, 8, 0))));
+        ExportService exportService = new ExportService(historyService);
+        Path csv = tempDir.resolve("segments.csv");
+        Path full = tempDir.resolve("segments-full.csv");
+        
+        assertEquals(2, exportService.exportToCsvIncrementally(csv.toString(), ExportService.Compression.NONE));
+        assertEquals(0, exportService.exportToCsvIncrementally(csv.toString(), ExportService.Compression.NONE));
+        
+        // Segments are read by period, so nothing marks where the older import was added
+        historyService.addToHistory(
+            new ListeningHistoryEntry(5, "Neu!", "Neu!", "1972", LocalDateTime.of(2019, 6, 1, 20, 0)));
+        assertEquals(3, exportService.exportToCsvIncrementally(csv.toString(), ExportService.Compression.NONE));
+        exportService.exportToCsv(full.toString());
+        assertEquals(read(full), read(csv));
+    }
+    
+    @Test
+    void testPagedHtmlExportSplitsRowsIntoScripts() throws Exception {
+        List<ListeningHistoryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 2_500; i++) {
+            entries.add(new ListeningHistoryEntry(i, "Artist \"" + i + "\" \\ \u2028 </script>", "Title " + i, "1999",
+                LocalDateTime.of(2022, 1, 1, 0, 0).plusHours(i)));
+        }
+        HistoryService historyService = new HistoryService(tempDir.resolve("large.jsonl").toString());
+        historyService.addAll(entries);
+        Path pages = tempDir.resolve("pages");
+        Path parallelPages = tempDir.resolve("parallel-pages");
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(2_500, new ExportService(historyService).exportToHtmlPages(pages.toString(), DateRange.ALL));
+            new ExportService(historyService, pool).exportToHtmlPages(parallelPages.toString(), DateRange.ALL);
+        } finally {
+            pool.shutdown();
+        }
+        
+        assertTrue(Files.exists(pages.resolve("index.html")));
+        assertEquals("historyManifest({\"total\":2500,\"pageSize\":1000,\"pages\":3});\n",
+            read(pages.resolve("data/manifest.js")));
+        for (int page = 0; page < 3; page++) {
+            String script = read(pages.resolve("data/page-" + page + ".js"));
+            assertEquals(script, read(parallelPages.resolve("data/page-" + page + ".js")));
+            
+            String prefix = "historyPage(" + page + ",";
+            assertTrue(script.startsWith(prefix) && script.endsWith(");\n"));
+            JsonArray rows = JsonParser.parseString(script.substring(prefix.length(), script.length() - 3))
+                .getAsJsonArray();
+            JsonArray first = rows.get(0).getAsJsonArray();
+            assertEquals(entries.get(page * 1000).getArtist(), first.get(0).getAsString());
+            assertEquals(page < 2 ? 1000 : 500, rows.size());
+        }
+        assertFalse(read(pages.resolve("data/page-0.js")).contains("\u2028"));
+        
+        // A smaller export leaves no stale pages behind
+        assertEquals(24, new ExportService(historyService).exportToHtmlPages(pages.toString(),
+            DateRange.parse("2022-01-01", "2022-01-01")));
+        assertTrue(Files.exists(pages.resolve("data/page-0.js")));
+        assertFalse(Files.exists(pages.resolve("data/page-1.js")));
+    }
+    
+    private static byte[] decompress(Path file, ExportService.Compression compression) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            switch (compression) {
+                case GZIP:
+                    return new GZIPInputStream(in).readAllBytes();
+                case ZSTD:
+                    return new ZstdInputStream(in).readAllBytes();
+                default:
+                    return in.readAllBytes();
+            }
+        }
+    }
+    
+    private static void export(ExportService service, ExportFormat format, Path file) throws HistoryException {
+        switch (format) {
+            case CSV:
+                service.exportToCsv(file.toString());
+                break;
+            case HTML:
+                service.exportToHtml(file.toString());
+                break;
+            case MARKDOWN:
+                service.exportToMarkdown(file.toString());
+                break;
+            default:
+                service.exportToJson(file.toString());
+        }
+    }
+    
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,120 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Hammers one history file from several processes and threads at once.
+ */
+class HistoryServiceConcurrencyTest {
+    
+    private static final int PROCESSES = 3;
+    private static final int THREADS = 6;
+    private static final int APPENDS_PER_WRITER = 40;
+    
+    @TempDir
+    Path tempDir;
+    
+    @Test
+    void testConcurrentAppendsFromProcessesAndThreadsAreAllKept() throws Exception {
+        Path historyFile = tempDir.resolve("history.json");
+        
+        List<Process> processes = new ArrayList<>();
+        for (int p = 0; p < PROCESSES; p++) {
+            processes.add(startAppendProcess(historyFile, 1_000_000 * (p + 1)));
+        }
+        
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int firstId = 1000 * (t + 1);
+                // A separate instance per thread, so only the file lock keeps them apart
+                HistoryService service = new HistoryService(historyFile.toString());
+                writers.add(executor.submit(() -> {
+                    appendEntries(service, firstId, APPENDS_PER_WRITER);
+                    return null;
+                }));
+            }
+            
+            // Rewrites racing with the appends must not drop any of them
+            Future<?> compactor = executor.submit(() -> {
+                HistoryService service = new HistoryService(historyFile.toString());
+                while (writing.get()) {
+                    service.compactHistory();
+                    Thread.sleep(5);
+                }
+                return null;
+            });
+            
+            for (Future<?> writer : writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+            for (Process process : processes) {
+                assertTrue(process.waitFor(60, TimeUnit.SECONDS), "append process timed out");
+                assertEquals(0, process.exitValue(), new String(process.getInputStream().readAllBytes()));
+            }
+            writing.set(false);
+            compactor.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+            processes.forEach(Process::destroyForcibly);
+        }
+        
+        List<ListeningHistoryEntry> history = new HistoryService(historyFile.toString()).loadHistory();
+        Set<Integer> ids = new HashSet<>();
+        for (ListeningHistoryEntry entry : history) {
+            assertTrue(ids.add(entry.getDiscogsId()), "duplicate entry " + entry.getDiscogsId());
+        }
+        assertEquals((PROCESSES + THREADS) * APPENDS_PER_WRITER, history.size());
+        
+        for (String line : Files.readAllLines(historyFile)) {
+            assertTrue(line.startsWith("{") && line.endsWith("}"), "torn line: " + line);
+        }
+    }
+    
+    private Process startAppendProcess(Path historyFile, int firstId) throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                AppendProcess.class.getName(), historyFile.toString(),
+                String.valueOf(firstId), String.valueOf(APPENDS_PER_WRITER))
+            .directory(tempDir.toFile())
+            .redirectErrorStream(true)
+            .start();
+    }
+    
+    private static void appendEntries(HistoryService service, int firstId, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            service.addToHistory(new ListeningHistoryEntry(
+                firstId + i, "Artist " + firstId, "Title " + i, "1990", LocalDateTime.now()));
+        }
+    }
+    
+    /**
+     * Entry point of the child processes: appends entries with consecutive IDs.
+     */
+    static class AppendProcess {
+        public static void main(String[] args) throws Exception {
+            HistoryService service = new HistoryService(args[0]);
+            appendEntries(service, Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+        }
+    }
+}
@@ -8,8 +8,15 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -18,11 +25,13 @@ class HistoryServiceTest {
     @TempDir
     Path tempDir;
     
+    private Path historyPath;
     private HistoryService historyService;
     
     @BeforeEach
     void setUp() {
         File historyFile = tempDir.resolve("test_history.json").toFile();
+        historyPath = historyFile.toPath();
         historyService = new HistoryService(historyFile.getAbsolutePath());
     }
     
@@ -84,4 +93,200 @@ class HistoryServiceTest {
         historyService.clearHistory();
         assertEquals(0, historyService.loadHistory().size());
     }
+    
+    @Test
+    void testEntriesAreAppendedOnePerLine() throws Exception {
+        ListeningHistoryEntry entry = new ListeningHistoryEntry(
+            7, "Artist", "Title", "1999", LocalDateTime.of(2024, 5, 1, 20, 30));
+        entry.setNotes("first line\nsecond line");
+        entry.setRating(4);
+        
+        historyService.addToHistory(entry);
+        historyService.addToHistory(new Album.Builder().withDiscogsId(8).withTitle("Other").build());
+        
+        List<String> lines = Files.readAllLines(historyPath, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("{"));
+        
+        ListeningHistoryEntry loaded = historyService.loadHistory().get(0);
+        assertEquals(entry.getListenedDate(), loaded.getListenedDate());
+        assertEquals("first line\nsecond line", loaded.getNotes());
+        assertEquals(4, loaded.getRating());
+    }
+    
+    @Test
+    void testLegacyArrayIsReadAndMigratedOnAppend() throws Exception {
+        writeLegacyHistory();
+        
+        assertEquals(2, historyService.loadHistory().size());
+        assertEquals(1, historyService.getListenCount(1));
+        
+        historyService.addToHistory(new Album.Builder().withDiscogsId(3).withTitle("Third").build());
+        
+        List<String> lines = Files.readAllLines(historyPath, StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertTrue(lines.stream().allMatch(line -> line.startsWith("{")));
+        
+        List<ListeningHistoryEntry> history = historyService.loadHistory();
+        assertEquals(3, history.size());
+        assertEquals(5, history.get(0).getRating());
+        assertEquals(3, history.get(2).getDiscogsId());
+    }
+    
+    @Test
+    void testPartialLastLineIsSkippedAndCompactedAway() throws Exception {
+        historyService.addToHistory(new Album.Builder().withDiscogsId(1).withTitle("One").build());
+        Files.writeString(historyPath, "{\"discogs_id\": 2, \"art", StandardCharsets.UTF_8,
+            StandardOpenOption.APPEND);
+        
+        assertEquals(1, historyService.loadHistory().size());
+        
+        // The next entry starts on its own line rather than extending the torn one
+        historyService.addToHistory(new Album.Builder().withDiscogsId(3).withTitle("Three").build());
+        assertEquals(2, historyService.loadHistory().size());
+        
+        assertEquals(2, historyService.compactHistory());
+        assertEquals(2, Files.readAllLines(historyPath, StandardCharsets.UTF_8).size());
+        assertEquals(3, historyService.loadHistory().get(1).getDiscogsId());
+    }
+    
+    @Test
+    void testCompactConvertsLegacyArray() throws Exception {
+        writeLegacyHistory();
+        
+        assertEquals(2, historyService.compactHistory());
+        
+        List<String> lines = Files.readAllLines(historyPath, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertEquals("Second", historyService.loadHistory().get(1).getTitle());
+    }
+    
+    @Test
+    void testSnapshotIsReusedAndExtendedByOwnAppends() throws Exception {
+        historyService.addToHistory(new Album.Builder().withDiscogsId(1).withTitle("One").build());
+        List<ListeningHistoryEntry> first = historyService.getHistory();
+        assertSame(first, historyService.getHistory());
+        
+        historyService.addToHistory(new Album.Builder().withDiscogsId(1).withTitle("One").build());
+        assertEquals(2, historyService.getHistory().size());
+        assertEquals(2, historyService.getListenCount(1));
+        assertThrows(UnsupportedOperationException.class, () -> historyService.getHistory().clear());
+    }
+    
+    @Test
+    void testAppendsLeaveEarlierHistoryUnchanged() throws Exception {
+        List<ListeningHistoryEntry> batch = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            batch.add(new ListeningHistoryEntry(i % 10, "Artist", "Title " + i, "1970",
+                LocalDateTime.of(2024, 1, 1, 0, 0).plusMinutes(i)));
+        }
+        historyService.addAll(batch.subList(0, 4000));
+        List<ListeningHistoryEntry> before = historyService.getHistory();
+        
+        // Crosses into a new chunk of the shared log
+        historyService.addAll(batch.subList(4000, 5000));
+        List<ListeningHistoryEntry> after = historyService.getHistory();
+        
+        assertEquals(4000, before.size());
+        assertEquals(5000, after.size());
+        assertEquals(batch, after);
+        assertEquals(batch.subList(0, 4000), before);
+        assertEquals(500, historyService.getListenCount(3));
+    }
+    
+    @Test
+    void testChangesByAnotherInstanceInvalidateSnapshot() throws Exception {
+        HistoryService other = new HistoryService(historyPath.toString());
+        historyService.addToHistory(new Album.Builder().withDiscogsId(1).withTitle("One").build());
+        assertEquals(1, other.getListenCount(1));
+        
+        historyService.addToHistory(new Album.Builder().withDiscogsId(1).withTitle("One").build());
+        assertEquals(2, other.getListenCount(1));
+        assertTrue(other.isInHistory(new Album.Builder().withDiscogsId(1).build()));
+        
+        historyService.clearHistory();
+        assertEquals(0, other.getListenCount(1));
+        assertFalse(other.isInHistory(new Album.Builder().withDiscogsId(1).build()));
+    }
+    
+    @Test
+    void testRecentHistoryIsReadFromTheEndOfTheFile() throws Exception {
+        List<ListeningHistoryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ListeningHistoryEntry entry = new ListeningHistoryEntry(
+                i, "Artist", "Title " + i, "1990", LocalDateTime.of(2024, 1, 1, 0, 0).plusHours(i));
+            // Long lines so that some of them cross the blocks the file is scanned in
+            entry.setNotes("é".repeat(700 + i));
+            entries.add(entry);
+        }
+        historyService.addAll(entries);
+        Files.writeString(historyPath, "{\"discogs_id\": 200, \"art", StandardCharsets.UTF_8,
+            StandardOpenOption.APPEND);
+        
+        HistoryService cold = new HistoryService(new JsonLinesHistoryStore(historyPath) {
+            @Override
+            public List<ListeningHistoryEntry> readAll() {
+                throw new AssertionError("recent history should not read the whole file");
+            }
+        });
+        List<ListeningHistoryEntry> recent = cold.getRecentHistory(3);
+        assertEquals(List.of(199, 198, 197), recent.stream()
+            .map(ListeningHistoryEntry::getDiscogsId).collect(Collectors.toList()));
+        assertEquals("é".repeat(899), recent.get(0).getNotes());
+        
+        List<ListeningHistoryEntry> all = new HistoryService(historyPath.toString()).getRecentHistory(1000);
+        assertEquals(200, all.size());
+        assertEquals(0, all.get(199).getDiscogsId());
+        assertEquals("é".repeat(700), all.get(199).getNotes());
+    }
+    
+    @Test
+    void testRecentHistoryUsesCurrentSnapshot() throws Exception {
+        historyService.addToHistory(new Album.Builder().withDiscogsId(1).withTitle("One").build());
+        historyService.addToHistory(new Album.Builder().withDiscogsId(2).withTitle("Two").build());
+        historyService.getHistory();
+        
+        assertEquals(2, historyService.getRecentHistory(1).get(0).getDiscogsId());
+        assertTrue(historyService.getRecentHistory(0).isEmpty());
+        
+        writeLegacyHistory();
+        List<ListeningHistoryEntry> recent = historyService.getRecentHistory(5);
+        assertEquals(2, recent.size());
+        assertEquals("Second", recent.get(0).getTitle());
+    }
+    
+    @Test
+    void testCompactSortsByListenedDate() throws Exception {
+        historyService.addAll(List.of(
+            new ListeningHistoryEntry(1, "Artist", "Late", "1990", LocalDateTime.of(2024, 3, 1, 0, 0)),
+            new ListeningHistoryEntry(2, "Artist", "Early", "1990", LocalDateTime.of(2024, 1, 1, 0, 0)),
+            new ListeningHistoryEntry(3, "Artist", "Middle", "1990", LocalDateTime.of(2024, 2, 1, 0, 0))));
+        assertEquals(3, historyService.getRecentHistory(1).get(0).getDiscogsId());
+        
+        historyService.compactHistory();
+        
+        assertEquals(List.of(2, 3, 1), historyService.getHistory().stream()
+            .map(ListeningHistoryEntry::getDiscogsId).collect(Collectors.toList()));
+        assertEquals(1, new HistoryService(historyPath.toString()).getRecentHistory(1).get(0).getDiscogsId());
+    }
+    
+    private void writeLegacyHistory() throws IOException {
+        Files.writeString(historyPath, "[\n"
+            + "  {\n"
+            + "    \"discogs_id\": 1,\n"
+            + "    \"artist\": \"Artist\",\n"
+            + "    \"title\": \"First\",\n"
+            + "    \"year\": \"1975\",\n"
+            + "    \"listened_date\": \"2023-01-02T10:00:00\",\n"
+            + "    \"rating\": 5\n"
+            + "  },\n"
+            + "  {\n"
+            + "    \"discogs_id\": 2,\n"
+            + "    \"artist\": \"Artist\",\n"
+            + "    \"title\": \"Second\",\n"
+            + "    \"year\": \"1977\",\n"
+            + "    \"listened_date\": \"2023-01-03T10:00:00\"\n"
+            + "  }\n"
+            + "]", StandardCharsets.UTF_8);
+    }
 }
@@ -0,0 +1,198 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.exception.HistoryException;
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryWriterTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private CountingHistoryService historyService;
+    
+    @BeforeEach
+    void setUp() {
+        historyService = new CountingHistoryService(tempDir.resolve("history.json").toString());
+    }
+    
+    @Test
+    void testEntriesFromManyThreadsAreWrittenInFewBatches() throws Exception {
+        int threads = 4;
+        int perThread = 500;
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (HistoryWriter writer = new HistoryWriter(historyService)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int firstId = t * perThread;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        writer.submit(entry(firstId + i));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        assertEquals(threads * perThread, historyService.getHistory().size());
+        assertTrue(historyService.batches.get() < threads * perThread / 10,
+            "expected grouped writes, got " + historyService.batches.get() + " batches");
+    }
+    
+    @Test
+    void testFlushWaitsForSubmittedEntries() throws Exception {
+        try (HistoryWriter writer = new HistoryWriter(historyService, 100, Duration.ofMillis(50))) {
+            writer.submit(entry(1));
+            writer.submit(entry(2));
+            writer.flush();
+            
+            assertEquals(2, new HistoryService(tempDir.resolve("history.json").toString()).getHistory().size());
+        }
+    }
+    
+    @Test
+    void testSubmitBlocksWhileQueueIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        historyService.gate = release;
+        
+        HistoryWriter writer = new HistoryWriter(historyService, 1, Duration.ZERO);
+        writer.submit(entry(1));
+        // The writer thread now holds entry 1 at the gate; entry 2 fills the queue
+        historyService.entered.await(5, TimeUnit.SECONDS);
+        writer.submit(entry(2));
+        
+        Thread blocked = new Thread(() -> {
+            try {
+                writer.submit(entry(3));
+            } catch (HistoryException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        blocked.start();
+        blocked.join(200);
+        assertTrue(blocked.isAlive(), "submit should block on a full queue");
+        
+        release.countDown();
+        blocked.join(5000);
+        assertFalse(blocked.isAlive());
+        
+        writer.close();
+        assertEquals(3, historyService.getHistory().size());
+    }
+    
+    @Test
+    void testWriteFailureIsReported() throws Exception {
+        historyService.fail = true;
+        
+        HistoryWriter writer = new HistoryWriter(historyService);
+        writer.submit(entry(1));
+        
+        assertThrows(HistoryException.class, writer::flush);
+        assertThrows(HistoryException.class, () -> writer.submit(entry(2)));
+        assertThrows(HistoryException.class, writer::close);
+    }
+    
+    @Test
+    void testThreadStoppedByAnErrorFailsInsteadOfHanging() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        historyService.gate = release;
+        historyService.error = new InternalError("broken");
+        
+        HistoryWriter writer = new HistoryWriter(historyService, 10, Duration.ZERO);
+        writer.submit(entry(1));
+        historyService.entered.await(5, TimeUnit.SECONDS);
+        // Still queued when the error stops the thread
+        writer.submit(entry(2));
+        release.countDown();
+        
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            HistoryException flushed = assertThrows(HistoryException.class, writer::flush);
+            assertTrue(flushed.getCause().getCause() instanceof InternalError);
+            assertThrows(HistoryException.class, () -> writer.submit(entry(3)));
+            assertThrows(HistoryException.class, writer::close);
+        });
+    }
+    
+    @Test
+    void testSubmitAfterCloseIsRejected() throws Exception {
+        HistoryWriter writer = new HistoryWriter(historyService);
+        writer.submit(entry(1));
+        writer.close();
+        writer.close();
+        
+        assertEquals(1, historyService.getHistory().size());
+        assertThrows(HistoryException.class, () -> writer.submit(entry(2)));
+    }
+    
+    @Test
+    void testAddAllWritesEntriesInOrder() throws Exception {
+        historyService.addAll(List.of(entry(1), entry(2), entry(3)));
+        historyService.addAll(List.of());
+        
+        List<ListeningHistoryEntry> history = historyService.getHistory();
+        assertEquals(3, history.size());
+        assertEquals(3, history.get(2).getDiscogsId());
+        assertEquals(1, historyService.batches.get());
+    }
+    
+    private static ListeningHistoryEntry entry(int id) {
+        return new ListeningHistoryEntry(id, "Artist", "Title " + id, "1990", LocalDateTime.now());
+    }
+    
+    private static class CountingHistoryService extends HistoryService {
+        final AtomicInteger batches = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        volatile CountDownLatch gate;
+        volatile boolean fail;
+        volatile Error error;
+        
+        CountingHistoryService(String historyFile) {
+            super(historyFile);
+        }
+        
+        @Override
+        public void addAll(Collection<ListeningHistoryEntry> entries) throws HistoryException {
+            entered.countDown();
+            if (gate != null) {
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (fail) {
+                throw new HistoryException("disk full");
+            }
+            if (error != null) {
+                throw error;
+            }
+            if (!entries.isEmpty()) {
+                batches.incrementAndGet();
+            }
+            super.addAll(entries);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.Album;
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PickerServerTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private HistoryService historyService;
+    private PickerServer server;
+    private HttpClient client;
+    private String baseUrl;
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        // A fresh snapshot means picks never reach the Discogs API
+        CollectionCache cache = new CollectionCache(tempDir.resolve("collection.json").toString(), Duration.ofDays(1));
+        cache.save("test", List.of(
+            album(1, "Pink Floyd", "Animals", "1977", "Rock"),
+            album(2, "Miles Davis", "Kind of Blue", "1959", "Jazz")));
+        
+        historyService = new HistoryService(tempDir.resolve("history.jsonl").toString());
+        historyService.addToHistory(new ListeningHistoryEntry(
+            1, "Pink Floyd", "Animals", "1977", LocalDateTime.of(2024, 3, 5, 9, 7)));
+        
+        server = new PickerServer(new DiscogsService("test", "token", cache), historyService,
+            new StatisticsService(historyService), new ExportService(historyService), 0, 4);
+        server.start();
+        client = HttpClient.newHttpClient();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+    
+    @Test
+    void testPickAppliesFiltersAndReportsListens() throws Exception {
+        HttpResponse<String> response = get("/pick?genre=rock");
+        
+        assertEquals(200, response.statusCode());
+        JsonObject json = JsonParser.parseString(response.body()).getAsJsonObject();
+        assertEquals(1, json.getAsJsonObject("album").get("discogs_id").getAsInt());
+        assertEquals("Animals", json.getAsJsonObject("album").get("title").getAsString());
+        assertEquals(1, json.get("match_count").getAsInt());
+        assertEquals(2, json.get("collection_size").getAsInt());
+        assertEquals(1, json.get("listen_count").getAsInt());
+    }
+    
+    @Test
+    void testAddAndListHistory() throws Exception {
+        HttpResponse<String> added = send(HttpRequest.newBuilder(URI.create(baseUrl + "/history"))
+            .POST(HttpRequest.BodyPublishers.ofString("{\"discogs_id\": 2, \"rating\": 5}")).build());
+        assertEquals(201, added.statusCode());
+        
+        HttpResponse<String> response = get("/history?limit=1");
+        
+        assertEquals(200, response.statusCode());
+        JsonArray entries = JsonParser.parseString(response.body()).getAsJsonArray();
+        assertEquals(1, entries.size());
+        assertEquals("Kind of Blue", entries.get(0).getAsJsonObject().get("title").getAsString());
+        assertEquals(5, entries.get(0).getAsJsonObject().get("rating").getAsInt());
+        assertEquals(2, historyService.getHistory().size());
+    }
+    
+    @Test
+    void testStatsForPeriod() throws Exception {
+        HttpResponse<String> response = get("/stats?from=2024&to=2024");
+        
+        assertEquals(200, response.statusCode());
+        JsonObject json = JsonParser.parseString(response.body()).getAsJsonObject();
+        assertEquals(1, json.getAsJsonObject("statistics").get("total_albums").getAsInt());
+        assertFalse(json.has("rolling"));
+    }
+    
+    @Test
+    void testExportStreamsCompressedCsv() throws Exception {
+        HttpResponse<InputStream> response = client.send(
+            HttpRequest.newBuilder(URI.create(baseUrl + "/export?format=csv&compression=gzip")).build(),
+            HttpResponse.BodyHandlers.ofInputStream());
+        
+        assertEquals(200, response.statusCode());
+        try (InputStream in = new GZIPInputStream(response.body())) {
+            assertEquals("Discogs ID,Artist,Title,Year,Listened Date,Rating,Notes\n"
+                + "1,\"Pink Floyd\",\"Animals\",\"1977\",\"2024-03-05 09:07\",,\"\"\n",
+                new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+    
+    @Test
+    void testBadRequestsAreReportedAsJson() throws Exception {
+        assertError(400, get("/pick?min_year=soon"));
+        assertError(400, get("/export?format=pdf"));
+        assertError(404, send(HttpRequest.newBuilder(URI.create(baseUrl + "/history"))
+            .POST(HttpRequest.BodyPublishers.ofString("{\"discogs_id\": 99}")).build()));
+        for (String body : new String[] {"{\"discogs_id\": {}}", "{\"discogs_id\": \"one\"}",
+                "{\"discogs_id\": 1, \"rating\": 9}", "{\"title\": \"A\", \"rating\": []}"}) {
+            assertError(400, send(HttpRequest.newBuilder(URI.create(baseUrl + "/history"))
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build()));
+        }
+        assertError(405, send(HttpRequest.newBuilder(URI.create(baseUrl + "/stats"))
+            .DELETE().build()));
+    }
+    
+    @Test
+    void testWritesRacingWithReads() throws Exception {
+        // Each write invalidates the statistics that the reads next to it use
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 48; i++) {
+            HttpRequest request;
+            switch (i % 3) {
+                case 0:
+                    request = HttpRequest.newBuilder(URI.create(baseUrl + "/history"))
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"discogs_id\": 1}")).build();
+                    break;
+                case 1:
+                    request = HttpRequest.newBuilder(URI.create(baseUrl + "/pick?artist=floyd")).build();
+                    break;
+                default:
+                    request = HttpRequest.newBuilder(URI.create(baseUrl + "/stats")).build();
+            }
+            responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+        
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            int status = response.get(30, TimeUnit.SECONDS).statusCode();
+            assertTrue(status == 200 || status == 201, "status " + status);
+        }
+        assertEquals(17, historyService.getListenCount(1));
+        JsonObject stats = JsonParser.parseString(get("/stats").body()).getAsJsonObject();
+        assertEquals(17, stats.getAsJsonObject("statistics").get("total_albums").getAsInt());
+    }
+    
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(URI.create(baseUrl + path)).build());
+    }
+    
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+    
+    private static void assertError(int status, HttpResponse<String> response) {
+        assertEquals(status, response.statusCode());
+        assertTrue(JsonParser.parseString(response.body()).getAsJsonObject().has("error"));
+    }
+    
+    private static Album album(int id, String artist, String title, String year, String genre) {
+        return new Album.Builder()
+            .withDiscogsId(id)
+            .withTitle(title)
+            .withArtists(List.of(artist))
+            .withYear(year)
+            .withGenres(List.of(genre))
+            .build();
+    }
+}
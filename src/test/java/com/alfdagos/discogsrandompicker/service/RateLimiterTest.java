@@ -0,0 +1,82 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+    
+    private long now;
+    private long slept;
+    private RateLimiter rateLimiter;
+    
+    @BeforeEach
+    void setUp() {
+        now = 0;
+        slept = 0;
+        rateLimiter = new RateLimiter(61, () -> now, nanos -> {
+            slept += nanos;
+            now += nanos;
+        }, new Random(42));
+    }
+    
+    @Test
+    void testBurstUpToCapacityDoesNotWait() throws InterruptedException {
+        for (int i = 0; i < 60; i++) {
+            rateLimiter.acquire();
+        }
+        assertEquals(0, slept);
+    }
+    
+    @Test
+    void testEmptyBucketPacesAtLimit() throws InterruptedException {
+        for (int i = 0; i < 60; i++) {
+            rateLimiter.acquire();
+        }
+        
+        rateLimiter.acquire();
+        
+        // 60 usable requests per minute means one token per second
+        assertEquals(TimeUnit.SECONDS.toNanos(1), slept, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    
+    @Test
+    void testRemainingHeaderDrainsBucket() throws InterruptedException {
+        rateLimiter.update(61, 59, 2);
+        assertEquals(1, rateLimiter.availableTokens(), 0.001);
+        
+        rateLimiter.acquire();
+        assertEquals(0, slept);
+        
+        rateLimiter.acquire();
+        assertTrue(slept > 0);
+    }
+    
+    @Test
+    void testUsedHeaderIsUsedWhenRemainingIsMissing() {
+        rateLimiter.update(61, 51, -1);
+        assertEquals(9, rateLimiter.availableTokens(), 0.001);
+    }
+    
+    @Test
+    void testRetryAfterPausesCallers() throws InterruptedException {
+        long delay = rateLimiter.onRateLimited(0, 5000);
+        assertTrue(delay >= 5000 && delay < 6000);
+        
+        rateLimiter.acquire();
+        assertTrue(slept >= TimeUnit.MILLISECONDS.toNanos(delay));
+    }
+    
+    @Test
+    void testBackoffGrowsWithAttempts() {
+        long first = rateLimiter.onRateLimited(0, -1);
+        long third = rateLimiter.onRateLimited(2, -1);
+        
+        assertTrue(first >= 500 && first <= 1000);
+        assertTrue(third >= 2000 && third <= 4000);
+    }
+}
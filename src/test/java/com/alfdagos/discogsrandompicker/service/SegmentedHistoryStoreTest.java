@@ -0,0 +1,174 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.DateRange;
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentedHistoryStoreTest {
+    
+    private static final Clock JUNE_2024 = Clock.fixed(
+        LocalDateTime.of(2024, 6, 15, 12, 0).toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+    
+    @TempDir
+    Path tempDir;
+    
+    private Path historyDir;
+    private SegmentedHistoryStore store;
+    
+    @BeforeEach
+    void setUp() {
+        historyDir = tempDir.resolve("history");
+        store = new SegmentedHistoryStore(historyDir, SegmentedHistoryStore.Partition.MONTH, true, JUNE_2024);
+    }
+    
+    @Test
+    void testAppendWritesOneSegmentPerMonth() throws Exception {
+        store.append(List.of(entry(1, 2024, 1), entry(2, 2024, 3), entry(3, 2024, 1)));
+        store.append(List.of(entry(4, 2024, 6)));
+        
+        assertEquals(List.of("2024-01.jsonl", "2024-03.jsonl", "2024-06.jsonl"), segmentFiles());
+        assertEquals(List.of(1, 3, 2, 4), ids(new SegmentedHistoryStore(historyDir).readAll()));
+    }
+    
+    @Test
+    void testRangeQueryOnlyReadsOverlappingSegments() throws Exception {
+        store.append(List.of(entry(1, 2023, 12), entry(2, 2024, 2), entry(3, 2024, 3), entry(4, 2024, 5)));
+        store.replaceAll(store.readAll());
+        // A segment outside the range cannot be decoded, so it must not be opened
+        Files.write(historyDir.resolve("2").resolve("2024-05.jsonl.gz"), new byte[] {1, 2, 3});
+        
+        assertEquals(List.of(2, 3), ids(store.readRange(DateRange.parse("2024-02", "2024-04"))));
+        assertEquals(List.of(3), ids(store.readRange(
+            new DateRange(LocalDateTime.of(2024, 3, 1, 0, 0), LocalDateTime.of(2024, 3, 10, 0, 0)))));
+        assertThrows(IOException.class, () -> store.readAll());
+    }
+    
+    @Test
+    void testRewriteCompressesEndedPeriodsOnly() throws Exception {
+        store.append(List.of(entry(1, 2024, 5), entry(2, 2024, 6), entry(3, 2024, 5)));
+        store.replaceAll(store.readAll());
+        
+        assertEquals(List.of("2024-05.jsonl.gz", "2024-06.jsonl"), segmentFiles());
+        assertFalse(Files.exists(historyDir.resolve("1")));
+        
+        // Only the plain file of the open period can change without a new manifest
+        Object rewritten = store.version();
+        assertEquals(2, ((List<?>) rewritten).size());
+        
+        // Late additions to a compressed period go to a plain file beside it
+        store.append(List.of(entry(4, 2024, 5)));
+        assertEquals(List.of("2024-05.jsonl", "2024-05.jsonl.gz", "2024-06.jsonl"), segmentFiles());
+        Object appended = store.version();
+        assertNotEquals(rewritten, appended);
+        assertEquals(3, ((List<?>) appended).size());
+        store.append(List.of(entry(5, 2024, 5)));
+        assertNotEquals(appended, store.version());
+        store.replaceAll(store.readAll());
+        store.append(List.of(entry(4, 2024, 5)));
+        assertEquals(List.of(1, 3, 4, 5, 4, 2), ids(new SegmentedHistoryStore(historyDir).readAll()));
+        
+        List<Integer> newestFirst = new ArrayList<>();
+        store.scanBackward(entry -> newestFirst.add(entry.getDiscogsId()));
+        assertEquals(List.of(2, 4, 5, 4, 3, 1), newestFirst);
+    }
+    
+    @Test
+    void testScansFollowARewriteThatOvertakesThem() throws Exception {
+        store.append(List.of(entry(1, 2024, 1), entry(2, 2024, 3), entry(3, 2024, 6)));
+        List<ListeningHistoryEntry> history = store.readAll();
+        
+        // Each rewrite deletes the generation the scan started from
+        List<Integer> forward = new ArrayList<>();
+        store.scanRange(DateRange.ALL, entry -> {
+            rewrite(history, forward.isEmpty());
+            return forward.add(entry.getDiscogsId());
+        });
+        List<Integer> backward = new ArrayList<>();
+        store.scanBackward(entry -> {
+            rewrite(history, backward.isEmpty());
+            return backward.add(entry.getDiscogsId());
+        });
+        
+        assertEquals(List.of(1, 2, 3), forward);
+        assertEquals(List.of(3, 2, 1), backward);
+    }
+    
+    private void rewrite(List<ListeningHistoryEntry> history, boolean first) {
+        if (!first) {
+            return;
+        }
+        try {
+            store.replaceAll(history);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    @Test
+    void testStoreKeepsItsPartitionUntilRewritten() throws Exception {
+        store.append(List.of(entry(1, 2023, 1), entry(2, 2023, 2)));
+        
+        SegmentedHistoryStore yearly = new SegmentedHistoryStore(
+            historyDir, SegmentedHistoryStore.Partition.YEAR, false, JUNE_2024);
+        yearly.append(List.of(entry(3, 2023, 3)));
+        assertEquals(List.of("2023-01.jsonl", "2023-02.jsonl", "2023-03.jsonl"), segmentFiles());
+        
+        yearly.replaceAll(yearly.readAll());
+        assertEquals(List.of("2023.jsonl"), segmentFiles());
+        assertEquals(List.of(1, 2, 3), ids(store.readAll()));
+    }
+    
+    @Test
+    void testWorksAsHistoryServiceBackend() throws Exception {
+        HistoryService historyService = new HistoryService(store);
+        HistoryService other = new HistoryService(new SegmentedHistoryStore(historyDir));
+        historyService.addAll(List.of(entry(1, 2024, 4), entry(2, 2024, 5)));
+        
+        assertEquals(1, other.getListenCount(2));
+        assertEquals(List.of(2), ids(other.query(DateRange.parse("2024-05", null))));
+        
+        historyService.addToHistory(entry(2, 2024, 6));
+        assertEquals(2, other.getListenCount(2));
+        assertEquals(2, other.getRecentHistory(1).get(0).getDiscogsId());
+        
+        assertEquals(3, historyService.compactHistory());
+        assertEquals(3, other.getHistory().size());
+        historyService.clearHistory();
+        assertTrue(other.getHistory().isEmpty());
+    }
+    
+    private List<String> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(historyDir)) {
+            return files.filter(Files::isRegularFile)
+                .map(path -> path.getFileName().toString())
+                .filter(name -> !name.equals("manifest.json"))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+    
+    private static List<Integer> ids(List<ListeningHistoryEntry> entries) {
+        return entries.stream().map(ListeningHistoryEntry::getDiscogsId).collect(Collectors.toList());
+    }
+    
+    private static ListeningHistoryEntry entry(int id, int year, int month) {
+        return new ListeningHistoryEntry(id, "Artist", "Title " + id, "1990",
+            LocalDateTime.of(year, month, 1 + id, 20, 0));
+    }
+}
@@ -0,0 +1,276 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.DateRange;
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.alfdagos.discogsrandompicker.model.RollingStatistics;
+import com.alfdagos.discogsrandompicker.model.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatisticsServiceTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private Path historyFile;
+    private Path aggregateFile;
+    private HistoryService historyService;
+    private StatisticsService statisticsService;
+    
+    @BeforeEach
+    void setUp() {
+        historyFile = tempDir.resolve("history.json");
+        aggregateFile = tempDir.resolve("history.json.stats.json");
+        historyService = new HistoryService(historyFile.toString());
+        statisticsService = new StatisticsService(historyService);
+    }
+    
+    @Test
+    void testCountsByYearArtistAndDecade() throws Exception {
+        historyService.addAll(List.of(
+            entry("Miles Davis", "1959"),
+            entry("Miles Davis", "1970"),
+            entry("Kraftwerk", "1974"),
+            entry("Unknown Artist", "Unknown")));
+        
+        Statistics stats = statisticsService.generateStatistics();
+        
+        assertEquals(4, stats.getTotalAlbums());
+        assertEquals("Miles Davis", stats.getMostListenedArtist());
+        assertEquals(2, stats.getAlbumsByArtist().get("Miles Davis"));
+        assertEquals(Map.of("1959", 1, "1970", 1, "1974", 1, "Unknown", 1), stats.getAlbumsByYear());
+        assertEquals(Map.of("1950s", 1, "1970s", 2), stats.getAlbumsByDecade());
+        assertEquals("1970s", stats.getMostPopularDecade());
+        // Ties go to the smallest key
+        assertEquals("1959", stats.getMostPopularYear());
+    }
+    
+    @Test
+    void testAggregateIsUpdatedOnWritesAndMatchesRecompute() throws Exception {
+        historyService.addToHistory(entry("Can", "1971"));
+        statisticsService.generateStatistics();
+        
+        historyService.addToHistory(entry("Can", "1972"));
+        historyService.addAll(List.of(entry("Neu!", "1972"), entry("Faust", "1971")));
+        assertSameStatistics(statisticsService.recomputeStatistics(), statisticsService.generateStatistics());
+        assertEquals(4, statisticsService.generateStatistics().getTotalAlbums());
+        
+        historyService.compactHistory();
+        assertSameStatistics(statisticsService.recomputeStatistics(), statisticsService.generateStatistics());
+        
+        historyService.clearHistory();
+        assertEquals(0, statisticsService.generateStatistics().getTotalAlbums());
+    }
+    
+    @Test
+    void testSavedAggregateIsUsedWithoutReadingHistory() throws Exception {
+        historyService.addToHistory(entry("Can", "1971"));
+        statisticsService.generateStatistics();
+        historyService.addToHistory(entry("Can", "1972"));
+        assertTrue(Files.exists(aggregateFile));
+        
+        HistoryService unreadable = new HistoryService(new JsonLinesHistoryStore(historyFile) {
+            @Override
+            public List<ListeningHistoryEntry> readAll() {
+                throw new AssertionError("statistics should come from the saved aggregate");
+            }
+        });
+        Statistics stats = new StatisticsService(unreadable, aggregateFile).generateStatistics();
+        assertEquals(2, stats.getTotalAlbums());
+        assertEquals(2, stats.getAlbumsByArtist().get("Can"));
+    }
+    
+    @Test
+    void testStaleOrBrokenAggregateIsRecomputed() throws Exception {
+        historyService.addToHistory(entry("Can", "1971"));
+        statisticsService.generateStatistics();
+        
+        // Written by a service that does not maintain statistics
+        new HistoryService(historyFile.toString()).addToHistory(entry("Neu!", "1972"));
+        assertEquals(2, new StatisticsService(new HistoryService(historyFile.toString()))
+            .generateStatistics().getTotalAlbums());
+        
+        // The first service extends the aggregate saved by the second one
+        historyService.addToHistory(entry("Faust", "1971"));
+        assertEquals(3, statisticsService.generateStatistics().getTotalAlbums());
+        
+        Files.writeString(aggregateFile, "{\"format\": 1, \"to", StandardCharsets.UTF_8);
+        assertEquals(3, new StatisticsService(new HistoryService(historyFile.toString()))
+            .generateStatistics().getTotalAlbums());
+    }
+    
+    @Test
+    void testRangeStatisticsUseOnlyEntriesInRange() throws Exception {
+        historyService.addAll(List.of(
+            new ListeningHistoryEntry(1, "Can", "Tago Mago", "1971", LocalDateTime.of(2024, 1, 5, 20, 0)),
+            new ListeningHistoryEntry(2, "Neu!", "Neu! 75", "1975", LocalDateTime.of(2025, 2, 5, 20, 0))));
+        
+        Statistics stats = statisticsService.generateStatistics(DateRange.parse("2025", "2025"));
+        assertEquals(1, stats.getTotalAlbums());
+        assertEquals("Neu!", stats.getMostListenedArtist());
+    }
+    
+    @Test
+    void testParallelAggregateMatchesSequential() {
+        List<ListeningHistoryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 200_000; i++) {
+            String year = i % 97 == 0 ? "Unknown" : String.valueOf(1950 + i % 70);
+            entries.add(new ListeningHistoryEntry(i, "Artist " + i % 5_000, "Title", year, LocalDateTime.now()));
+        }
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertSameStatistics(StatisticsAggregate.of(entries).toStatistics(),
+                StatisticsService.count(entries, pool, StatisticsService.Mode.EXACT).toStatistics());
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    void testApproximateModeMarksEstimates() throws Exception {
+        historyService.addAll(List.of(entry("Can", "1971"), entry("Can", "1972"), entry("Neu!", "1972")));
+        StatisticsService approximate = new StatisticsService(historyService, StatisticsService.Mode.APPROXIMATE);
+        
+        Statistics stats = approximate.generateStatistics();
+        assertTrue(stats.isApproximate());
+        assertEquals(3, stats.getTotalAlbums());
+        assertEquals("Can", stats.getMostListenedArtist());
+        assertEquals(2, stats.getDistinctArtists());
+        assertEquals(Map.of("1971", 1, "1972", 2), stats.getAlbumsByYear());
+        assertTrue(Files.exists(tempDir.resolve("history.json.sketch.json")));
+        
+        String formatted = approximate.formatStatistics(stats);
+        assertTrue(formatted.contains("Can (~2 albums)"), formatted);
+        assertTrue(formatted.contains("Distinct Artists: ~2"), formatted);
+        assertFalse(statisticsService.formatStatistics(statisticsService.generateStatistics()).contains("~"));
+    }
+    
+    @Test
+    void testRollingWindowsAndStreaks() throws Exception {
+        historyService.addAll(List.of(
+            listenedOn("Can", 2024, 6, 20),
+            listenedOn("Can", 2025, 5, 1),
+            listenedOn("Neu!", 2025, 5, 29),
+            listenedOn("Neu!", 2025, 5, 30),
+            listenedOn("Can", 2025, 5, 31),
+            listenedOn("Faust", 2025, 5, 31),
+            listenedOn("Can", 2025, 6, 1)));
+        
+        RollingStatistics stats = statisticsService.generateRollingStatistics(LocalDate.of(2025, 6, 2));
+        assertEquals(5, stats.getListensLast7Days());
+        assertEquals(5, stats.getListensLast30Days());
+        assertEquals(7, stats.getListensLast365Days());
+        assertEquals(7 / 12.0, stats.getAveragePerMonth());
+        assertEquals(12, stats.getListensByMonth().size());
+        assertEquals(5, stats.getListensByMonth().get("2025-05"));
+        assertEquals(0, stats.getListensByMonth().get("2024-07"));
+        // Nothing yet on June 2nd, so the streak runs up to the day before
+        assertEquals(4, stats.getCurrentStreak());
+        assertEquals(4, stats.getLongestStreak());
+        assertEquals(0, statisticsService.generateRollingStatistics(LocalDate.of(2025, 6, 3)).getCurrentStreak());
+        
+        // Counts per day are saved with the aggregate
+        RollingStatistics reloaded = new StatisticsService(new HistoryService(historyFile.toString()))
+            .generateRollingStatistics(LocalDate.of(2025, 6, 2));
+        assertEquals(stats.getListensByMonth(), reloaded.getListensByMonth());
+    }
+    
+    @Test
+    void testArtistListensFollowWrites() throws Exception {
+        historyService.addAll(List.of(listenedOn("Can", 2025, 4, 30), listenedOn("Can", 2025, 5, 3)));
+        DateRange may = DateRange.parse("2025-05", "2025-05");
+        assertEquals(1, statisticsService.countArtistListens("Can", may));
+        
+        historyService.addAll(List.of(listenedOn("Can", 2025, 5, 20), listenedOn("Neu!", 2025, 5, 21)));
+        // Added with an earlier date, as by an import
+        historyService.addToHistory(listenedOn("Can", 2025, 5, 1));
+        assertEquals(3, statisticsService.countArtistListens("Can", may));
+        assertEquals(4, statisticsService.countArtistListens("Can", DateRange.ALL));
+        assertEquals(0, statisticsService.countArtistListens("Faust", may));
+        
+        new HistoryService(historyFile.toString()).addToHistory(listenedOn("Can", 2025, 5, 25));
+        assertEquals(4, statisticsService.countArtistListens("Can", may));
+        
+        historyService.compactHistory();
+        historyService.addToHistory(listenedOn("Neu!", 2025, 5, 26));
+        assertEquals(4, statisticsService.countArtistListens("Can", may));
+        assertEquals(2, statisticsService.countArtistListens("Neu!", may));
+        
+        historyService.clearHistory();
+        assertEquals(0, statisticsService.countArtistListens("Can", may));
+    }
+    
+    private static void assertSameStatistics(Statistics expected, Statistics actual) {
+        assertEquals(expected.getTotalAlbums(), actual.getTotalAlbums());
+        assertEquals(expected.getAlbumsByYear(), actual.getAlbumsByYear());
+        assertEquals(expected.getAlbumsByArtist(), actual.getAlbumsByArtist());
+        assertEquals(expected.getAlbumsByDecade(), actual.getAlbumsByDecade());
+        assertEquals(expected.getMostListenedArtist(), actual.getMostListenedArtist());
+        assertEquals(expected.getMostPopularYear(), actual.getMostPopularYear());
+        assertEquals(expected.getMostPopularDecade(), actual.getMostPopularDecade());
+    }
+    
+    @Test
+    void testReadsRacingWithWritesComplete() throws Exception {
+        int writes = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<?> writer = executor.submit(() -> {
+                for (int i = 0; i < writes; i++) {
+                    historyService.addToHistory(entry("Artist " + i % 5, "1990"));
+                }
+                return null;
+            });
+            // Writes race with the artist timeline being built and extended
+            Future<?> artistReader = executor.submit(() -> {
+                for (int i = 0; !writer.isDone(); i++) {
+                    statisticsService.countArtistListens("Artist " + i % 5, DateRange.ALL);
+                }
+                return null;
+            });
+            Future<?> statisticsReader = executor.submit(() -> {
+                while (!writer.isDone()) {
+                    statisticsService.generateStatistics();
+                    statisticsService.generateRollingStatistics();
+                }
+                return null;
+            });
+            
+            writer.get(30, TimeUnit.SECONDS);
+            artistReader.get(30, TimeUnit.SECONDS);
+            statisticsReader.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        assertEquals(writes, statisticsService.generateStatistics().getTotalAlbums());
+        assertEquals(writes / 5, statisticsService.countArtistListens("Artist 0", DateRange.ALL));
+    }
+    
+    private static ListeningHistoryEntry listenedOn(String artist, int year, int month, int day) {
+        return new ListeningHistoryEntry(artist.hashCode(), artist, "Title", "1971",
+            LocalDateTime.of(year, month, day, 21, 0));
+    }
+    
+    private static ListeningHistoryEntry entry(String artist, String year) {
+        return new ListeningHistoryEntry(artist.hashCode(), artist, "Title", year, LocalDateTime.now());
+    }
+}
@@ -0,0 +1,98 @@
+package com.alfdagos.discogsrandompicker.service;
+
+import com.alfdagos.discogsrandompicker.model.ListeningHistoryEntry;
+import com.alfdagos.discogsrandompicker.model.Statistics;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatisticsSketchTest {
+    
+    private static final int ARTISTS = 20_000;
+    private static final int ALBUMS = 50_000;
+    
+    private static List<ListeningHistoryEntry> history;
+    private static Statistics exact;
+    
+    @BeforeAll
+    static void setUp() {
+        // A few artists get most listens, as in real histories
+        Random random = new Random(7);
+        history = new ArrayList<>();
+        for (int i = 0; i < 300_000; i++) {
+            int artist = (int) Math.floor(Math.pow(ARTISTS, random.nextDouble())) - 1;
+            int album = random.nextInt(ALBUMS);
+            history.add(new ListeningHistoryEntry(album, "Artist " + artist, "Title", String.valueOf(1960 + artist % 60),
+                LocalDateTime.now()));
+        }
+        exact = StatisticsAggregate.of(history).toStatistics();
+    }
+    
+    @Test
+    void testEstimatesStayWithinErrorBounds() {
+        Statistics approximate = StatisticsSketch.of(history).toStatistics();
+        Map<String, Integer> exactCounts = exact.getAlbumsByArtist();
+        
+        assertEquals(exact.getTotalAlbums(), approximate.getTotalAlbums());
+        assertEquals(exact.getAlbumsByYear(), approximate.getAlbumsByYear());
+        assertEquals(exact.getAlbumsByDecade(), approximate.getAlbumsByDecade());
+        assertEquals(exact.getMostListenedArtist(), approximate.getMostListenedArtist());
+        assertEquals(StatisticsSketch.TOP_ARTISTS, approximate.getAlbumsByArtist().size());
+        
+        long error = approximate.getArtistCountError();
+        approximate.getAlbumsByArtist().forEach((artist, estimate) -> {
+            int count = exactCounts.get(artist);
+            assertTrue(estimate >= count && estimate <= count + error, artist + ": " + estimate + " vs " + count);
+        });
+        // The true top artists are all tracked
+        exactCounts.entrySet().stream()
+            .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+            .limit(10)
+            .forEach(top -> assertTrue(approximate.getAlbumsByArtist().containsKey(top.getKey()), top.getKey()));
+        
+        assertWithin(exactCounts.size(), approximate.getDistinctArtists(), 0.025);
+        long distinctAlbums = history.stream().mapToInt(ListeningHistoryEntry::getDiscogsId).distinct().count();
+        assertWithin(distinctAlbums, approximate.getDistinctAlbums(), 0.025);
+    }
+    
+    @Test
+    void testMergedAndSavedSketchesMatchSequential() {
+        Statistics sequential = StatisticsSketch.of(history).toStatistics();
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            StatisticsAccumulator merged = StatisticsService.count(history, pool, StatisticsService.Mode.APPROXIMATE);
+            assertSameEstimates(sequential, merged.toStatistics());
+            assertSameEstimates(sequential, StatisticsSketch.fromJson(merged.toJson()).toStatistics());
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    private static void assertSameEstimates(Statistics expected, Statistics actual) {
+        assertEquals(expected.getTotalAlbums(), actual.getTotalAlbums());
+        assertEquals(expected.getAlbumsByYear(), actual.getAlbumsByYear());
+        assertEquals(expected.getMostListenedArtist(), actual.getMostListenedArtist());
+        assertEquals(expected.getDistinctArtists(), actual.getDistinctArtists());
+        assertEquals(expected.getDistinctAlbums(), actual.getDistinctAlbums());
+        // Sketches add up exactly, so every artist listed in both has the same estimate
+        expected.getAlbumsByArtist().forEach((artist, estimate) -> {
+            Integer other = actual.getAlbumsByArtist().get(artist);
+            if (other != null) {
+                assertEquals(estimate, other, artist);
+            }
+        });
+    }
+    
+    private static void assertWithin(long expected, long actual, double tolerance) {
+        assertTrue(Math.abs(actual - expected) <= expected * tolerance, actual + " vs " + expected);
+    }
+}